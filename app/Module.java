@@ -3,8 +3,12 @@ import com.google.inject.assistedinject.FactoryProvider;
 
 import java.time.Clock;
 
+import play.Configuration;
+import play.Environment;
+
 import blackboard.Blackboard;
 import blackboard.JsonCodec;
+import blackboard.memory.MemoryBlackboard;
 import blackboard.neo4j.Neo4jBlackboard;
 import blackboard.neo4j.Neo4jJsonCodec;
 
@@ -24,12 +28,23 @@ import blackboard.mesh.MeshDb;
  * configuration file.
  */
 public class Module extends AbstractModule {
+    private final Configuration configuration;
+
+    public Module (Environment environment, Configuration configuration) {
+        this.configuration = configuration;
+    }
 
     @Override
     public void configure() {
         // Use the system clock as the default implementation of Clock
         bind(Clock.class).toInstance(Clock.systemDefaultZone());
-        bind(Blackboard.class).to(Neo4jBlackboard.class).asEagerSingleton();
+        if ("memory".equals(configuration.getString
+                            ("blackboard.storage", "neo4j")))
+            bind(Blackboard.class).to(MemoryBlackboard.class)
+                .asEagerSingleton();
+        else
+            bind(Blackboard.class).to(Neo4jBlackboard.class)
+                .asEagerSingleton();
         bind(JsonCodec.class).to(Neo4jJsonCodec.class);
         bind(ClinicalTrialFactory.class).toProvider
             (FactoryProvider.newFactory
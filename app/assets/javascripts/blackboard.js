@@ -56,68 +56,33 @@ function renderKGraph (id, url, wsurl) {
         });
         
         var ws = new WebSocket (wsurl);
+        var seq = 0;
         ws.onmessage = function (ev) {
-            var data = JSON.parse(ev.data);
-            //console.log(data);
-            data.id = data['@id'];
-            data.type = data['@type'];
-            switch (data.oper) {
-            case "ADD":
-                switch (data.kind) {
-                case "knode":
-                    var n = cy.add({
-                        group: "nodes",
-                        data: data
-                    });
-                    break;
-                    
-                case "kedge":
-                    if (data.source != data.target) {
-                        var e = cy.add({
-                            group: "edges",
-                            data: data
-                        });
-                    }
-                    break;
-                    
-                default:
-                    console.log('Unknown node kind: '+data.kind);
-                }
-                break;
-                
-            default:
-                console.log('Unknown operation: "'+data.oper+'"');
+            var frame = JSON.parse(ev.data);
+            var events = frame.kind === 'batch' ? frame.events : [frame];
+            for (var k = 0; k < events.length; ++k) {
+                consoleEvent (events[k]);
             }
-            var layout = cy.layout({
-                name: 'cose'
-            });
-            layout.run();
-        };
-        
-        var i = 0, len = kdata.nodes.length;
-        for (; i < len; ++i) {
-            var kn = kdata.nodes[i];
-            kn.id = kn['@id'];
-            kn.type = kn['@type'];
-            //console.log('node added: '+kn);
-            var n = cy.add({
-                group: "nodes",
-                data: kn
-            });
-        }
-        
-        len = kdata.edges.length;   
-        for (i = 0; i < len; ++i) {
-            var e = kdata.edges[i];
-            if (e.source != e.target) {
-                e.type = e['@type'];
-                cy.add({
-                    group: "edges",
-                    data: e
+            // frames skipped by seq were dropped on the way to us
+            var lost = seq > 0 && frame.seq > seq + 1;
+            if (frame.seq) {
+                seq = frame.seq;
+                ws.send(''+seq); // ready for more
+            }
+            if (frame.dropped || lost) {
+                // we fell behind; pick up whatever we missed
+                console.log('console dropped: '+JSON.stringify(frame.dropped));
+                $.get(url, function (kdata) {
+                    addKGraph (kdata);
+                    cy.layout({name: 'cose'}).run();
                 });
             }
-        }
-        
+            else if (events.length > 0) {
+                cy.layout({name: 'cose'}).run();
+            }
+        };
+
+        addKGraph (kdata);
         var layout = cy.layout({
             name: 'cose'
         });
@@ -125,6 +90,72 @@ function renderKGraph (id, url, wsurl) {
     });
 }
 
+function consoleEvent (data) {
+    data.id = data['@id'];
+    data.type = data['@type'];
+    switch (data.oper) {
+    case "ADD":
+        switch (data.kind) {
+        case "knode":
+            if (cy.getElementById(''+data.id).empty()) {
+                cy.add({
+                    group: "nodes",
+                    data: data
+                });
+            }
+            break;
+            
+        case "kedge":
+            data.id = 'e'+data.id;
+            if (data.source != data.target
+                && cy.getElementById(data.id).empty()) {
+                cy.add({
+                    group: "edges",
+                    data: data
+                });
+            }
+            break;
+            
+        default:
+            console.log('Unknown node kind: '+data.kind);
+        }
+        break;
+        
+    default:
+        console.log('Unknown operation: "'+data.oper+'"');
+    }
+}
+
+function addKGraph (kdata) {
+    var i = 0, len = kdata.nodes.length;
+    for (; i < len; ++i) {
+        var kn = kdata.nodes[i];
+        kn.id = kn['@id'];
+        kn.type = kn['@type'];
+        //console.log('node added: '+kn);
+        if (cy.getElementById(''+kn.id).empty()) {
+            cy.add({
+                group: "nodes",
+                data: kn
+            });
+        }
+    }
+    
+    len = kdata.edges.length;   
+    for (i = 0; i < len; ++i) {
+        var e = kdata.edges[i];
+        // edge ids are apart from node ids
+        e.id = 'e'+e['@id'];
+        if (e.source != e.target && cy.getElementById(e.id).empty()) {
+            e.type = e['@type'];
+            cy.add({
+                group: "edges",
+                data: e
+            });
+        }
+    }
+}
+
 function kgraph (id) {
     return cytoscape({
         container: $(id), // container to render in
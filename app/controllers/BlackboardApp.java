@@ -28,22 +28,28 @@ import controllers.api.kg.BlackboardSystem;
 @Singleton
 public class BlackboardApp extends Controller {
 
-    class ConsoleWebSocket extends LegacyWebSocket<JsonNode> {
+    /*
+     * frames are serialized once by the hub, so the socket carries text
+     */
+    class ConsoleWebSocket extends LegacyWebSocket<String> {
         final KGraph kgraph;
         ConsoleWebSocket (KGraph kgraph) {
             this.kgraph = kgraph;
         }
 
-        public void onReady (WebSocket.In<JsonNode> in,
-                             WebSocket.Out<JsonNode> out) {
+        public void onReady (WebSocket.In<String> in,
+                             WebSocket.Out<String> out) {
             Logger.debug("WebSocket initialized for kgraph="+kgraph.getId());
         }
         
         public boolean isActor () { return true; }
         public akka.actor.Props actorProps (ActorRef out) {
             try {
+                long id = kgraph.getId();
                 return akka.actor.Props.create
-                    (WebSocketConsoleActor.class, out, kgraph, consoles);
+                    (WebSocketConsoleActor.class, out, id, subscribe (kgraph),
+                     config.getInt("blackboard.console.window", 8),
+                     (Runnable)() -> unsubscribe (id));
             }
             catch (Exception ex) {
                 throw new RuntimeException (ex);
@@ -51,7 +57,21 @@ public class BlackboardApp extends Controller {
         }
     }
 
-    private final Map<Long, ActorRef> consoles = new ConcurrentHashMap<>();
+    /*
+     * the hub of a kgraph's consoles and how many connections use it
+     */
+    static class Console {
+        final ActorRef hub;
+        int viewers;
+
+        Console (ActorRef hub) {
+            this.hub = hub;
+        }
+    }
+
+    // kgraph id -> the console of the kgraph
+    private final Map<Long, Console> consoles = new ConcurrentHashMap<>();
+    private final ActorSystem actorSystem;
     private final Blackboard blackboard;
     private final KEvents events;
     private final Configuration config;
@@ -60,43 +80,42 @@ public class BlackboardApp extends Controller {
     public BlackboardApp (Configuration config, BlackboardSystem bbsys,
                           ApplicationLifecycle lifecycle) {
         this.config = config;
+        actorSystem = bbsys.actorSystem;
         blackboard = bbsys.blackboard;
         events = bbsys.events;
         
+        // the console hubs buffer and serialize the events themselves
         events.subscribe(KGraph.class, ev -> {
                 KGraph kg = (KGraph)ev.getEntity();
-                ActorRef ref = consoles.get(kg.getId());
-                if (ref != null) {
-                    JsonNode json = toJson (ev, kg);
-                    ref.tell(json, ActorRef.noSender());
+                Console c = ev.getOper() == KEvent.Oper.DELETE
+                    ? consoles.remove(kg.getId()) : consoles.get(kg.getId());
+                if (c != null) {
+                    c.hub.tell(ev, ActorRef.noSender());
+                    if (ev.getOper() == KEvent.Oper.DELETE)
+                        c.hub.tell(PoisonPill.getInstance(),
+                                   ActorRef.noSender());
                 }
                 Logger.debug(ev.getOper()+": graph "+kg.getId());
             });
         
         events.subscribe(KNode.class, ev -> {
                 KGraph kg = (KGraph)ev.getSource();
-                KNode kn = (KNode)ev.getEntity();               
-                ActorRef ref = consoles.get(kg.getId());
-                if (ref != null) {
-                    JsonNode json = toJson (ev, kn);
-                    ref.tell(json, ActorRef.noSender());
-                }
-                Logger.debug(ev.getOper()
-                             +": kgraph:"+kg.getId()+" node:"+kn.getId()
-                             +" type:"+kn.getType()+" name:"+kn.getName());
+                Console c = consoles.get(kg.getId());
+                if (c != null)
+                    c.hub.tell(ev, ActorRef.noSender());
+                if (Logger.isTraceEnabled())
+                    Logger.trace(ev.getOper()+": kgraph:"+kg.getId()
+                                 +" node:"+ev.getEntity().getId());
             });
         
         events.subscribe(KEdge.class, ev -> {
                 KGraph kg = (KGraph)ev.getSource();
-                KEdge ke = (KEdge)ev.getEntity();
-                ActorRef ref = consoles.get(kg.getId());
-                if (ref != null) {
-                    JsonNode json = toJson (ev, ke);
-                    ref.tell(json, ActorRef.noSender());
-                }
-                Logger.debug(ev.getOper()+": kgraph:"+kg.getId()
-                             +" source:"+ke.getSource()+" target:"
-                             +ke.getTarget());
+                Console c = consoles.get(kg.getId());
+                if (c != null)
+                    c.hub.tell(ev, ActorRef.noSender());
+                if (Logger.isTraceEnabled())
+                    Logger.trace(ev.getOper()+": kgraph:"+kg.getId()
+                                 +" edge:"+ev.getEntity().getId());
             });
 
         lifecycle.addStopHook(() -> {
@@ -105,35 +124,46 @@ public class BlackboardApp extends Controller {
             });
     }
 
-    void shutdown () {
-        for (ActorRef ref : consoles.values()) {
-            ref.tell(PoisonPill.getInstance(), ActorRef.noSender());
-        }
-        consoles.clear();
+    /*
+     * a hub lives as long as its kgraph has console connections; both
+     * ends happen under the map's lock of the kgraph so a connection
+     * never gets a hub that's on its way out
+     */
+    ActorRef subscribe (KGraph kg) {
+        return consoles.compute(kg.getId(), (id, c) -> {
+                if (c == null)
+                    c = new Console (actorSystem.actorOf
+                        (Props.create
+                         (ConsoleHubActor.class, kg,
+                          config.getLong("blackboard.console.interval", 250l),
+                          config.getInt("blackboard.console.batch", 500),
+                          config.getInt("blackboard.console.max", 5000))));
+                ++c.viewers;
+                return c;
+            }).hub;
     }
 
-    JsonNode toJson (KEvent ev, KEntity ent) {
-        ObjectNode json = (ObjectNode) Json.toJson(ent);
-        json.put("oper", ev.getOper().toString());      
-        if (ent instanceof KGraph) {
-            json.put("kind", "kgraph");
-        }
-        else if (ent instanceof KNode) {
-            json.put("kind", "knode");
-            json.put("kgraph", ((KGraph)ev.getSource()).getId());           
-        }
-        else if (ent instanceof KEdge) {
-            json.put("kind", "kedge");
-            json.put("kgraph", ((KGraph)ev.getSource()).getId());
+    void unsubscribe (long kgraph) {
+        consoles.computeIfPresent(kgraph, (id, c) -> {
+                if (--c.viewers > 0)
+                    return c;
+                c.hub.tell(PoisonPill.getInstance(), ActorRef.noSender());
+                return null;
+            });
+    }
+
+    void shutdown () {
+        for (Console c : consoles.values()) {
+            c.hub.tell(PoisonPill.getInstance(), ActorRef.noSender());
         }
-        return json;
+        consoles.clear();
     }
 
     public Result index () {
         return ok (views.html.blackboard.render());
     }
 
-    public LegacyWebSocket<JsonNode> console (final Long id) {
+    public LegacyWebSocket<String> console (final Long id) {
         KGraph kg = blackboard.getKGraph(id);   
         if (kg != null) {
             return new ConsoleWebSocket (kg);
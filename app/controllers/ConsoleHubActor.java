@@ -0,0 +1,174 @@
+package controllers;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import akka.actor.*;
+import play.libs.Json;
+import play.Logger;
+import scala.concurrent.duration.Duration;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+/**
+ * Fans the events of a kgraph out to its console connections; events are
+ * buffered and go out as one frame of kind "batch" every interval ms or
+ * once batch events are pending, whichever comes first. Events of the same
+ * entity are coalesced to the last one. Past max pending events only the
+ * count of what was dropped, per kind, goes out. Each frame is serialized
+ * once for all subscribers and numbered so a viewer that lost frames
+ * can tell. BlackboardApp stops the hub once its last subscriber is gone.
+ */
+public class ConsoleHubActor extends UntypedActor {
+    static final String FLUSH = "flush";
+    static final String SUBSCRIBE = "subscribe";
+
+    static class Frame {
+        final long seq;
+        final String text;
+
+        Frame (long seq, String text) {
+            this.seq = seq;
+            this.text = text;
+        }
+    }
+
+    final KGraph kgraph;
+    final long interval;
+    final int batch, max;
+    final Set<ActorRef> subscribers = new HashSet<>();
+    long seq;
+
+    // kind:id -> the last event of the entity
+    final Map<String, KEvent> pending = new LinkedHashMap<>();
+    final Map<String, Integer> dropped = new TreeMap<>();
+    Cancellable ticker;
+
+    public ConsoleHubActor (KGraph kgraph, long interval, int batch,
+                            int max) {
+        this.kgraph = kgraph;
+        this.interval = interval;
+        this.batch = batch;
+        this.max = max;
+        Logger.debug("ConsoleHubActor created "+self().path()
+                     +" for kgraph="+kgraph.getId());
+    }
+
+    @Override
+    public void preStart () {
+        ticker = context().system().scheduler().schedule
+            (Duration.create(interval, TimeUnit.MILLISECONDS),
+             Duration.create(interval, TimeUnit.MILLISECONDS),
+             self (), FLUSH, context().dispatcher(), self ());
+    }
+
+    public void onReceive (Object message) throws Exception {
+        if (message instanceof KEvent) {
+            if (subscribers.isEmpty())
+                return;
+            KEvent ev = (KEvent)message;
+            String key = kind (ev.getEntity())+":"+ev.getEntity().getId();
+            if (pending.remove(key) == null && pending.size() >= max)
+                dropped.merge(kind (ev.getEntity()), 1, Integer::sum);
+            else
+                pending.put(key, ev);
+            if (pending.size() >= batch)
+                flush ();
+        }
+        else if (FLUSH.equals(message)) {
+            flush ();
+        }
+        else if (SUBSCRIBE.equals(message)) {
+            subscribers.add(sender ());
+            context().watch(sender ());
+            Logger.debug("Console of kgraph "+kgraph.getId()+" has "
+                         +subscribers.size()+" subscriber(s)");
+        }
+        else if (message instanceof Terminated) {
+            subscribers.remove(((Terminated)message).getActor());
+            if (subscribers.isEmpty()) {
+                pending.clear();
+                dropped.clear();
+            }
+        }
+        else {
+            unhandled (message);
+        }
+    }
+
+    void flush () {
+        if (pending.isEmpty() && dropped.isEmpty())
+            return;
+
+        ObjectNode frame = Json.newObject();
+        frame.put("kind", "batch");
+        frame.put("kgraph", kgraph.getId());
+        frame.put("seq", ++seq);
+        ArrayNode events = frame.putArray("events");
+        for (KEvent ev : pending.values()) {
+            try {
+                events.add(toJson (ev));
+            }
+            catch (Exception ex) {
+                Logger.error("Can't serialize event for "
+                             +kind (ev.getEntity())+" "
+                             +ev.getEntity().getId(), ex);
+            }
+        }
+        if (!dropped.isEmpty()) {
+            ObjectNode counts = frame.putObject("dropped");
+            for (Map.Entry<String, Integer> me : dropped.entrySet())
+                counts.put(me.getKey(), me.getValue());
+            Logger.warn("Console of kgraph "+kgraph.getId()
+                        +" fell behind; dropped "+dropped);
+        }
+        pending.clear();
+        dropped.clear();
+
+        Frame f = new Frame (seq, Json.stringify(frame));
+        for (ActorRef ref : subscribers)
+            ref.tell(f, self ());
+    }
+
+    static String kind (KEntity ent) {
+        return ent instanceof KGraph ? "kgraph"
+            : ent instanceof KNode ? "knode"
+            : ent instanceof KEdge ? "kedge" : "kentity";
+    }
+
+    /*
+     * a deleted entity might not be readable anymore, so only its id goes
+     * out
+     */
+    static JsonNode toJson (KEvent ev) {
+        KEntity ent = ev.getEntity();
+        ObjectNode json;
+        if (ev.getOper() == KEvent.Oper.DELETE) {
+            json = Json.newObject();
+            json.put("@id", ent.getId());
+        }
+        else
+            json = (ObjectNode) Json.toJson(ent);
+        json.put("oper", ev.getOper().toString());
+        json.put("kind", kind (ent));
+        if (!(ent instanceof KGraph))
+            json.put(KGRAPH_P, ((KGraph)ev.getSource()).getId());
+        return json;
+    }
+
+    @Override
+    public void postStop () {
+        Logger.debug("Closing console kgraph "+kgraph.getId());
+        if (ticker != null)
+            ticker.cancel();
+        // the kgraph is gone (or we're shutting down), so are its consoles,
+        // but not before they get what's pending, like the kgraph's DELETE
+        flush ();
+        for (ActorRef ref : subscribers)
+            ref.tell(PoisonPill.getInstance(), self ());
+    }
+}
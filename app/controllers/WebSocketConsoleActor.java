@@ -1,45 +1,68 @@
 package controllers;
 
-import java.util.*;
 import akka.actor.*;
-import play.libs.Json;
 import play.Logger;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.JsonNode;
-
-import blackboard.*;
-import static blackboard.KEntity.*;
-
-
+/**
+ * One console connection of a kgraph; passes the frames of the kgraph's
+ * hub through the socket. The viewer acknowledges each frame by sending
+ * back its seq; while window frames are unacknowledged the frames that
+ * follow are dropped, so a viewer that can't keep up loses frames (and
+ * sees the gap in seq) rather than piling them up in the socket.
+ */
 public class WebSocketConsoleActor extends UntypedActor {
     final ActorRef out;
-    final KGraph kgraph;
-    final Map<Long, ActorRef> consoles;
-    
-    public WebSocketConsoleActor (ActorRef out, KGraph kgraph,
-                                  Map<Long, ActorRef> consoles) {
+    final long kgraph;
+    final int window;
+    final Runnable release;
+    long sent, acked;
+    int dropped;
+
+    public WebSocketConsoleActor (ActorRef out, Long kgraph, ActorRef hub,
+                                  Integer window, Runnable release) {
         this.out = out;
         this.kgraph = kgraph;
-        this.consoles = consoles;
+        this.window = window;
+        this.release = release;
         Logger.debug("WebSocketConsoleActor created "+self().path()
-                     +" for kgraph="+kgraph.getId()+" "+out);
-        
-        consoles.put(kgraph.getId(), self ());
+                     +" for kgraph="+kgraph+" "+out);
+        hub.tell(ConsoleHubActor.SUBSCRIBE, self ());
     }
-    
+
     public void onReceive (Object message) throws Exception {
-        if (message instanceof JsonNode) {
-            out.tell(message, self ()); // pass thru socket
+        if (message instanceof ConsoleHubActor.Frame) {
+            ConsoleHubActor.Frame frame = (ConsoleHubActor.Frame)message;
+            if (sent == 0l) // joined mid-stream
+                acked = frame.seq - 1;
+            if (sent - acked < window) {
+                sent = frame.seq;
+                out.tell(frame.text, self ()); // pass thru socket
+            }
+            else
+                ++dropped;
+        }
+        else if (message instanceof String) {
+            // the viewer acknowledging a frame
+            try {
+                acked = Math.max(acked, Long.parseLong
+                                 (((String)message).trim()));
+            }
+            catch (NumberFormatException ex) {
+                Logger.warn("Console of kgraph "+kgraph
+                            +" got bogus message: "+message);
+            }
         }
         else {
             unhandled (message);
         }
     }
-    
+
     @Override
     public void postStop () {
-        Logger.debug("Closing console kgraph "+kgraph.getId());
-        consoles.remove(kgraph.getId());
+        if (dropped > 0)
+            Logger.warn("Console connection of kgraph "+kgraph
+                        +" dropped "+dropped+" frame(s)");
+        Logger.debug("Closing console connection of kgraph "+kgraph);
+        release.run();
     }
 }
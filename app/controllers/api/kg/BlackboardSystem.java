@@ -5,17 +5,37 @@ import play.*;
 import play.mvc.*;
 import play.libs.ws.*;
 import play.libs.Json;
+import play.libs.F;
+import play.inject.ApplicationLifecycle;
+import play.api.http.MediaRange;
 import static play.mvc.Http.MultipartFormData.*;
 
 import akka.actor.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileInputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.ExecutionContextExecutor;
 import akka.actor.ActorSystem;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -26,33 +46,47 @@ import controllers.ks.KnowledgeSource;
 
 @Singleton
 public class BlackboardSystem extends Controller {
+    public static final String NDJSON = "application/x-ndjson";
 
     public final ActorSystem actorSystem;
     public final Blackboard blackboard;
     public final KnowledgeSource knowledgeSource;
     public final KEvents events;
     public final JsonCodec jsonCodec;
+    /*
+     * exports block on the client reading them, so they get their own
+     * threads rather than the actor system's
+     */
+    final ExecutorService exporter = Executors.newCachedThreadPool();
 
     @Inject
     public BlackboardSystem (ActorSystem actorSystem,
                              JsonCodec codec,
                              KnowledgeSource knowledgeSource,
                              KEvents events,
-                             Blackboard blackboard) {
+                             Blackboard blackboard,
+                             ApplicationLifecycle lifecycle) {
       this.actorSystem = actorSystem;
       this.blackboard = blackboard;
       this.jsonCodec = codec;
       this.knowledgeSource = knowledgeSource;
       this.events = events;
       Json.setObjectMapper(codec.getCompactMapper());
+      lifecycle.addStopHook(() -> {
+              exporter.shutdownNow();
+              return F.Promise.pure(null);
+          });
     }
     
+    public Result getEventMetrics () {
+        return json (events.getSubscriptions());
+    }
+
     public Result listKG () {
-        ArrayNode nodes = Json.newArray();
-        for (KGraph kg : blackboard) {
-            nodes.add(Json.toJson(kg));
-        }
-        return ok (nodes);
+        List<KGraph> kgraphs = new ArrayList<>();
+        for (KGraph kg : blackboard)
+            kgraphs.add(kg.snapshot());
+        return json (kgraphs);
     }
 
     @BodyParser.Of(value = BodyParser.Json.class)    
@@ -70,42 +104,294 @@ public class BlackboardSystem extends Controller {
         }
         
         KGraph kg = blackboard.createKGraph(props);
-        return ok (Json.toJson(kg));
+        return json (kg);
     }
 
     public Result getKG (Long id) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return notFound ("Unknown knowledge graph: "+id);
+        KGraph snapshot = kg.snapshot();
+        return conditional (snapshot, () -> {
+                long since = longParam ("since", -1l);
+                return since >= 0l ? delta (snapshot, since)
+                    : kgraph (snapshot);
+            });
+    }
+
+    Result kgraph (KGraph kg) {
         String view = request().getQueryString("view");
-        return ok ("full".equals(view)
-                   ? jsonCodec.toJson(kg, true) : Json.toJson(kg));
+        if (isNdjson ()) {
+            // the kgraph first, then its nodes and edges
+            ObjectWriter writer = ndjsonWriter (jsonCodec.getCompactMapper());
+            Stream<ByteString> lines = Stream.concat
+                (Stream.of(ndjson (writer, kg)),
+                 ndjson ("full".equals(view) ? jsonCodec.getFullMapper()
+                         : jsonCodec.getCompactMapper(),
+                         Stream.concat(kg.nodesAfter(-1l),
+                                       kg.edgesAfter(-1l))));
+            return ok().chunked(Source.fromIterator(lines::iterator))
+                .as(NDJSON);
+        }
+        return json (OK, kg, "full".equals(view));
+    }
+
+    /*
+     * ?since=<version> returns only the nodes and edges changed after
+     * that version; deletions show up only in the kgraph's version
+     */
+    Result delta (KGraph kg, long since) {
+        if (isNdjson ()) {
+            Stream<ByteString> lines = ndjson
+                (jsonCodec.getCompactMapper(),
+                 Stream.concat(kg.nodesSince(since), kg.edgesSince(since)));
+            return ok().chunked(Source.fromIterator(lines::iterator))
+                .as(NDJSON);
+        }
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("id", kg.getId());
+        delta.put("since", since);
+        delta.put("version", kg.getVersion());
+        delta.put("nodes", kg.nodesSince(since).collect(Collectors.toList()));
+        delta.put("edges", kg.edgesSince(since).collect(Collectors.toList()));
+        return json (delta);
+    }
+
+    /*
+     * the kgraph's version makes the etag; the url (query included) picks
+     * the representation, so caches keep them apart. 304 when the client
+     * already has the current version.
+     */
+    Result conditional (KGraph kg, Supplier<Result> body) {
+        String etag = "W/\""+kg.getId()+"."+kg.getVersion()
+            +(isNdjson () ? ".ndjson" : "")+"\"";
+        String modified = DateTimeFormatter.RFC_1123_DATE_TIME.format
+            (Instant.ofEpochMilli(kg.getModified()).atZone(ZoneOffset.UTC));
+
+        String match = request().getHeader(IF_NONE_MATCH);
+        boolean current = false;
+        if (match != null) {
+            for (String tag : match.split(","))
+                if (tag.trim().equals(etag) || tag.trim().equals("*"))
+                    current = true;
+        }
+        return (current ? status (NOT_MODIFIED) : body.get())
+            .withHeader(ETAG, etag)
+            .withHeader(LAST_MODIFIED, modified)
+            .withHeader(VARY, ACCEPT);
+    }
+
+    /*
+     * values are written straight to the response by the codec's
+     * streaming serializer; ?pretty indents them
+     */
+    Result json (int status, Object value, boolean full) {
+        boolean pretty = request().getQueryString("pretty") != null
+            && !"false".equals(request().getQueryString("pretty"));
+        try {
+            return status (status, jsonCodec.writer(full, pretty)
+                           .writeValueAsBytes(value)).as(Http.MimeTypes.JSON);
+        }
+        catch (IOException ex) {
+            Logger.error("Can't serialize "+value, ex);
+            return internalServerError (ex.getMessage());
+        }
+    }
+
+    Result json (Object value) {
+        return json (OK, value, false);
+    }
+
+    /*
+     * ?format=ndjson streams one entity per line, and so does an Accept
+     * header whose preferred type is application/x-ndjson itself;
+     * accepts() can't tell since it's true for any wildcard or no
+     * Accept header at all
+     */
+    boolean isNdjson () {
+        if ("ndjson".equals(request().getQueryString("format")))
+            return true;
+        List<MediaRange> types = request().acceptedTypes();
+        return !types.isEmpty() && NDJSON.equalsIgnoreCase
+            (types.get(0).mediaType()+"/"+types.get(0).mediaSubType());
+    }
+
+    static ObjectWriter ndjsonWriter (ObjectMapper mapper) {
+        return mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    static ByteString ndjson (ObjectWriter writer, Object value) {
+        try {
+            return ByteString.fromArray(writer.writeValueAsBytes(value))
+                .concat(ByteString.fromString("\n"));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        }
+    }
+
+    static Stream<ByteString> ndjson (ObjectMapper mapper,
+                                      Stream<? extends KEntity> entities) {
+        ObjectWriter writer = ndjsonWriter (mapper);
+        return entities.map(e -> ndjson (writer, e));
+    }
+
+    long longParam (String name, long def) {
+        String value = request().getQueryString(name);
+        try {
+            return value != null ? Long.parseLong(value) : def;
+        }
+        catch (NumberFormatException ex) {
+            return def;
+        }
+    }
+
+    /*
+     * entities are in order of id; ?after=<id> continues from the given
+     * id, ?skip and ?top page from there. A page that is full has a Link
+     * header to the next page.
+     */
+    Result list (Function<Long, Stream<? extends KEntity>> listing) {
+        long skip = Math.max(0l, longParam ("skip", 0l));
+        long top = longParam ("top", 0l);
+        Stream<? extends KEntity> entities =
+            listing.apply(longParam ("after", -1l)).skip(skip);
+        if (top > 0)
+            entities = entities.limit(top);
+
+        if (isNdjson ()) {
+            Stream<ByteString> lines =
+                ndjson (jsonCodec.getCompactMapper(), entities);
+            return ok().chunked(Source.fromIterator(lines::iterator))
+                .as(NDJSON);
+        }
+
+        List<KEntity> page = entities.collect(Collectors.toList());
+        Result result = json (page);
+        if (top > 0 && page.size() == top) {
+            result = result.withHeader
+                ("Link", "<"+request().path()+"?after="
+                 +page.get(page.size()-1).getId()+"&top="+top
+                 +(request().getQueryString("since") != null
+                   ? "&since="+request().getQueryString("since") : "")
+                 +">; rel=\"next\"");
+        }
+        return result;
     }
 
     public Result removeKG (Long id) {
         try {
             blackboard.removeKGraph(id);
-            return ok ();
+            // the actual delete happens in the background
+            return status (ACCEPTED);
         }
         catch (Exception ex) {
             return notFound (ex.getMessage());
         }
     }
 
-    public Result runKS (Long id, String ks) {
+    public Result persistKG (Long id) {
+        try {
+            KGraph kg = blackboard.persist(id);
+            return json (kg.snapshot());
+        }
+        catch (IllegalArgumentException ex) {
+            return notFound (ex.getMessage());
+        }
+        catch (UnsupportedOperationException ex) {
+            return badRequest (ex.getMessage());
+        }
+    }
+
+    /*
+     * the kgraph in the binary KGraphFormat, written as it's sent
+     */
+    public Result exportKG (Long id, Boolean compress) {
+        KGraph kg = blackboard.getKGraph(id);
+        if (kg == null)
+            return notFound ("Unknown knowledge graph: "+id);
+        KGraph snapshot = kg.snapshot();
+        Source<ByteString, ?> source = StreamConverters.asOutputStream()
+            .mapMaterializedValue(out -> {
+                    exporter.execute(() -> {
+                            try (OutputStream os = out) {
+                                KGraphFormat.write(snapshot, os, compress);
+                            }
+                            catch (IOException ex) {
+                                Logger.error("Can't export kgraph "+id, ex);
+                            }
+                        });
+                    return out;
+                });
+        return ok().chunked(source).as(KGraphFormat.MIME_TYPE)
+            .withHeader(CONTENT_DISPOSITION, "attachment; filename=kgraph-"
+                        +id+".kgb");
+    }
+
+    @BodyParser.Of(value = BodyParser.Raw.class)
+    public Result importKG () {
+        Http.RawBuffer body = request().body().asRaw();
+        if (body == null)
+            return badRequest ("No kgraph to import!");
+        try (InputStream in = new FileInputStream (body.asFile())) {
+            KGraph kg = KGraphFormat.read(blackboard, in);
+            return json (CREATED, kg.snapshot(), false);
+        }
+        catch (IOException ex) {
+            Logger.error("Can't import kgraph", ex);
+            return badRequest (ex.getMessage());
+        }
+    }
+
+    public Result restitchKG (Long id) {
+        KGraph kg = blackboard.getKGraph(id);
+        if (kg == null)
+            return notFound ("Unknown knowledge graph: "+id);
+        
+        ObjectNode json = Json.newObject();
+        json.put("kgraph", id);
+        json.put("edges", kg.restitch());
+        return ok (json);
+    }
+
+    public Result runKS (Long id, String ks, Boolean force,
+                         Integer priority) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return badRequest ("Unknown knowledge graph requested: "+id);
 
         try {
-            knowledgeSource.runKS(ks, kg);
+            KJob job = knowledgeSource.submitKS(ks, kg, force, priority);
+            return json (ACCEPTED, job, false);
+        }
+        catch (RejectedExecutionException ex) {
+            return status (SERVICE_UNAVAILABLE,
+                           "Too many knowledge source jobs queued!");
         }
         catch (Exception ex) {
             ex.printStackTrace();
             return badRequest (ex.getMessage());
         }
-        return ok ("Knowledge source \""+ks
-                   +"\" successfully executed on knowledge graph "+id);
+    }
+
+    public Result runPipeline (Long id, String pipeline,
+                               Boolean force, Integer priority) {
+        KGraph kg = blackboard.getKGraph(id);
+        if (kg == null)
+            return badRequest ("Unknown knowledge graph requested: "+id);
+
+        try {
+            KJob job = knowledgeSource.submitPipeline
+                (pipeline, kg, force, priority);
+            return json (ACCEPTED, job, false);
+        }
+        catch (RejectedExecutionException ex) {
+            return status (SERVICE_UNAVAILABLE,
+                           "Too many knowledge source jobs queued!");
+        }
+        catch (IllegalArgumentException ex) {
+            return badRequest (ex.getMessage());
+        }
     }
 
     public Result runKSNodeSeed (Long id, Long node, String ks) {
@@ -118,49 +404,60 @@ public class BlackboardSystem extends Controller {
             return badRequest ("Knowledge graph "+id+" has no node: "+node);
 
         try {
-            knowledgeSource.runKS(ks, kg, kn);
+            KJob job = knowledgeSource.submitKS(ks, kg, false, 0, kn);
+            return json (ACCEPTED, job, false);
+        }
+        catch (RejectedExecutionException ex) {
+            return status (SERVICE_UNAVAILABLE,
+                           "Too many knowledge source jobs queued!");
         }
         catch (Exception ex) {
             ex.printStackTrace();
             return badRequest (ex.getMessage());
         }
-        
-        return ok ("Knowledge source \""+ks
-                   +"\" successfully executed on knowledge graph "
-                   +id+" ande node "+node);
     }
 
     public Result getNodesForKG (Long id) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return badRequest ("Unknown knowledge graph requested: "+id);
-        return ok (Json.toJson(kg.getNodes()));
+        KGraph snapshot = kg.snapshot();
+        long since = longParam ("since", -1l);
+        return conditional (snapshot, () -> since < 0l
+                            ? list (snapshot::nodesAfter)
+                            : list (after -> snapshot.nodesSince(since)
+                                    .filter(n -> n.getId() > after)));
     }
 
     public Result getNodeForKG (Long id, Long nid) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return badRequest ("Unknown knowledge graph requested: "+id);
-        KNode kn = kg.node(nid);
+        KNode kn = kg.snapshot().node(nid);
         if (kn == null)
             return badRequest ("Knowledge graph "+id+" has no node: "+nid);
-        return ok (Json.toJson(kn));
+        return json (kn);
     }
 
     public Result getEdgesForKG (Long id) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return badRequest ("Unknown knowledge graph requested: "+id);
-        return ok (Json.toJson(kg.getEdges()));
+        KGraph snapshot = kg.snapshot();
+        long since = longParam ("since", -1l);
+        return conditional (snapshot, () -> since < 0l
+                            ? list (snapshot::edgesAfter)
+                            : list (after -> snapshot.edgesSince(since)
+                                    .filter(e -> e.getId() > after)));
     }
 
     public Result getEdgeForKG (Long id, Long eid) {
         KGraph kg = blackboard.getKGraph(id);
         if (kg == null)
             return badRequest ("Unknown knowledge graph requested: "+id);
-        KEdge ke = kg.edge(eid);
+        KEdge ke = kg.snapshot().edge(eid);
         if (ke == null)
             return badRequest ("Knowledge graph "+id+" has no edge: "+eid);
-        return ok (Json.toJson(ke));
+        return json (ke);
     }
 }
@@ -7,10 +7,14 @@ import play.*;
 import play.mvc.*;
 import play.libs.Json;
 import play.libs.ws.*;
+import play.libs.F;
+import play.inject.ApplicationLifecycle;
 import static play.mvc.Http.MultipartFormData.*;
 
 import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +32,13 @@ import blackboard.KSource;
 import blackboard.KSourceProvider;
 import blackboard.KGraph;
 import blackboard.KNode;
+import blackboard.KJob;
+import blackboard.KScheduler;
+import blackboard.KCache;
+import blackboard.KEvents;
+import ks.KSWarmup;
+import blackboard.PipelineKSource;
+import blackboard.FrontierKSource;
 
 @Singleton
 public class KnowledgeSource extends Controller {
@@ -36,21 +47,53 @@ public class KnowledgeSource extends Controller {
     
     final Injector injector;
     final ActorSystem actorSystem;
+    final KSWarmup warmup;
+    final KCache cache;
+    final KEvents events;
 
     final Map<String, KSourceProvider> ksources;
+    /*
+     * knowledge sources run here rather than on the request threads
+     */
+    final KScheduler scheduler;
+    final Map<Long, KJob> jobs = new ConcurrentHashMap<>();
+    final long jobExpire;
 
     @Inject
     public KnowledgeSource (Injector injector,
-                            ActorSystem actorSystem) {
+                            ActorSystem actorSystem,
+                            Configuration config,
+                            ApplicationLifecycle lifecycle,
+                            KSWarmup warmup,
+                            KCache cache,
+                            KEvents events) {
         this.injector = injector;
         this.actorSystem = actorSystem;
+        this.warmup = warmup;
+        this.cache = cache;
+        this.events = events;
 
         ksources = new TreeMap<>();
+        Map<String, Integer> budgets = new TreeMap<>();
         for (Binding<KSourceProvider> ksb
                  : injector.findBindingsByType(KTYPE)) {
             KSourceProvider ksp = ksb.getProvider().get();
             ksources.put(ksp.getId(), ksp);
+            String max = ksp.getProperties().get("max-jobs");
+            if (max != null)
+                budgets.put(ksp.getId(), Integer.parseInt(max));
         }
+
+        scheduler = new KScheduler
+            (config.getInt("blackboard.jobs.threads", 4),
+             config.getInt("blackboard.jobs.queue", 100), budgets);
+        jobExpire = config.getLong("blackboard.jobs.expire", 3600000l);
+        lifecycle.addStopHook(() -> {
+                for (KJob job : jobs.values())
+                    scheduler.cancel(job);
+                scheduler.shutdown();
+                return F.Promise.pure(null);
+            });
         Logger.debug(ksources.size()+" knowledge sources defined!");
     }
     
@@ -58,6 +101,18 @@ public class KnowledgeSource extends Controller {
         return ok (Json.toJson(ksources));
     }
 
+    /*
+     * 503 until every knowledge source has been warmed up
+     */
+    public Result ready () {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ready", warmup.isReady());
+        status.put("warmup", warmup.isEnabled());
+        status.put("ksources", warmup.getSources());
+        return warmup.isReady() ? ok (Json.toJson(status))
+            : status (SERVICE_UNAVAILABLE, Json.toJson(status));
+    }
+
     public Result getKS (String ks) {
         KSourceProvider ksp = ksources.get(ks);
         if (ksp != null) {
@@ -67,10 +122,103 @@ public class KnowledgeSource extends Controller {
     }
 
     public void runKS (String ks, KGraph kgraph, KNode... nodes) {
+        getKSource(ks, false).execute(kgraph, nodes);
+    }
+
+    /*
+     * without seeds, the knowledge source only gets the nodes it hasn't
+     * expanded yet at its current version unless forced
+     */
+    KSource getKSource (String ks, boolean force) {
         KSourceProvider ksp = ksources.get(ks);
         if (ksp == null)
             throw new IllegalArgumentException
                 ("Unknown knowledge source \""+ks+"\"");
-        ksp.getKS().execute(kgraph, nodes);
+        return new FrontierKSource (ks, ksp.getVersion(), ksp.getKS(), force);
+    }
+
+    /*
+     * queue the knowledge source to run in the background; throws
+     * RejectedExecutionException when the job queue is full
+     */
+    public KJob submitKS (String ks, KGraph kgraph, boolean force,
+                          int priority, KNode... nodes) {
+        return submit (new KJob (ks, getKSource (ks, force), priority,
+                                 kgraph, nodes));
+    }
+
+    KJob submit (KJob job) {
+        long expired = System.currentTimeMillis() - jobExpire;
+        jobs.values().removeIf(j -> j.isDone() && j.getFinished() < expired);
+        
+        jobs.put(job.getId(), job);
+        try {
+            scheduler.submit(job);
+        }
+        catch (RejectedExecutionException ex) {
+            jobs.remove(job.getId());
+            throw ex;
+        }
+        return job;
+    }
+
+    /*
+     * stages are separated by / and the knowledge sources of a stage by ,
+     * e.g., pharos,chembl/pubmed
+     */
+    public KJob submitPipeline (String pipeline, KGraph kgraph,
+                                boolean force, int priority) {
+        List<Map<String, KSource>> stages = new ArrayList<>();
+        for (String s : pipeline.split("/")) {
+            Map<String, KSource> stage = new LinkedHashMap<>();
+            for (String ks : s.split(","))
+                if (!ks.trim().isEmpty())
+                    stage.put(ks.trim(), getKSource (ks.trim(), force));
+            if (!stage.isEmpty())
+                stages.add(stage);
+        }
+        if (stages.isEmpty())
+            throw new IllegalArgumentException ("Empty pipeline!");
+        
+        return submit (new KJob (pipeline, new PipelineKSource (stages, events),
+                                 priority, kgraph));
+    }
+
+    public KJob getJob (long id) {
+        return jobs.get(id);
+    }
+
+    public Collection<KJob> getJobs () {
+        return jobs.values();
+    }
+
+    public Result listJobs () {
+        List<KJob> list = new ArrayList<>(jobs.values());
+        Collections.sort(list, (a, b) -> Long.compare(a.getId(), b.getId()));
+        return ok (Json.toJson(list));
+    }
+
+    public Result getScheduler () {
+        return ok (Json.toJson(scheduler.getMetrics()));
+    }
+
+    public Result getCacheMetrics () {
+        return ok (Json.toJson(cache.getMetrics()));
+    }
+
+    public Result getJob (Long id) {
+        KJob job = jobs.get(id);
+        if (job == null)
+            return notFound ("Unknown job: "+id);
+        return ok (Json.toJson(job));
+    }
+
+    public Result cancelJob (Long id) {
+        KJob job = jobs.get(id);
+        if (job == null)
+            return notFound ("Unknown job: "+id);
+        if (!scheduler.cancel(job))
+            return badRequest ("Job "+id+" has already finished!");
+        return status (ACCEPTED, Json.toJson(job));
     }
 }
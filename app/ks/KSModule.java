@@ -11,6 +11,8 @@ import javax.inject.Provider;
 import scala.collection.Seq;
 import play.inject.NamedImpl;
 import play.inject.Injector;
+import play.inject.ApplicationLifecycle;
+import play.libs.F;
 import play.Logger;
 import play.api.Configuration;
 import play.api.Environment;
@@ -27,6 +29,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 
 import blackboard.KSourceProvider;
 import blackboard.KSource;
+import blackboard.ConcurrentKSource;
 
 public class KSModule extends Module {
     public static class KSourceProviderImpl
@@ -45,6 +48,9 @@ public class KSModule extends Module {
         @JsonIgnore
         public final Map<String, String> properties = new TreeMap<>();
         public JsonNode data;
+        // why the last instantiation failed
+        @JsonIgnore
+        public volatile Exception initError;
         
         public KSourceProviderImpl (String klass) {
             if (klass == null)
@@ -52,16 +58,29 @@ public class KSModule extends Module {
             this.klass = klass;
         }
 
-        // lazy evaluation
-        public KSource getKS () {
+        // lazy evaluation unless warmed up by KSWarmup
+        public synchronized KSource getKS () {
             if (ksource == null) {
                 try {
                     ksource =
                         (KSource)injector.instanceOf(Class.forName(klass));
+                    String n = properties.get("concurrency");
+                    int concurrency = n != null ? Integer.parseInt(n) : 1;
+                    if (concurrency > 1) {
+                        ConcurrentKSource cks = new ConcurrentKSource
+                            (id, ksource, concurrency);
+                        injector.instanceOf(ApplicationLifecycle.class)
+                            .addStopHook(() -> {
+                                    cks.shutdown();
+                                    return F.Promise.pure(null);
+                                });
+                        ksource = cks;
+                    }
                 }
                 catch (Exception ex) {
                     Logger.error("Can't instantiate KSource instance: "
                                  +klass, ex);
+                    initError = ex;
                 }
             }
             return ksource;
@@ -147,6 +166,7 @@ public class KSModule extends Module {
             Logger.warn("Bad configuration", ex);
         }
 
+        list.add(bind (KSWarmup.class).toSelf().eagerly());
         return Scala.toSeq(list.build());
     }
 }
@@ -0,0 +1,118 @@
+package ks;
+
+import java.util.*;
+import java.util.concurrent.*;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import play.Logger;
+import play.Configuration;
+import play.libs.F;
+import play.inject.ApplicationLifecycle;
+
+import com.google.inject.Injector;
+import com.google.inject.Binding;
+
+import blackboard.KSource;
+import blackboard.KSourceProvider;
+import controllers.ks.KnowledgeSource;
+
+/**
+ * Instantiates all knowledge sources in parallel at startup when
+ * blackboard.warmup.enabled is set, so no request has to wait on a
+ * knowledge source's initialization.
+ */
+@Singleton
+public class KSWarmup {
+    public static class Status {
+        public final String id;
+        public volatile String state = "pending";
+        public volatile long time; // ms
+        public volatile String error;
+
+        Status (String id) {
+            this.id = id;
+        }
+    }
+
+    final boolean enabled;
+    final Map<String, Status> sources = new ConcurrentSkipListMap<>();
+    final CountDownLatch latch;
+    final ExecutorService threadPool;
+
+    @Inject
+    public KSWarmup (Injector injector, Configuration config,
+                     ApplicationLifecycle lifecycle) {
+        enabled = config.getBoolean("blackboard.warmup.enabled", false);
+        List<KSourceProvider> ksps = new ArrayList<>();
+        if (enabled) {
+            for (Binding<KSourceProvider> ksb
+                     : injector.findBindingsByType(KnowledgeSource.KTYPE))
+                ksps.add(ksb.getProvider().get());
+        }
+
+        latch = new CountDownLatch (ksps.size());
+        if (ksps.isEmpty()) {
+            threadPool = null;
+            return;
+        }
+
+        threadPool = Executors.newFixedThreadPool
+            (Math.min(ksps.size(),
+                      config.getInt("blackboard.warmup.threads", 4)));
+        for (KSourceProvider ksp : ksps) {
+            Status status = new Status (ksp.getId());
+            sources.put(ksp.getId(), status);
+            threadPool.submit(() -> {
+                    try {
+                        warmup (ksp, status);
+                    }
+                    finally {
+                        latch.countDown();
+                    }
+                });
+        }
+        threadPool.shutdown();
+        lifecycle.addStopHook(() -> {
+                threadPool.shutdownNow();
+                return F.Promise.pure(null);
+            });
+    }
+
+    void warmup (KSourceProvider ksp, Status status) {
+        long start = System.currentTimeMillis();
+        KSource ks = null;
+        Exception error = null;
+        try {
+            ks = ksp.getKS();
+            if (ks == null && ksp instanceof KSModule.KSourceProviderImpl)
+                error = ((KSModule.KSourceProviderImpl)ksp).initError;
+        }
+        catch (Exception ex) {
+            error = ex;
+        }
+        status.time = System.currentTimeMillis() - start;
+
+        if (ks == null) {
+            status.state = "failed";
+            status.error = error != null ? String.valueOf(error.getMessage())
+                : "Can't instantiate knowledge source";
+            Logger.warn("Knowledge source \""+ksp.getId()
+                        +"\" failed to initialize in "+status.time+"ms");
+        }
+        else {
+            status.state = "ready";
+            Logger.debug("Knowledge source \""+ksp.getId()
+                         +"\" initialized in "+status.time+"ms");
+        }
+    }
+
+    public boolean isEnabled () { return enabled; }
+
+    /*
+     * true once every knowledge source has been tried, whether or not
+     * it initialized; always true without warmup
+     */
+    public boolean isReady () { return latch.getCount() == 0; }
+    public Collection<Status> getSources () { return sources.values(); }
+}
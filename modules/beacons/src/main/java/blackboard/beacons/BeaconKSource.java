@@ -3,6 +3,7 @@ package blackboard.beacons;
 import java.net.URL;
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 import java.net.URLEncoder;
 import java.util.concurrent.*;
 
@@ -98,10 +99,15 @@ public class BeaconKSource implements KSource {
         Logger.debug("$"+ksp.getId()
                      +": executing on KGraph "+kgraph.getId()
                      +" \""+kgraph.getName()+"\"");
-        if (nodes == null || nodes.length == 0)
-            nodes = kgraph.getNodes();
-
-        for (KNode kn : nodes) {
+        Stream<KNode> seeds = nodes == null || nodes.length == 0
+            ? kgraph.nodeStream(null) : Stream.of(nodes);
+        for (Iterator<KNode> it = seeds.iterator(); it.hasNext(); ) {
+            KNode kn = it.next();
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
             if(kn.get("term")!=null)
             {
                 seedConcept ((String)kn.get("term"), kn, kgraph);
@@ -110,6 +116,7 @@ public class BeaconKSource implements KSource {
             {
                 seedConcept((String)kn.get("name"),kn,kgraph);
             }
+            FrontierKSource.expanded(kn);
 //            if (kn.get("clique")!=null){
 //                String clique = kn.get("clique").toString();
 //                seedConcept(clique,kn,kgraph);
@@ -48,8 +48,14 @@ public class DrugKSource implements KSource {
         KNode[] drugs = nodes == null || nodes.length == 0
             ?  kgraph.nodes(n -> "drug".equals(n.getType())) : nodes;
         for (KNode kn : drugs) {
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
             try {
                 seedDrug (kn, kgraph);
+                FrontierKSource.expanded(kn);
             }
             catch (Exception ex) {
                 Logger.error("Unable to resolve node "
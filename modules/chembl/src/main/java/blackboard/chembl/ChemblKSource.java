@@ -1,7 +1,9 @@
 
 package blackboard.chembl;
 
+import blackboard.FrontierKSource;
 import blackboard.KGraph;
+import blackboard.KJob;
 import blackboard.KNode;
 import blackboard.KSource;
 import blackboard.KSourceProvider;
@@ -20,6 +22,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 
 import static blackboard.KEntity.*;
 
@@ -58,10 +61,15 @@ public class ChemblKSource implements KSource{
         Logger.debug("$"+ksp.getId()
                 +": executing on KGraph "+kgraph.getId()
                 +" \""+kgraph.getName()+"\"");
-        if (nodes == null || nodes.length == 0)
-            nodes = kgraph.getNodes();
-
-        for (KNode kn : nodes) {
+        Stream<KNode> seeds = nodes == null || nodes.length == 0
+                ? kgraph.nodeStream(null) : Stream.of(nodes);
+        for (Iterator<KNode> it = seeds.iterator(); it.hasNext(); ) {
+            KNode kn = it.next();
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
             Logger.debug(kn.getName());
             HashSet<String> ids = getChemblIds(kn);
             if(!ids.isEmpty())
@@ -81,6 +89,7 @@ public class ChemblKSource implements KSource{
                     seedQuery(kn.get(NAME_P).toString(),kn,kgraph);
                 }
             }
+            FrontierKSource.expanded(kn);
         }
     }
 
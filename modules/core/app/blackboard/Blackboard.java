@@ -11,6 +11,11 @@ public interface Blackboard extends Iterable<KGraph> {
     void removeKGraph (long id);
     long getKGraphCount ();
     KGraph createKGraph (Map<String, Object> properties);
+    /*
+     * copy an in-memory kgraph (created with storage=memory) to
+     * persistent storage; returns the new kgraph
+     */
+    KGraph persist (long id);
 
     Collection<String> getNodeTypes ();
     Collection<String> getEdgeTypes ();
@@ -0,0 +1,112 @@
+package blackboard;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import play.Logger;
+
+/**
+ * Runs a knowledge source on its seed nodes concurrently, one seed per
+ * call to the wrapped source, with at most concurrency seeds in flight.
+ * Without seeds every (live) node of the kgraph is a seed; these are
+ * streamed rather than loaded up front. Writes go through the
+ * kgraph as usual; its find-or-create operations are serialized so seeds
+ * that reach the same node don't create it twice.
+ */
+public class ConcurrentKSource implements KSource {
+    final String id;
+    final KSource ksource;
+    final int concurrency;
+    final ExecutorService threadPool;
+
+    public ConcurrentKSource (String id, KSource ksource, int concurrency) {
+        this.id = id;
+        this.ksource = ksource;
+        this.concurrency = concurrency;
+        AtomicInteger count = new AtomicInteger ();
+        this.threadPool = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread t = new Thread (r, id+"-"+count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    public KSource getKSource () { return ksource; }
+    public int getConcurrency () { return concurrency; }
+
+    /*
+     * seeds running or waiting for a thread; bounds how far ahead of the
+     * threads the seeds are read
+     */
+    int getMaxInFlight () { return 2*concurrency; }
+
+    public void execute (KGraph kgraph, KNode... nodes) {
+        if (nodes != null && nodes.length == 1) {
+            ksource.execute(kgraph, nodes);
+            return;
+        }
+        // live nodes, loaded as they're needed
+        Stream<KNode> seeds = nodes == null || nodes.length == 0
+            ? kgraph.nodeStream(null) : Stream.of(nodes);
+
+        // seeds run on other threads, so the job has to be carried over
+        KJob job = KJob.CURRENT.get();
+        Set<Long> expanded = FrontierKSource.EXPANDED.get();
+        int max = getMaxInFlight ();
+        Semaphore inflight = new Semaphore (max);
+        AtomicInteger failed = new AtomicInteger ();
+        int count = 0;
+        try {
+            for (Iterator<KNode> it = seeds.iterator(); it.hasNext(); ) {
+                if (job != null && job.isCancelled())
+                    break;
+                inflight.acquire();
+                KNode kn = it.next();
+                ++count;
+                try {
+                    threadPool.execute(() -> {
+                            KJob.CURRENT.set(job);
+                            FrontierKSource.EXPANDED.set(expanded);
+                            try {
+                                if (job == null || !job.isCancelled())
+                                    ksource.execute(kgraph, kn);
+                            }
+                            catch (RuntimeException ex) {
+                                Logger.error("$"+id+": seed "+kn.getId()
+                                             +" failed on KGraph "
+                                             +kgraph.getId(), ex);
+                                failed.incrementAndGet();
+                            }
+                            finally {
+                                KJob.CURRENT.remove();
+                                FrontierKSource.EXPANDED.remove();
+                                inflight.release();
+                            }
+                        });
+                }
+                catch (RejectedExecutionException ex) {
+                    inflight.release();
+                    throw ex;
+                }
+            }
+            // wait for the last seeds
+            inflight.acquire(max);
+            inflight.release(max);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Logger.debug("$"+id+": "+count+" seed(s) processed on KGraph "
+                     +kgraph.getId()+" with concurrency "+concurrency
+                     +(failed.get() > 0 ? "; "+failed+" failed" : ""));
+    }
+
+    /*
+     * for the application's stop hook
+     */
+    public void shutdown () {
+        threadPool.shutdownNow();
+    }
+}
@@ -0,0 +1,90 @@
+package blackboard;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import play.Logger;
+
+/**
+ * Remembers which nodes a knowledge source has expanded, and at which
+ * version, in the hidden node property _ks.&lt;id&gt;. Without seeds only
+ * the nodes not yet expanded at the current version are processed, unless
+ * forced. Only the seeds the knowledge source reports with expanded() are
+ * marked, so seeds that failed (or that a cancelled run didn't get to)
+ * are tried again by the next run.
+ */
+public class FrontierKSource implements KSource {
+    public static final String EXPANDED_P = "_ks.";
+    /*
+     * ids of the seeds reported by the knowledge source running on the
+     * current thread; wrappers that run seeds on other threads carry it
+     * over like the job
+     */
+    static final ThreadLocal<Set<Long>> EXPANDED = new ThreadLocal<>();
+
+    final String id;
+    final String version;
+    final KSource ksource;
+    final boolean force;
+
+    public FrontierKSource (String id, String version,
+                            KSource ksource, boolean force) {
+        this.id = id;
+        this.version = version != null ? version : "";
+        this.ksource = ksource;
+        this.force = force;
+    }
+
+    /*
+     * knowledge sources call this once they're done with a seed
+     */
+    public static void expanded (KNode... nodes) {
+        Set<Long> expanded = EXPANDED.get();
+        if (expanded != null)
+            for (KNode kn : nodes)
+                expanded.add(kn.getId());
+    }
+
+    public void execute (KGraph kgraph, KNode... nodes) {
+        String prop = EXPANDED_P+id;
+        KNode[] seeds = nodes;
+        if (nodes == null || nodes.length == 0) {
+            // live nodes, since sources can write to their seeds
+            seeds = kgraph.nodeStream(null)
+                .filter(kn -> force || !version.equals(kn.get(prop)))
+                .toArray(KNode[]::new);
+            Logger.debug("$"+id+": "+seeds.length+" node(s) to expand on "
+                         +"KGraph "+kgraph.getId());
+            if (seeds.length == 0)
+                return;
+        }
+
+        Set<Long> expanded = ConcurrentHashMap.newKeySet();
+        Set<Long> outer = EXPANDED.get();
+        EXPANDED.set(expanded);
+        try {
+            ksource.execute(kgraph, seeds);
+        }
+        finally {
+            if (outer != null)
+                EXPANDED.set(outer);
+            else
+                EXPANDED.remove();
+        }
+
+        KGraphBatch batch = kgraph.batch();
+        for (KNode kn : seeds) {
+            if (!expanded.contains(kn.getId()))
+                continue;
+            KNode n = kgraph.node(kn.getId());
+            if (n != null)
+                batch.node(n).put(prop, version);
+        }
+        if (batch.size() > 0)
+            batch.execute();
+        if (expanded.size() < seeds.length)
+            Logger.debug("$"+id+": "+(seeds.length - expanded.size())
+                         +" of "+seeds.length+" seed(s) not expanded on "
+                         +"KGraph "+kgraph.getId());
+    }
+}
@@ -2,6 +2,7 @@ package blackboard;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public interface JsonCodec {
     ObjectMapper getFullMapper ();
@@ -10,4 +11,13 @@ public interface JsonCodec {
         return toJson (value, false);
     }
     JsonNode toJson (Object value, boolean full);
+    /*
+     * writes values straight to the output without building a tree;
+     * compact unless pretty
+     */
+    default ObjectWriter writer (boolean full, boolean pretty) {
+        ObjectWriter writer = (full ? getFullMapper ()
+                               : getCompactMapper ()).writer();
+        return pretty ? writer.withDefaultPrettyPrinter() : writer;
+    }
 }
@@ -0,0 +1,322 @@
+package blackboard;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import play.Logger;
+import play.Configuration;
+import play.libs.Json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Two tier cache for what knowledge sources fetch from remote services.
+ * Values are kept decoded in an LRU on the heap and encoded, gzip'ed, one
+ * file per entry under blackboard.cache.dir where they survive restarts.
+ * Every namespace has its own ttl and disk budget (blackboard.cache.*,
+ * overridden by blackboard.cache.namespaces.&lt;ns&gt;.*); past its budget
+ * a namespace loses its least recently used entries. Nulls aren't cached.
+ */
+@Singleton
+public class KCache {
+    /*
+     * encodes values for the disk; a null codec keeps the value on the
+     * heap only
+     */
+    public interface Codec<T> {
+        byte[] encode (T value) throws Exception;
+        T decode (byte[] data) throws Exception;
+    }
+
+    public static final Codec<byte[]> BYTES = new Codec<byte[]> () {
+            public byte[] encode (byte[] value) { return value; }
+            public byte[] decode (byte[] data) { return data; }
+        };
+
+    public static final Codec<JsonNode> JSON = new Codec<JsonNode> () {
+            public byte[] encode (JsonNode value) {
+                return Json.stringify(value).getBytes(StandardCharsets.UTF_8);
+            }
+            public JsonNode decode (byte[] data) {
+                return Json.parse(data);
+            }
+        };
+
+    static final int MAGIC = 0x4b434831; // KCH1
+
+    static class Entry {
+        final Object value;
+        final long expires;
+
+        Entry (Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /*
+     * a file of the disk tier as far as eviction is concerned
+     */
+    static class Slot {
+        final long size;
+        volatile long accessed;
+
+        Slot (long size, long accessed) {
+            this.size = size;
+            this.accessed = accessed;
+        }
+    }
+
+    public class Namespace {
+        public final String name;
+        public final long ttl; // ms
+        public final long maxBytes;
+        final File dir;
+        final Map<String, Slot> slots = new ConcurrentHashMap<>();
+        final AtomicLong bytes = new AtomicLong ();
+        final AtomicLong heapHits = new AtomicLong ();
+        final AtomicLong diskHits = new AtomicLong ();
+        final AtomicLong misses = new AtomicLong ();
+        final AtomicLong evictions = new AtomicLong ();
+
+        Namespace (String name) {
+            this.name = name;
+            String path = "blackboard.cache.namespaces."+name;
+            ttl = config.getMilliseconds
+                (path+".ttl", config.getMilliseconds
+                 ("blackboard.cache.ttl", TimeUnit.DAYS.toMillis(1)));
+            maxBytes = config.getBytes
+                (path+".disk", config.getBytes
+                 ("blackboard.cache.disk", 1l<<30));
+            dir = new File (base, name);
+            dir.mkdirs();
+            scan ();
+        }
+
+        /*
+         * pick up the entries of the last run
+         */
+        void scan () {
+            File[] files = dir.listFiles();
+            if (files == null)
+                return;
+            for (File f : files) {
+                if (f.getName().endsWith(".tmp"))
+                    f.delete();
+                else {
+                    slots.put(f.getName(),
+                              new Slot (f.length(), f.lastModified()));
+                    bytes.addAndGet(f.length());
+                }
+            }
+        }
+
+        File file (String key) {
+            return new File (dir, hash (key));
+        }
+
+        <T> Entry read (String key, Codec<T> codec) {
+            File f = file (key);
+            Slot slot = slots.get(f.getName());
+            if (slot == null)
+                return null;
+            try (DataInputStream in = new DataInputStream
+                 (new BufferedInputStream (new FileInputStream (f)))) {
+                if (in.readInt() != MAGIC)
+                    throw new IOException ("Not a cache entry");
+                long expires = in.readLong();
+                if (!key.equals(in.readUTF())) // hash collision
+                    return null;
+                if (expires < System.currentTimeMillis()) {
+                    remove (f.getName(), slot);
+                    return null;
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+                byte[] buf = new byte[8192];
+                try (InputStream gz = new GZIPInputStream (in)) {
+                    for (int n; (n = gz.read(buf)) > 0; )
+                        bos.write(buf, 0, n);
+                }
+                // the file's time keeps the lru order across restarts
+                slot.accessed = System.currentTimeMillis();
+                f.setLastModified(slot.accessed);
+                return new Entry (codec.decode(bos.toByteArray()), expires);
+            }
+            catch (Exception ex) {
+                Logger.warn("Cache "+name+": can't read "+key
+                            +"; dropping it", ex);
+                remove (f.getName(), slot);
+                return null;
+            }
+        }
+
+        <T> void write (String key, T value, Codec<T> codec,
+                        long expires) {
+            File f = file (key);
+            File tmp = new File (dir, f.getName()+"."
+                                 +Thread.currentThread().getId()+".tmp");
+            try {
+                byte[] data = codec.encode(value);
+                try (DataOutputStream out = new DataOutputStream
+                     (new BufferedOutputStream (new FileOutputStream (tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeLong(expires);
+                    out.writeUTF(key);
+                    GZIPOutputStream gz = new GZIPOutputStream (out);
+                    gz.write(data);
+                    gz.finish();
+                }
+                Files.move(tmp.toPath(), f.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+                Slot old = slots.put
+                    (f.getName(), new Slot (f.length(),
+                                            System.currentTimeMillis()));
+                bytes.addAndGet(f.length() - (old != null ? old.size : 0));
+            }
+            catch (Exception ex) {
+                Logger.warn("Cache "+name+": can't write "+key, ex);
+                tmp.delete();
+            }
+
+            if (bytes.get() > maxBytes)
+                evict ();
+        }
+
+        /*
+         * only if file is still the one of slot; a concurrent write might
+         * have replaced it with a fresh one
+         */
+        boolean remove (String file, Slot slot) {
+            if (!slots.remove(file, slot))
+                return false;
+            new File(dir, file).delete();
+            bytes.addAndGet(-slot.size);
+            return true;
+        }
+
+        /*
+         * least recently used files go until the namespace is back
+         * under 90% of its budget
+         */
+        synchronized void evict () {
+            long target = maxBytes / 10 * 9;
+            if (bytes.get() <= target)
+                return;
+            List<Map.Entry<String, Slot>> lru =
+                new ArrayList<>(slots.entrySet());
+            lru.sort((a, b) -> Long.compare(a.getValue().accessed,
+                                            b.getValue().accessed));
+            int count = 0;
+            for (Map.Entry<String, Slot> me : lru) {
+                if (bytes.get() <= target)
+                    break;
+                if (remove (me.getKey(), me.getValue()))
+                    ++count;
+            }
+            evictions.addAndGet(count);
+            Logger.debug("Cache "+name+": "+count+" entries evicted");
+        }
+
+        public Map<String, Object> getMetrics () {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("ttl", ttl);
+            metrics.put("heapHits", heapHits.get());
+            metrics.put("diskHits", diskHits.get());
+            metrics.put("misses", misses.get());
+            long total = heapHits.get() + diskHits.get() + misses.get();
+            metrics.put("hitRatio", total > 0
+                        ? (double)(total - misses.get()) / total : 0.);
+            metrics.put("diskEntries", slots.size());
+            metrics.put("diskBytes", bytes.get());
+            metrics.put("maxDiskBytes", maxBytes);
+            metrics.put("evictions", evictions.get());
+            return metrics;
+        }
+    }
+
+    final Configuration config;
+    final File base;
+    final Cache<String, Entry> heap;
+    final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+    @Inject
+    public KCache (Configuration config) {
+        this.config = config;
+        base = new File (config.getString
+                         ("blackboard.cache.dir",
+                          config.getString("blackboard.base", ".")+"/cache"));
+        base.mkdirs();
+        heap = CacheBuilder.newBuilder()
+            .maximumSize(config.getLong("blackboard.cache.heap", 10000l))
+            .build();
+    }
+
+    static String hash (String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA1");
+            byte[] d = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder ();
+            for (byte b : d)
+                sb.append(String.format("%1$02x", b & 0xff));
+            return sb.toString();
+        }
+        catch (Exception ex) {
+            throw new RuntimeException (ex);
+        }
+    }
+
+    public Namespace namespace (String name) {
+        return namespaces.computeIfAbsent(name, Namespace::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T getOrElse (String ns, String key, Codec<T> codec,
+                            Callable<T> loader) throws Exception {
+        Namespace space = namespace (ns);
+        String hkey = ns+"/"+key;
+        long now = System.currentTimeMillis();
+        Entry e = heap.getIfPresent(hkey);
+        if (e != null && e.expires >= now) {
+            space.heapHits.incrementAndGet();
+            return (T)e.value;
+        }
+
+        if (codec != null) {
+            e = space.read(key, codec);
+            if (e != null) {
+                space.diskHits.incrementAndGet();
+                heap.put(hkey, e);
+                return (T)e.value;
+            }
+        }
+
+        space.misses.incrementAndGet();
+        T value = loader.call();
+        if (value != null) {
+            long expires = System.currentTimeMillis() + space.ttl;
+            heap.put(hkey, new Entry (value, expires));
+            if (codec != null)
+                space.write(key, value, codec, expires);
+        }
+        return value;
+    }
+
+    public Map<String, Object> getMetrics () {
+        Map<String, Object> metrics = new TreeMap<>();
+        for (Namespace ns : namespaces.values())
+            metrics.put(ns.name, ns.getMetrics());
+        return metrics;
+    }
+}
@@ -0,0 +1,8 @@
+package blackboard;
+
+/**
+ * Direction of the edges relative to a node
+ */
+public enum KDirection {
+    IN, OUT, BOTH
+}
@@ -16,6 +16,7 @@ public interface KEntity {
     public static final String KGRAPH_P = "kgraph";
     public static final String XREF_P = "xref";
     public static final String SOURCE_P = "source";
+    public static final String STORAGE_P = "storage";
 
     @JsonAnyGetter
     Map<String, Object> getProperties ();
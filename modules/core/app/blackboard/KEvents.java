@@ -1,39 +1,263 @@
 package blackboard;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
+import play.Logger;
+import play.Configuration;
 
+/**
+ * Event dispatcher; each subscriber has its own bounded queue that is
+ * drained on a shared pool of threads, so publishers never wait on a slow
+ * listener for longer than the timeout of BLOCK, the default. The timeout
+ * is a deadline shared by all the events fired in one go (see deadline()),
+ * so a publisher firing a whole commit waits no longer than for a single
+ * event; once it passes, BLOCK drops like DROP. DROP and COALESCE lose
+ * events when a queue is full, so they're only for subscribers that can
+ * do without some. Events are delivered to a subscriber in the order they
+ * were fired.
+ */
 @Singleton
 public class KEvents<T extends KEntity> {
-    final ConcurrentMap<Class<T>, List<KEventListener<T>>> listeners =
+    public enum Backpressure {
+        DROP, // drop the new event
+        BLOCK, // block the publisher until there's room or timeout
+        COALESCE // replace queued events of the same entity, else oldest
+    }
+
+    static class Envelope<T extends KEntity> {
+        final KEvent<T> event;
+        final long fired = System.currentTimeMillis();
+
+        Envelope (KEvent<T> event) {
+            this.event = event;
+        }
+
+        boolean sameEntity (KEvent<T> ev) {
+            T a = event.getEntity(), b = ev.getEntity();
+            return a != null && b != null && a.getClass() == b.getClass()
+                && a.getId() == b.getId();
+        }
+    }
+
+    public class Subscription {
+        final Class<T> cls;
+        final KEventListener<T> listener;
+        final Backpressure backpressure;
+        final BlockingQueue<Envelope<T>> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean ();
+        final AtomicLong delivered = new AtomicLong ();
+        final AtomicLong dropped = new AtomicLong ();
+        final AtomicLong coalesced = new AtomicLong ();
+        final AtomicLong failed = new AtomicLong ();
+        // events ever queued, and those delivered, failed or replaced
+        final AtomicLong queued = new AtomicLong ();
+        final AtomicLong settled = new AtomicLong ();
+        final AtomicInteger maxLag = new AtomicInteger ();
+        volatile long latency;
+
+        Subscription (Class<T> cls, KEventListener<T> listener,
+                      Backpressure backpressure, int capacity) {
+            this.cls = cls;
+            this.listener = listener;
+            this.backpressure = backpressure;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        boolean offer (KEvent<T> ev, long deadline) {
+            Envelope<T> env = new Envelope<> (ev);
+            boolean queued = queue.offer(env);
+            if (!queued) {
+                switch (backpressure) {
+                case BLOCK:
+                    long wait = deadline - System.currentTimeMillis();
+                    try {
+                        if (wait > 0l)
+                            queued = queue.offer(env, wait,
+                                                 TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    break;
+
+                case COALESCE:
+                    int replaced = 0;
+                    for (Envelope<T> e : queue)
+                        if (e.sameEntity(ev) && queue.remove(e))
+                            ++replaced;
+                    if (replaced > 0) {
+                        coalesced.incrementAndGet();
+                        settled.addAndGet(replaced);
+                    }
+                    else if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                        settled.incrementAndGet();
+                    }
+                    queued = queue.offer(env);
+                    break;
+
+                default:
+                }
+            }
+
+            if (queued) {
+                this.queued.incrementAndGet();
+                maxLag.accumulateAndGet(queue.size(), Math::max);
+                schedule ();
+            }
+            else if (dropped.incrementAndGet() == 1l
+                     || backpressure == Backpressure.BLOCK)
+                Logger.warn("Listener "+getName()+" is "+queue.size()
+                            +" event(s) behind; event dropped");
+
+            return queued;
+        }
+
+        void schedule () {
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+                dispatcher.execute(this::drain);
+        }
+
+        void drain () {
+            try {
+                for (Envelope<T> env; (env = queue.poll()) != null; ) {
+                    try {
+                        listener.onEvent(env.event);
+                        delivered.incrementAndGet();
+                    }
+                    catch (Exception ex) {
+                        failed.incrementAndGet();
+                        Logger.error("Listener "+getName()
+                                     +" failed on event", ex);
+                    }
+                    latency = System.currentTimeMillis() - env.fired;
+                    settled.incrementAndGet();
+                }
+            }
+            finally {
+                scheduled.set(false);
+                // events might have come in after the last poll
+                schedule ();
+            }
+        }
+
+        /*
+         * waits up to timeout (ms) for the events queued so far to be
+         * delivered; false if they weren't
+         */
+        public boolean await (long timeout) throws InterruptedException {
+            long target = queued.get();
+            long end = System.currentTimeMillis() + timeout;
+            while (settled.get() < target) {
+                if (System.currentTimeMillis() > end)
+                    return false;
+                Thread.sleep(5l);
+            }
+            return true;
+        }
+
+        public String getName () { return listener.getClass().getName(); }
+        public String getType () { return cls.getName(); }
+        public Backpressure getBackpressure () { return backpressure; }
+        public int getCapacity () {
+            return queue.size() + queue.remainingCapacity();
+        }
+        // events queued but not yet delivered
+        public int getLag () { return queue.size(); }
+        public int getMaxLag () { return maxLag.get(); }
+        public long getDelivered () { return delivered.get(); }
+        public long getDropped () { return dropped.get(); }
+        public long getCoalesced () { return coalesced.get(); }
+        public long getFailed () { return failed.get(); }
+        // time (ms) from firing to delivery of the last event
+        public long getLatency () { return latency; }
+    }
+
+    final ConcurrentMap<Class<T>, List<Subscription>> listeners =
         new ConcurrentHashMap<>();
+    final ExecutorService dispatcher = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread (r, "KEvents-dispatcher");
+            t.setDaemon(true);
+            return t;
+        });
+    final int capacity;
+    final Backpressure backpressure;
+    final long timeout;
 
     public KEvents () {
+        this (1024, Backpressure.BLOCK, 5000l);
+    }
+
+    @Inject
+    public KEvents (Configuration config) {
+        this (config.getInt("blackboard.events.capacity", 1024),
+              Backpressure.valueOf
+              (config.getString("blackboard.events.backpressure",
+                                "block").toUpperCase()),
+              config.getLong("blackboard.events.timeout", 5000l));
     }
 
-    public void subscribe (Class<T> cls, KEventListener<T> listener) {
-        List<KEventListener<T>> list = listeners.get(cls);
-        if (list == null)
-            listeners.put(cls, list = new ArrayList<>());
-        list.add(listener);
+    public KEvents (int capacity, Backpressure backpressure, long timeout) {
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.timeout = timeout;
+    }
+
+    public Subscription subscribe (Class<T> cls, KEventListener<T> listener) {
+        return subscribe (cls, listener, backpressure, capacity);
+    }
+
+    public Subscription subscribe (Class<T> cls, KEventListener<T> listener,
+                                   Backpressure backpressure, int capacity) {
+        Subscription sub = new Subscription
+            (cls, listener, backpressure, capacity);
+        listeners.computeIfAbsent(cls, c -> new CopyOnWriteArrayList<>())
+            .add(sub);
+        return sub;
     }
 
     public boolean unsubscribe (Class<T> cls, KEventListener<T> listener) {
-        List<KEventListener<T>> list = listeners.get(cls);
-        return list != null ? list.remove(listener) : false;
+        List<Subscription> list = listeners.get(cls);
+        return list != null
+            ? list.removeIf(sub -> sub.listener == listener) : false;
+    }
+
+    public List<Subscription> getSubscriptions () {
+        List<Subscription> subs = new ArrayList<>();
+        for (List<Subscription> list : listeners.values())
+            subs.addAll(list);
+        return subs;
+    }
+
+    /*
+     * the deadline (ms since epoch) for BLOCK subscribers of events fired
+     * from now on
+     */
+    public long deadline () {
+        return System.currentTimeMillis() + timeout;
     }
 
     public int fireEvent (Class<T> cls, KEvent<T> kev) {
-        List<KEventListener<T>> list = listeners.get(cls);
-        int count = -1; 
+        return fireEvent (cls, kev, deadline ());
+    }
+
+    /*
+     * returns the number of subscribers the event was queued for, or -1
+     * if there are no subscribers for the class; BLOCK subscribers wait
+     * for room no later than deadline
+     */
+    public int fireEvent (Class<T> cls, KEvent<T> kev, long deadline) {
+        List<Subscription> list = listeners.get(cls);
+        int count = -1;
         if (list != null) {
             count = 0;
-            for (KEventListener<T> l : list) {
-                l.onEvent(kev);
-                ++count;
-            }
+            for (Subscription sub : list)
+                if (sub.offer(kev, deadline))
+                    ++count;
         }
         return count;
     }
@@ -2,6 +2,7 @@ package blackboard;
 
 import java.util.Map;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 import com.fasterxml.jackson.annotation.JsonView;
 
 /**
@@ -10,12 +11,36 @@ import com.fasterxml.jackson.annotation.JsonView;
 public interface KGraph extends KEntity {
     long getNodeCount ();
     long getEdgeCount ();
+    /*
+     * bumped on every committed change to the kgraph, along with the time
+     * of the change; entities keep the version they last changed at
+     */
+    long getVersion ();
+    long getModified ();
     @JsonView(BeanViews.Full.class)
     KNode[] getNodes ();
     KNode[] nodes (Predicate<KNode> predicate);
     @JsonView(BeanViews.Full.class)
     KEdge[] getEdges ();
     KEdge[] edges (Predicate<KEdge> predicate);
+    /*
+     * lazily loaded nodes of the given type (null for any type) that have
+     * all of the given tags, and edges of the given type (null for any
+     * type); these are preferred over the arrays above for large kgraphs
+     */
+    Stream<KNode> nodeStream (String type, String... tags);
+    Stream<KEdge> edgeStream (String type);
+    /*
+     * same as above but in order of id, starting after the given id;
+     * the id of the last entity seen continues the listing
+     */
+    Stream<KNode> nodesAfter (long id);
+    Stream<KEdge> edgesAfter (long id);
+    /*
+     * nodes and edges changed after the given version, in order of id
+     */
+    Stream<KNode> nodesSince (long version);
+    Stream<KEdge> edgesSince (long version);
     KNode node (long id);
     KEdge edge (long id);
     KNode createNode (Map<String, Object> properties);
@@ -27,6 +52,22 @@ public interface KGraph extends KEntity {
                               Map<String, Object> properties,
                               String key);
     KNode[] findNodes (String property, Object value);
+    /*
+     * create the missing resolve edges between nodes sharing synonyms;
+     * returns the number of edges created
+     */
+    int restitch ();
+    /*
+     * batch writer with the default and given chunk size, respectively
+     */
+    KGraphBatch batch ();
+    KGraphBatch batch (int chunkSize);
+    /*
+     * read-only view of this kgraph; its nodes and edges are immutable
+     * snapshots that are loaded in one transaction and don't need one
+     * afterward
+     */
+    KGraph snapshot ();
     void delete ();
     Blackboard blackboard ();
 }
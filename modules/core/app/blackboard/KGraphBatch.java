@@ -0,0 +1,46 @@
+package blackboard;
+
+import java.util.Map;
+
+/**
+ * Collects node and edge upserts for a knowledge graph and applies them
+ * together with as few transactions as possible. Nothing is written until
+ * execute() is called, which may commit the batch in chunks; the events
+ * for the new nodes and edges of a chunk are fired once it's committed.
+ * If execute() fails midway, the chunks committed before the failure stay
+ * committed and their events published.
+ */
+public interface KGraphBatch {
+    /**
+     * Handle to a node of the batch; the node itself is only available
+     * after the batch has been executed.
+     */
+    interface Ref {
+        Ref tag (String... tags);
+        Ref put (String prop, Object value);
+        KNode node ();
+    }
+
+    /*
+     * an existing node of the graph
+     */
+    Ref node (KNode node);
+    Ref createNode (Map<String, Object> properties);
+    Ref createNodeIfAbsent (Map<String, Object> properties, String key);
+
+    /*
+     * edges whose source and target resolve to the same node are skipped
+     */
+    void createEdge (Ref source, Ref target, String type,
+                     Map<String, Object> properties);
+    void createEdgeIfAbsent (Ref source, Ref target, String type);
+    void createEdgeIfAbsent (Ref source, Ref target, String type,
+                             Map<String, Object> properties, String key);
+
+    int size ();
+    /*
+     * apply all pending upserts; the batch is empty afterward and can
+     * be reused
+     */
+    void execute ();
+}
@@ -0,0 +1,571 @@
+package blackboard;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import play.Logger;
+import play.Configuration;
+
+import blackboard.neo4j.Neo4jBlackboard;
+import static blackboard.KEntity.*;
+
+/**
+ * Compact binary format for moving whole kgraphs around. After a 5 byte
+ * header ("KGB", version, flags) comes the kgraph's properties, then the
+ * nodes and the edges in blocks of up to BLOCK_SIZE rows each ended by an
+ * empty block. Blocks are columnar: ids (as deltas), tags or
+ * source/target/type, then one column per property key present in the
+ * block. Numbers are varints, short strings are interned as they're first
+ * seen and the rest of the stream is optionally gzip'ed.
+ *
+ * Resolve edges aren't written since importing the nodes stitches them
+ * again; the seed node of the export becomes the seed node of the kgraph
+ * created by the import.
+ */
+public class KGraphFormat {
+    public static final String MIME_TYPE = "application/x-kgraph";
+    static final byte[] MAGIC = {'K', 'G', 'B'};
+    static final int VERSION = 1;
+    static final int COMPRESSED = 1;
+    static final int BLOCK_SIZE = 4096;
+    static final int MAX_INTERNED = 64; // longest string that's interned
+    static final String RESOLVE_T = "resolve";
+    static final String SEED_TAG = "KQuery";
+
+    // value types
+    static final int NONE = 0;
+    static final int STRING = 1;
+    static final int LONG = 2;
+    static final int INT = 3;
+    static final int DOUBLE = 4;
+    static final int FLOAT = 5;
+    static final int TRUE = 6;
+    static final int FALSE = 7;
+    static final int STRINGS = 8;
+    static final int LONGS = 9;
+    static final int INTS = 10;
+    static final int DOUBLES = 11;
+    static final int BOOLEANS = 12;
+
+    /*
+     * string references are 0 for a literal, 1 for a literal that's
+     * added to the dictionary and 2+i for dictionary entry i
+     */
+    static class Output {
+        final DataOutputStream out;
+        final Map<String, Integer> dict = new HashMap<>();
+
+        Output (OutputStream out) {
+            this.out = new DataOutputStream (new BufferedOutputStream (out));
+        }
+
+        void varint (long v) throws IOException {
+            while ((v & ~0x7fl) != 0) {
+                out.write((int)((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int)v);
+        }
+
+        void zigzag (long v) throws IOException {
+            varint ((v << 1) ^ (v >> 63));
+        }
+
+        void literal (String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint (b.length);
+            out.write(b);
+        }
+
+        void string (String s) throws IOException {
+            Integer i = dict.get(s);
+            if (i != null)
+                varint (i + 2);
+            else if (s.length() <= MAX_INTERNED) {
+                dict.put(s, dict.size());
+                varint (1);
+                literal (s);
+            }
+            else {
+                varint (0);
+                literal (s);
+            }
+        }
+
+        void value (Object v) throws IOException {
+            if (v == null)
+                out.write(NONE);
+            else if (v instanceof Long) {
+                out.write(LONG);
+                zigzag ((Long)v);
+            }
+            else if (v instanceof Integer || v instanceof Short
+                     || v instanceof Byte) {
+                out.write(INT);
+                zigzag (((Number)v).longValue());
+            }
+            else if (v instanceof Double) {
+                out.write(DOUBLE);
+                out.writeDouble((Double)v);
+            }
+            else if (v instanceof Float) {
+                out.write(FLOAT);
+                out.writeFloat((Float)v);
+            }
+            else if (v instanceof Boolean)
+                out.write((Boolean)v ? TRUE : FALSE);
+            else if (v instanceof String[]) {
+                out.write(STRINGS);
+                varint (((String[])v).length);
+                for (String s : (String[])v)
+                    string (s);
+            }
+            else if (v instanceof long[]) {
+                out.write(LONGS);
+                varint (((long[])v).length);
+                for (long l : (long[])v)
+                    zigzag (l);
+            }
+            else if (v instanceof int[]) {
+                out.write(INTS);
+                varint (((int[])v).length);
+                for (int l : (int[])v)
+                    zigzag (l);
+            }
+            else if (v instanceof double[]) {
+                out.write(DOUBLES);
+                varint (((double[])v).length);
+                for (double d : (double[])v)
+                    out.writeDouble(d);
+            }
+            else if (v instanceof boolean[]) {
+                out.write(BOOLEANS);
+                varint (((boolean[])v).length);
+                for (boolean b : (boolean[])v)
+                    out.write(b ? 1 : 0);
+            }
+            else {
+                // whatever else there is is kept as its string
+                out.write(STRING);
+                string (v.toString());
+            }
+        }
+
+        void properties (Map<String, Object> props) throws IOException {
+            varint (props.size());
+            for (Map.Entry<String, Object> me : props.entrySet()) {
+                string (me.getKey());
+                value (me.getValue());
+            }
+        }
+
+        /*
+         * one column per key present in any of the rows
+         */
+        void columns (List<Map<String, Object>> props) throws IOException {
+            Set<String> keys = new TreeSet<>();
+            for (Map<String, Object> p : props)
+                keys.addAll(p.keySet());
+            varint (keys.size());
+            for (String key : keys) {
+                string (key);
+                for (Map<String, Object> p : props)
+                    value (p.get(key));
+            }
+        }
+
+        long ids (List<? extends KEntity> rows, long last) throws IOException {
+            varint (rows.size());
+            for (KEntity e : rows) {
+                varint (e.getId() - last);
+                last = e.getId();
+            }
+            return last;
+        }
+
+        void nodes (Stream<KNode> nodes) throws IOException {
+            List<KNode> rows = new ArrayList<>();
+            long last = 0l;
+            for (Iterator<KNode> it = nodes.iterator(); it.hasNext(); ) {
+                rows.add(it.next());
+                if (rows.size() == BLOCK_SIZE || !it.hasNext()) {
+                    last = ids (rows, last);
+                    List<Map<String, Object>> props = new ArrayList<>();
+                    for (KNode kn : rows) {
+                        List<String> tags = new ArrayList<>();
+                        for (String t : kn.getTags())
+                            if (!t.startsWith("KG:"))
+                                tags.add(t);
+                        varint (tags.size());
+                        for (String t : tags)
+                            string (t);
+                        props.add(kn.getProperties());
+                    }
+                    columns (props);
+                    rows.clear();
+                }
+            }
+            varint (0);
+        }
+
+        void edges (Stream<KEdge> edges) throws IOException {
+            List<KEdge> rows = new ArrayList<>();
+            long last = 0l;
+            for (Iterator<KEdge> it = edges.iterator(); it.hasNext(); ) {
+                rows.add(it.next());
+                if (rows.size() == BLOCK_SIZE || !it.hasNext()) {
+                    last = ids (rows, last);
+                    for (KEdge ke : rows)
+                        varint (ke.getSource());
+                    for (KEdge ke : rows)
+                        varint (ke.getTarget());
+                    List<Map<String, Object>> props = new ArrayList<>();
+                    for (KEdge ke : rows) {
+                        string (ke.getType());
+                        props.add(ke.getProperties());
+                    }
+                    columns (props);
+                    rows.clear();
+                }
+            }
+            varint (0);
+        }
+    }
+
+    static class Input {
+        final DataInputStream in;
+        final List<String> dict = new ArrayList<>();
+
+        Input (InputStream in) {
+            this.in = new DataInputStream (in);
+        }
+
+        long varint () throws IOException {
+            long v = 0l;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                v |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IOException ("Malformed varint");
+        }
+
+        long zigzag () throws IOException {
+            long v = varint ();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int count () throws IOException {
+            long n = varint ();
+            if (n < 0 || n > Integer.MAX_VALUE)
+                throw new IOException ("Bogus count: "+n);
+            return (int)n;
+        }
+
+        String literal () throws IOException {
+            byte[] b = new byte[count ()];
+            in.readFully(b);
+            return new String (b, StandardCharsets.UTF_8);
+        }
+
+        String string () throws IOException {
+            int ref = count ();
+            if (ref == 0)
+                return literal ();
+            if (ref == 1) {
+                String s = literal ();
+                dict.add(s);
+                return s;
+            }
+            if (ref - 2 >= dict.size())
+                throw new IOException ("Bogus string reference: "+ref);
+            return dict.get(ref - 2);
+        }
+
+        Object value () throws IOException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+            case NONE: return null;
+            case STRING: return string ();
+            case LONG: return zigzag ();
+            case INT: return (int)zigzag ();
+            case DOUBLE: return in.readDouble();
+            case FLOAT: return in.readFloat();
+            case TRUE: return true;
+            case FALSE: return false;
+            case STRINGS: {
+                String[] v = new String[count ()];
+                for (int i = 0; i < v.length; ++i)
+                    v[i] = string ();
+                return v;
+            }
+            case LONGS: {
+                long[] v = new long[count ()];
+                for (int i = 0; i < v.length; ++i)
+                    v[i] = zigzag ();
+                return v;
+            }
+            case INTS: {
+                int[] v = new int[count ()];
+                for (int i = 0; i < v.length; ++i)
+                    v[i] = (int)zigzag ();
+                return v;
+            }
+            case DOUBLES: {
+                double[] v = new double[count ()];
+                for (int i = 0; i < v.length; ++i)
+                    v[i] = in.readDouble();
+                return v;
+            }
+            case BOOLEANS: {
+                boolean[] v = new boolean[count ()];
+                for (int i = 0; i < v.length; ++i)
+                    v[i] = in.readUnsignedByte() != 0;
+                return v;
+            }
+            }
+            throw new IOException ("Unknown value type: "+type);
+        }
+
+        Map<String, Object> properties () throws IOException {
+            Map<String, Object> props = new TreeMap<>();
+            for (int n = count (); n > 0; --n) {
+                String key = string ();
+                props.put(key, value ());
+            }
+            return props;
+        }
+
+        void columns (List<Map<String, Object>> props) throws IOException {
+            for (int n = count (); n > 0; --n) {
+                String key = string ();
+                for (Map<String, Object> p : props) {
+                    Object v = value ();
+                    if (v != null)
+                        p.put(key, v);
+                }
+            }
+        }
+
+        long[] ids (int size, long last) throws IOException {
+            long[] ids = new long[size];
+            for (int i = 0; i < size; ++i)
+                ids[i] = last += varint ();
+            return ids;
+        }
+    }
+
+    static void header (OutputStream out, boolean compress)
+        throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compress ? COMPRESSED : 0);
+    }
+
+    /*
+     * reads the header and returns the stream the rest is read from
+     */
+    static InputStream header (InputStream in) throws IOException {
+        byte[] header = new byte[MAGIC.length + 2];
+        new DataInputStream(in).readFully(header);
+        if (!Arrays.equals(MAGIC, Arrays.copyOf(header, MAGIC.length)))
+            throw new IOException ("Not a kgraph stream!");
+        if (header[MAGIC.length] != VERSION)
+            throw new IOException ("Unsupported kgraph stream version: "
+                                   +header[MAGIC.length]);
+        return (header[MAGIC.length+1] & COMPRESSED) != 0
+            ? new GZIPInputStream (in, 1<<16)
+            : new BufferedInputStream (in, 1<<16);
+    }
+
+    /*
+     * writes a snapshot of the kgraph; the output stream isn't closed
+     */
+    public static void write (KGraph kgraph, OutputStream out,
+                              boolean compress) throws IOException {
+        long start = System.currentTimeMillis();
+        KGraph kg = kgraph.snapshot();
+        header (out, compress);
+        GZIPOutputStream gzip = compress
+            ? new GZIPOutputStream (out, 1<<16) : null;
+        Output output = new Output (compress ? gzip : out);
+        output.properties(kg.getProperties());
+        output.nodes(kg.nodesAfter(-1l));
+        output.edges(kg.edgesAfter(-1l)
+                     .filter(e -> !RESOLVE_T.equals(e.getType())));
+        output.out.flush();
+        if (gzip != null)
+            gzip.finish();
+        Logger.debug("KGraph "+kg.getId()+" exported in "
+                     +String.format("%1$.3fs",
+                                    (System.currentTimeMillis()-start)
+                                    /1000.));
+    }
+
+    /*
+     * creates a new kgraph on the blackboard from the stream and loads
+     * it with the batch writer, one block per batch; the kgraph is
+     * removed again if the stream can't be read to the end
+     */
+    public static KGraph read (Blackboard blackboard, InputStream in)
+        throws IOException {
+        long start = System.currentTimeMillis();
+        Input input = new Input (header (in));
+        Map<String, Object> props = input.properties();
+        props.remove(STORAGE_P);
+        props.remove(KGRAPH_P);
+        KGraph kg = blackboard.createKGraph(props);
+        try {
+            KNode seed = kg.nodeStream(null, SEED_TAG)
+                .findFirst().orElse(null);
+
+            // ids of the stream to ids of the new kgraph
+            Map<Long, Long> ids = new HashMap<>();
+            KGraphBatch batch = kg.batch();
+            long last = 0l;
+            for (int size; (size = input.count ()) > 0; ) {
+                long[] block = input.ids(size, last);
+                last = block[size-1];
+                List<String[]> tags = new ArrayList<>();
+                for (int i = 0; i < size; ++i) {
+                    String[] t = new String[input.count ()];
+                    for (int j = 0; j < t.length; ++j)
+                        t[j] = input.string();
+                    tags.add(t);
+                }
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (int i = 0; i < size; ++i)
+                    rows.add(new TreeMap<>());
+                input.columns(rows);
+
+                Map<Long, KGraphBatch.Ref> refs = new LinkedHashMap<>();
+                for (int i = 0; i < size; ++i) {
+                    if (seed != null
+                        && Arrays.asList(tags.get(i)).contains(SEED_TAG)) {
+                        ids.put(block[i], seed.getId());
+                        seed = null;
+                        continue;
+                    }
+                    Map<String, Object> p = rows.get(i);
+                    p.remove(KGRAPH_P);
+                    refs.put(block[i], batch.createNode(p).tag(tags.get(i)));
+                }
+                batch.execute();
+                for (Map.Entry<Long, KGraphBatch.Ref> me : refs.entrySet())
+                    ids.put(me.getKey(), me.getValue().node().getId());
+            }
+
+            int skipped = 0;
+            last = 0l;
+            for (int size; (size = input.count ()) > 0; ) {
+                last = input.ids(size, last)[size-1];
+                long[] sources = new long[size], targets = new long[size];
+                for (int i = 0; i < size; ++i)
+                    sources[i] = input.varint();
+                for (int i = 0; i < size; ++i)
+                    targets[i] = input.varint();
+                String[] types = new String[size];
+                for (int i = 0; i < size; ++i)
+                    types[i] = input.string();
+                List<Map<String, Object>> rows = new ArrayList<>();
+                for (int i = 0; i < size; ++i)
+                    rows.add(new TreeMap<>());
+                input.columns(rows);
+
+                Map<Long, KGraphBatch.Ref> refs = new HashMap<>();
+                for (int i = 0; i < size; ++i) {
+                    Long source = ids.get(sources[i]);
+                    Long target = ids.get(targets[i]);
+                    if (source == null || target == null) {
+                        ++skipped;
+                        continue;
+                    }
+                    Map<String, Object> p = rows.get(i);
+                    p.remove(KGRAPH_P);
+                    batch.createEdge
+                        (refs.computeIfAbsent
+                         (source, id -> batch.node(kg.node(id))),
+                         refs.computeIfAbsent
+                         (target, id -> batch.node(kg.node(id))),
+                         types[i], p);
+                }
+                batch.execute();
+            }
+
+            Logger.debug("KGraph "+kg.getId()+" imported with "+ids.size()
+                         +" node(s) in "
+                         +String.format("%1$.3fs",
+                                        (System.currentTimeMillis()-start)
+                                        /1000.)
+                         +(skipped > 0 ? "; "+skipped
+                           +" edge(s) with unknown nodes skipped" : ""));
+        }
+        catch (IOException | RuntimeException ex) {
+            // don't leave a partial kgraph behind
+            blackboard.removeKGraph(kg.getId());
+            throw ex;
+        }
+        return kg;
+    }
+
+    /*
+     * export and import against a blackboard database that isn't in use
+     * by a running instance
+     */
+    public static void main (String[] argv) throws Exception {
+        if (argv.length < 3 || !("export".equals(argv[0])
+                                 || "import".equals(argv[0]))) {
+            System.err.println("Usage: "+KGraphFormat.class.getName()
+                               +" export BASE KGRAPH [FILE] [-z]");
+            System.err.println("       "+KGraphFormat.class.getName()
+                               +" import BASE FILE");
+            System.err.println
+                ("where BASE is the blackboard.base directory, KGRAPH is "
+                 +"the id of the kgraph\nto export to FILE (standard "
+                 +"output if not given) and -z compresses\nthe export.");
+            System.exit(1);
+        }
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("blackboard.base", argv[1]);
+        List<Callable<? extends CompletionStage<?>>> hooks = new ArrayList<>();
+        Neo4jBlackboard blackboard = new Neo4jBlackboard
+            (new Configuration (config), new KEvents (), hooks::add);
+        try {
+            if ("export".equals(argv[0])) {
+                KGraph kg = blackboard.getKGraph(Long.parseLong(argv[2]));
+                if (kg == null)
+                    throw new IllegalArgumentException
+                        ("Unknown knowledge graph: "+argv[2]);
+                boolean compress = Arrays.asList(argv).contains("-z");
+                if (argv.length > 3 && !"-z".equals(argv[3])) {
+                    try (OutputStream out = new FileOutputStream (argv[3])) {
+                        write (kg, out, compress);
+                    }
+                }
+                else {
+                    write (kg, System.out, compress);
+                    System.out.flush();
+                }
+            }
+            else {
+                try (InputStream in = new FileInputStream (argv[2])) {
+                    KGraph kg = read (blackboard, in);
+                    System.err.println("Knowledge graph "+kg.getId()
+                                       +" imported from "+argv[2]);
+                }
+            }
+        }
+        finally {
+            for (Callable<? extends CompletionStage<?>> hook : hooks)
+                hook.call().toCompletableFuture().join();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package blackboard;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import play.Logger;
+
+/**
+ * A knowledge source run in the background. Cancellation is cooperative;
+ * knowledge sources should check cancelled() between seeds.
+ */
+public class KJob implements Runnable {
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    static final AtomicLong IDS = new AtomicLong ();
+    static final ThreadLocal<KJob> CURRENT = new ThreadLocal<>();
+
+    final long id = IDS.incrementAndGet();
+    final String ks;
+    final KGraph kgraph;
+    final KNode[] nodes;
+    final KSource ksource;
+    final long submitted = System.currentTimeMillis();
+
+    // QUEUED goes to RUNNING or CANCELLED, whichever of run() and cancel()
+    // gets there first
+    final AtomicReference<Status> status =
+        new AtomicReference<> (Status.QUEUED);
+    volatile boolean cancelled;
+    volatile long started, finished;
+    volatile long nodeCount, edgeCount; // at the start
+    volatile long nodesAdded, edgesAdded;
+    volatile String error;
+    volatile String stage; // of a pipeline
+    int priority; // higher runs first within the kgraph
+
+    public KJob (String ks, KSource ksource, KGraph kgraph, KNode... nodes) {
+        this (ks, ksource, 0, kgraph, nodes);
+    }
+
+    public KJob (String ks, KSource ksource, int priority,
+                 KGraph kgraph, KNode... nodes) {
+        this.ks = ks;
+        this.priority = priority;
+        this.ksource = ksource;
+        this.kgraph = kgraph;
+        this.nodes = nodes;
+    }
+
+    /*
+     * true if the job running on the current thread has been cancelled
+     */
+    public static boolean cancelled () {
+        KJob job = CURRENT.get();
+        return job != null && job.cancelled;
+    }
+
+    public void run () {
+        if (!status.compareAndSet(Status.QUEUED, Status.RUNNING))
+            return; // cancelled
+
+        started = System.currentTimeMillis();
+        try {
+            CURRENT.set(this);
+            nodeCount = kgraph.getNodeCount();
+            edgeCount = kgraph.getEdgeCount();
+            ksource.execute(kgraph, nodes);
+            status.set(cancelled ? Status.CANCELLED : Status.DONE);
+        }
+        catch (Exception ex) {
+            Logger.error("Job "+id+": knowledge source \""+ks
+                         +"\" failed on kgraph "+kgraph.getId(), ex);
+            error = ex.getMessage() != null
+                ? ex.getMessage() : ex.getClass().getName();
+            status.set(Status.FAILED);
+        }
+        finally {
+            // an Error isn't caught above but the job is over all the same
+            if (status.compareAndSet(Status.RUNNING, Status.FAILED)
+                && error == null)
+                error = "Aborted by an error";
+            // the counts are frozen once the job is done; the kgraph
+            // might be gone by now
+            try {
+                nodesAdded = getNodesAdded ();
+                edgesAdded = getEdgesAdded ();
+            }
+            catch (Exception ex) {
+                Logger.warn("Job "+id+": can't count what was added to "
+                            +"kgraph "+kgraph.getId()+": "+ex.getMessage());
+            }
+            finished = System.currentTimeMillis();
+            CURRENT.remove();
+        }
+    }
+
+    /*
+     * a job that hasn't started is dropped (run() returns right away, so
+     * whoever runs it still gets it back); a running job stops at the
+     * next check of cancelled()
+     */
+    public boolean cancel () {
+        if (isDone ())
+            return false;
+
+        cancelled = true;
+        if (status.compareAndSet(Status.QUEUED, Status.CANCELLED))
+            finished = System.currentTimeMillis();
+        return true;
+    }
+
+    public long getId () { return id; }
+    public String getKs () { return ks; }
+    // the knowledge sources of the job; ks can be a pipeline
+    @JsonIgnore
+    public String[] getSources () { return ks.split("[,/]"); }
+    public int getPriority () { return priority; }
+    public long getKgraph () { return kgraph.getId(); }
+    public long[] getNodes () {
+        long[] ids = new long[nodes.length];
+        for (int i = 0; i < nodes.length; ++i)
+            ids[i] = nodes[i].getId();
+        return ids;
+    }
+    public Status getStatus () { return status.get(); }
+    public boolean isCancelled () { return cancelled; }
+    @JsonIgnore
+    public boolean isDone () {
+        return finished > 0;
+    }
+    public long getSubmitted () { return submitted; }
+    public long getStarted () { return started; }
+    public long getFinished () { return finished; }
+    // time spent in the queue
+    public long getWait () {
+        long end = started > 0 ? started : finished;
+        return (end > 0 ? end : System.currentTimeMillis()) - submitted;
+    }
+    public long getElapsed () {
+        if (started == 0)
+            return 0;
+        return (finished > 0 ? finished : System.currentTimeMillis())
+            - started;
+    }
+    // added to the kgraph (by this or any other writer) since the start
+    public long getNodesAdded () {
+        if (started == 0)
+            return 0;
+        return finished > 0 ? nodesAdded : kgraph.getNodeCount() - nodeCount;
+    }
+    public long getEdgesAdded () {
+        if (started == 0)
+            return 0;
+        return finished > 0 ? edgesAdded : kgraph.getEdgeCount() - edgeCount;
+    }
+    public String getError () { return error; }
+    public String getStage () { return stage; }
+}
@@ -1,8 +1,17 @@
 package blackboard;
 
+import java.util.stream.Stream;
+
 public interface KNode extends KEntity {
     KNode[] neighbors (String... tags);
     boolean hasNeighbors (String... tags);
+    /*
+     * neighbors over edges of the given type (null for any type) in the
+     * given direction; the first skip are skipped and at most top (all if
+     * top <= 0) are returned
+     */
+    Stream<KNode> neighbors (String type, KDirection dir, int skip, int top);
+    int getDegree (String type, KDirection dir);
     int getDegree ();
     int getInDegree ();
     int getOutDegree ();
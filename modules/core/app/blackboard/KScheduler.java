@@ -0,0 +1,174 @@
+package blackboard;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules knowledge source jobs. Each kgraph has its own queue ordered
+ * by priority (then submission); the kgraphs take turns so one busy
+ * kgraph can't starve the others. A job only starts when every knowledge
+ * source it runs is below its job budget.
+ */
+public class KScheduler {
+    final int threads;
+    final int capacity;
+    final Map<String, Integer> budgets; // max running jobs per source
+    final ExecutorService executor;
+
+    // kgraph id -> its queued jobs
+    final Map<Long, PriorityQueue<KJob>> queues = new HashMap<>();
+    // kgraphs with queued jobs in the order they get their next turn
+    final Deque<Long> turns = new ArrayDeque<>();
+    final Map<String, Integer> running = new TreeMap<>();
+    int queued, active;
+
+    final AtomicLong started = new AtomicLong ();
+    final AtomicLong totalWait = new AtomicLong ();
+    volatile long maxWait;
+
+    public KScheduler (int threads, int capacity,
+                       Map<String, Integer> budgets) {
+        this.threads = threads;
+        this.capacity = capacity;
+        this.budgets = budgets;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /*
+     * throws RejectedExecutionException when capacity jobs are queued
+     */
+    public synchronized void submit (KJob job) {
+        if (queued >= capacity)
+            throw new RejectedExecutionException
+                ("Job queue is full: "+queued);
+
+        long kg = job.getKgraph();
+        PriorityQueue<KJob> queue = queues.get(kg);
+        if (queue == null) {
+            queues.put(kg, queue = new PriorityQueue<>((a, b) -> {
+                        int d = Integer.compare(b.priority, a.priority);
+                        return d != 0 ? d : Long.compare(a.id, b.id);
+                    }));
+            turns.addLast(kg);
+        }
+        queue.add(job);
+        ++queued;
+        dispatch ();
+    }
+
+    /*
+     * a queued job is taken off its queue right away rather than when it
+     * gets to the head of it, so it doesn't hold on to capacity
+     */
+    public synchronized boolean cancel (KJob job) {
+        if (!job.cancel())
+            return false;
+
+        long kg = job.getKgraph();
+        PriorityQueue<KJob> queue = queues.get(kg);
+        if (queue != null && queue.remove(job)) {
+            --queued;
+            if (queue.isEmpty()) {
+                queues.remove(kg);
+                turns.remove(kg);
+            }
+            dispatch ();
+        }
+        return true;
+    }
+
+    boolean available (KJob job) {
+        for (String ks : job.getSources()) {
+            Integer budget = budgets.get(ks);
+            if (budget != null && running.getOrDefault(ks, 0) >= budget)
+                return false;
+        }
+        return true;
+    }
+
+    void dispatch () {
+        // every kgraph gets a look after each change; a kgraph whose next
+        // job is over budget gives its turn to the next kgraph
+        for (int n = turns.size(); active < threads && n-- > 0; ) {
+            Long kg = turns.pollFirst();
+            PriorityQueue<KJob> queue = queues.get(kg);
+            KJob job = queue.peek();
+            boolean changed = true;
+            if (job.isCancelled ()) {
+                queue.poll();
+                --queued;
+            }
+            else if (available (job)) {
+                queue.poll();
+                --queued;
+                start (job);
+            }
+            else
+                changed = false;
+
+            if (queue.isEmpty())
+                queues.remove(kg);
+            else
+                turns.addLast(kg);
+            if (changed)
+                n = turns.size();
+        }
+    }
+
+    void start (KJob job) {
+        ++active;
+        for (String ks : job.getSources())
+            running.merge(ks, 1, Integer::sum);
+
+        long wait = System.currentTimeMillis() - job.submitted;
+        started.incrementAndGet();
+        totalWait.addAndGet(wait);
+        maxWait = Math.max(maxWait, wait);
+        executor.execute(() -> {
+                try {
+                    job.run();
+                }
+                finally {
+                    finish (job);
+                }
+            });
+    }
+
+    synchronized void finish (KJob job) {
+        --active;
+        for (String ks : job.getSources())
+            running.merge(ks, -1, Integer::sum);
+        dispatch ();
+    }
+
+    public synchronized Map<String, Object> getMetrics () {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("threads", threads);
+        metrics.put("capacity", capacity);
+        metrics.put("queued", queued);
+        metrics.put("running", active);
+
+        Map<Long, Integer> depths = new TreeMap<>();
+        long oldest = 0;
+        for (Map.Entry<Long, PriorityQueue<KJob>> me : queues.entrySet()) {
+            depths.put(me.getKey(), me.getValue().size());
+            for (KJob job : me.getValue())
+                oldest = Math.max(oldest, job.getWait());
+        }
+        metrics.put("queues", depths);
+        metrics.put("sources", new TreeMap<>(running));
+        metrics.put("budgets", budgets);
+
+        long count = started.get();
+        metrics.put("started", count);
+        metrics.put("averageWait", count > 0 ? totalWait.get() / count : 0);
+        metrics.put("maxWait", maxWait);
+        metrics.put("oldestWait", oldest);
+        return metrics;
+    }
+
+    public void shutdown () {
+        executor.shutdown();
+    }
+}
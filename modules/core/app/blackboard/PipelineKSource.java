@@ -0,0 +1,108 @@
+package blackboard;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import play.Logger;
+
+/**
+ * Knowledge sources run in stages; the sources of a stage run in parallel
+ * and each stage after the first only gets the nodes added by the stage
+ * before it, as seen from the ADD events of the kgraph. The pipeline
+ * stops early when a stage adds no nodes.
+ */
+public class PipelineKSource implements KSource {
+    // how long (ms) to wait for the events of a stage after it's done
+    static final long EVENT_TIMEOUT = 10000l;
+    static final ExecutorService THREADS = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread (r, "PipelineKSource");
+            t.setDaemon(true);
+            return t;
+        });
+
+    final List<Map<String, KSource>> stages;
+    final KEvents events;
+
+    public PipelineKSource (List<Map<String, KSource>> stages,
+                            KEvents events) {
+        this.stages = stages;
+        this.events = events;
+    }
+
+    public void execute (KGraph kgraph, KNode... nodes) {
+        KJob job = KJob.CURRENT.get();
+        // ids of the nodes added to the kgraph by the current stage
+        Set<Long> added = ConcurrentHashMap.newKeySet();
+        KEventListener<KNode> listener = ev -> {
+            if (ev.getOper() == KEvent.Oper.ADD
+                && ev.getSource() instanceof KGraph
+                && ((KGraph)ev.getSource()).getId() == kgraph.getId())
+                added.add(ev.getEntity().getId());
+        };
+        KEvents.Subscription sub = events.subscribe
+            (KNode.class, listener, KEvents.Backpressure.BLOCK, 1<<16);
+        try {
+            KNode[] frontier = nodes;
+            for (int i = 0; i < stages.size(); ++i) {
+                Map<String, KSource> stage = stages.get(i);
+                if (KJob.cancelled())
+                    break;
+                if (job != null)
+                    job.stage = (i+1)+"/"+stages.size()+": "
+                        +String.join(",", stage.keySet());
+
+                added.clear();
+                run (kgraph, stage, frontier, job);
+                if (!sub.await(EVENT_TIMEOUT))
+                    Logger.warn("KGraph "+kgraph.getId()+": not all events "
+                                +"of stage "+stage.keySet()+" arrived");
+
+                KNode[] next = added.stream()
+                    .sorted().map(kgraph::node)
+                    .filter(Objects::nonNull).toArray(KNode[]::new);
+                Logger.debug("KGraph "+kgraph.getId()+": stage "
+                             +stage.keySet()+" added "+next.length
+                             +" node(s)");
+                if (next.length == 0)
+                    break;
+                frontier = next;
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            events.unsubscribe(KNode.class, listener);
+        }
+    }
+
+    void run (KGraph kgraph, Map<String, KSource> stage,
+              KNode[] frontier, KJob job) {
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, KSource> me : stage.entrySet()) {
+            futures.put(me.getKey(), THREADS.submit(() -> {
+                        KJob.CURRENT.set(job);
+                        try {
+                            me.getValue().execute(kgraph, frontier);
+                        }
+                        finally {
+                            KJob.CURRENT.remove();
+                        }
+                    }));
+        }
+
+        for (Map.Entry<String, Future<?>> me : futures.entrySet()) {
+            try {
+                me.getValue().get();
+            }
+            catch (ExecutionException ex) {
+                Logger.error("$"+me.getKey()+": failed on KGraph "
+                             +kgraph.getId(), ex.getCause());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
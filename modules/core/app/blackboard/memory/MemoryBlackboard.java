@@ -0,0 +1,111 @@
+package blackboard.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.*;
+
+import play.Logger;
+import play.Configuration;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+/**
+ * Blackboard whose kgraphs live in memory only; meant for throwaway
+ * kgraphs and tests. Nothing survives a restart.
+ */
+@Singleton
+public class MemoryBlackboard implements Blackboard {
+    protected final KEvents events;
+    protected final AtomicLong ids = new AtomicLong ();
+    protected final Map<Long, MemoryKGraph> kgraphs =
+        new ConcurrentHashMap<>();
+
+    protected final Set<String> nodeTypes;
+    protected final Set<String> edgeTypes;
+    protected final Set<String> evidenceTypes;
+
+    @Inject
+    public MemoryBlackboard (Configuration config, KEvents events) {
+        nodeTypes = new TreeSet<>(config.getStringList
+                                  ("blackboard.node.type", new ArrayList<>()));
+        edgeTypes = new TreeSet<>(config.getStringList
+                                  ("blackboard.edge.type", new ArrayList<>()));
+        evidenceTypes = new TreeSet<>(config.getStringList
+                                      ("blackboard.evidence.type",
+                                       new ArrayList<>()));
+        this.events = events;
+        Logger.debug("## Blackboard initialized in memory");
+    }
+
+    /**
+     * a new in-memory kgraph with the given id; same as the neo4j kgraphs,
+     * the meta properties are type, created, and name while the given
+     * properties go to the seed node. Also used by the neo4j blackboard
+     * for kgraphs created with storage=memory.
+     */
+    public static MemoryKGraph createKGraph (Blackboard blackboard,
+                                             KEvents events, long id,
+                                             Map<String, Object> properties) {
+        Map<String, Object> meta = new HashMap<>();
+        meta.put(TYPE_P, "kgraph");
+        meta.put(CREATED_P, System.currentTimeMillis());
+        meta.put(STORAGE_P, "memory");
+        if (properties.get(NAME_P) != null)
+            meta.put(NAME_P, properties.get(NAME_P));
+
+        MemoryKGraph kg = new MemoryKGraph (blackboard, events, id, meta);
+        KNode seed = kg.createNode(properties);
+        seed.addTag("KQuery"); // this is the seed node
+        return kg;
+    }
+
+    /*
+     * fires the DELETE event with what's left of the kgraph
+     */
+    public static void removeKGraph (Object source, KEvents events,
+                                     MemoryKGraph kg) {
+        KGraph snapshot = kg.copy();
+        kg.clear();
+        events.fireEvent(KGraph.class, new KEvent<>
+                         (source, snapshot, KEvent.Oper.DELETE));
+    }
+
+    public KGraph getKGraph (long id) {
+        return kgraphs.get(id);
+    }
+
+    public void removeKGraph (long id) {
+        MemoryKGraph kg = kgraphs.remove(id);
+        if (kg == null)
+            throw new IllegalArgumentException ("Unknown KGraph: "+id);
+        removeKGraph (this, events, kg);
+    }
+
+    public long getKGraphCount () { return kgraphs.size(); }
+
+    public KGraph createKGraph (Map<String, Object> properties) {
+        MemoryKGraph kg = createKGraph
+            (this, events, ids.incrementAndGet(), properties);
+        kgraphs.put(kg.getId(), kg);
+        events.fireEvent(KGraph.class,
+                         new KEvent<>(this, kg, KEvent.Oper.ADD));
+        return kg;
+    }
+
+    public KGraph persist (long id) {
+        throw new UnsupportedOperationException
+            ("Blackboard is in memory only; nothing to persist to!");
+    }
+
+    public Iterator<KGraph> iterator () {
+        List<KGraph> list = new ArrayList<>(kgraphs.values());
+        Collections.sort(list, (a, b) -> Long.compare(a.getId(), b.getId()));
+        return list.iterator();
+    }
+
+    public Collection<String> getNodeTypes () { return nodeTypes; }
+    public Collection<String> getEdgeTypes () { return edgeTypes; }
+    public Collection<String> getEvidenceTypes () { return evidenceTypes; }
+}
@@ -0,0 +1,46 @@
+package blackboard.memory;
+
+import java.util.Map;
+
+import blackboard.KEdge;
+import blackboard.KNode;
+
+public class MemoryKEdge extends MemoryKEntity implements KEdge {
+    protected final MemoryKNode source, target;
+    protected final String type;
+
+    protected MemoryKEdge (long id, MemoryKNode source, MemoryKNode target,
+                           String type, Map<String, Object> properties,
+                           boolean readOnly) {
+        super (id, properties, readOnly);
+        this.source = source;
+        this.target = target;
+        this.type = type;
+    }
+
+    /*
+     * read-only view of edge between the given node views
+     */
+    protected MemoryKEdge (MemoryKEdge edge, MemoryKNode source,
+                           MemoryKNode target) {
+        super (edge);
+        this.source = source;
+        this.target = target;
+        this.type = edge.type;
+    }
+
+    public KNode source () { return source; }
+    public KNode target () { return target; }
+    public KNode other (KNode node) {
+        if (node == target) return source;
+        if (node == source) return target;
+        return null;
+    }
+
+    public boolean isDirected () {
+        return (Boolean)properties.getOrDefault(DIRECTED_P, false);
+    }
+
+    @Override
+    public String getType () { return type; }
+}
@@ -0,0 +1,81 @@
+package blackboard.memory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import blackboard.KEntity;
+
+public class MemoryKEntity implements KEntity {
+    protected final long id;
+    protected final Map<String, Object> properties;
+    protected final boolean readOnly;
+    // the kgraph that stamps the writes; null for snapshots and copies
+    MemoryKGraph owner;
+
+    protected MemoryKEntity (long id, Map<String, Object> properties,
+                             boolean readOnly) {
+        this.id = id;
+        this.properties = new ConcurrentHashMap<>();
+        if (properties != null)
+            this.properties.putAll(properties);
+        this.readOnly = readOnly;
+    }
+
+    /*
+     * read-only view that shares the properties of entity
+     */
+    protected MemoryKEntity (MemoryKEntity entity) {
+        this.id = entity.id;
+        this.properties = entity.properties;
+        this.readOnly = true;
+    }
+
+    protected void checkWritable () {
+        if (readOnly)
+            throw new UnsupportedOperationException
+                ("Can't modify snapshot of entity "+id);
+    }
+
+    public long getId () { return id; }
+    public long getCreated () {
+        return (Long)properties.getOrDefault(CREATED_P, 0l);
+    }
+    public String getName () { return (String)properties.get(NAME_P); }
+    public String getType () { return (String)properties.get(TYPE_P); }
+
+    public void put (String name, Object value) {
+        putAll (Collections.singletonMap(name, value));
+    }
+
+    public void putAll (Map<String, Object> properties) {
+        checkWritable ();
+        if (owner != null)
+            owner.update(this, properties);
+        else
+            this.properties.putAll(properties);
+    }
+
+    public void putIfAbsent (String name, Supplier supplier) {
+        checkWritable ();
+        if (owner != null)
+            owner.update(this, name, supplier);
+        else
+            properties.computeIfAbsent(name, k -> supplier.get());
+    }
+
+    public Object get (String name) { return properties.get(name); }
+
+    /*
+     * same as the neo4j entities, properties starting with _ are hidden
+     */
+    public Map<String, Object> getProperties () {
+        Map<String, Object> props = new TreeMap<>();
+        for (Map.Entry<String, Object> me : properties.entrySet())
+            if (me.getKey().charAt(0) != '_')
+                props.put(me.getKey(), me.getValue());
+        return props;
+    }
+}
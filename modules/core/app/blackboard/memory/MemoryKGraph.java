@@ -0,0 +1,545 @@
+package blackboard.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.Collectors;
+import java.lang.reflect.Array;
+import play.Logger;
+
+import blackboard.*;
+
+/**
+ * Knowledge graph that lives in memory only. Reads are lock free; writes
+ * are serialized per kgraph, and events are fired as soon as a write (or
+ * a whole batch) is done, mirroring the events fired by the neo4j kgraph
+ * once its transaction commits.
+ */
+public class MemoryKGraph extends MemoryKEntity implements KGraph {
+    /*
+     * hidden property of the resolve edges created by stitching
+     */
+    public static final String STITCH_P = "_stitch";
+    static final String RESOLVE_T = "resolve";
+    /*
+     * same as the neo4j kgraphs; every write bumps the version
+     */
+    static final String VERSION_P = "_version";
+    static final String MODIFIED_P = "_modified";
+    static final Comparator<MemoryKEntity> BY_ID =
+        Comparator.comparingLong(e -> e.id);
+
+    protected final Blackboard blackboard;
+    protected final KEvents events;
+    protected final AtomicLong ids = new AtomicLong ();
+    protected final Map<Long, MemoryKNode> nodes = new ConcurrentHashMap<>();
+    protected final Map<Long, MemoryKEdge> edges = new ConcurrentHashMap<>();
+    // property -> value (as string) -> nodes, oldest first
+    protected final Map<String, Map<String, Set<MemoryKNode>>> index =
+        new ConcurrentHashMap<>();
+    // existing entities changed by the current write; guarded by the lock
+    final Set<MemoryKEntity> touched = new HashSet<>();
+
+    public MemoryKGraph (Blackboard blackboard, KEvents events, long id,
+                         Map<String, Object> properties) {
+        this (blackboard, events, id, properties, false);
+    }
+
+    protected MemoryKGraph (Blackboard blackboard, KEvents events, long id,
+                            Map<String, Object> properties,
+                            boolean readOnly) {
+        super (id, properties, readOnly);
+        this.blackboard = blackboard;
+        this.events = events;
+        owner = this;
+    }
+
+    /*
+     * read-only view of kgraph
+     */
+    protected MemoryKGraph (MemoryKGraph kgraph) {
+        super (kgraph);
+        this.blackboard = kgraph.blackboard;
+        this.events = kgraph.events;
+    }
+
+    /*
+     * bump the version for the write and stamp whatever it created or
+     * touched; must be called while holding the lock. The kgraph goes
+     * last so whoever sees the new version sees its entities stamped
+     */
+    void stamp (List<KEvent> evs) {
+        if (evs.isEmpty() && touched.isEmpty())
+            return;
+        long version = getVersion () + 1;
+        for (KEvent ev : evs)
+            if (ev.getEntity() instanceof MemoryKEntity)
+                ((MemoryKEntity)ev.getEntity()).properties
+                    .put(VERSION_P, version);
+        for (MemoryKEntity e : touched)
+            e.properties.put(VERSION_P, version);
+        touched.clear();
+        properties.put(MODIFIED_P, System.currentTimeMillis());
+        properties.put(VERSION_P, version);
+    }
+
+    /*
+     * writes to an entity already in the kgraph; like the neo4j kgraphs
+     * they fire no event but are stamped
+     */
+    synchronized void update (MemoryKEntity e, Map<String, Object> props) {
+        if (e instanceof MemoryKNode)
+            reindex ((MemoryKNode)e, props);
+        e.properties.putAll(props);
+        touched.add(e);
+        stamp (Collections.emptyList());
+    }
+
+    synchronized void update (MemoryKEntity e, String name,
+                              Supplier<?> supplier) {
+        if (!e.properties.containsKey(name))
+            update (e, Collections.singletonMap(name, supplier.get()));
+    }
+
+    synchronized void update (MemoryKNode n, String... tags) {
+        n.tags.addAll(Arrays.asList(tags));
+        touched.add(n);
+        stamp (Collections.emptyList());
+    }
+
+    void fire (List<KEvent> evs) {
+        long deadline = events.deadline();
+        for (KEvent ev : evs) {
+            try {
+                events.fireEvent(ev.getEntity() instanceof KEdge
+                                 ? KEdge.class : KNode.class, ev, deadline);
+            }
+            catch (Exception ex) {
+                Logger.error("Event firing failed", ex);
+            }
+        }
+    }
+
+    /*
+     * the live node of node, which can be a snapshot of it
+     */
+    MemoryKNode member (KNode node) {
+        if (node == null)
+            throw new IllegalArgumentException ("Node is null");
+        MemoryKNode kn = nodes.get(node.getId());
+        if (kn == null || !(node instanceof MemoryKNode)
+            || !kn.properties.get(KGRAPH_P).equals
+            (((MemoryKNode)node).properties.get(KGRAPH_P)))
+            throw new IllegalArgumentException
+                ("Node "+node.getId()+" is not part of kgraph "+id);
+        return kn;
+    }
+
+    static void forEach (Object value, java.util.function.Consumer<Object>
+                         consumer) {
+        if (value != null && value.getClass().isArray()) {
+            int len = Array.getLength(value);
+            for (int i = 0; i < len; ++i)
+                consumer.accept(Array.get(value, i));
+        }
+        else if (value != null)
+            consumer.accept(value);
+    }
+
+    /*
+     * hidden properties aren't indexed
+     */
+    void index (MemoryKNode node, Map<String, Object> properties) {
+        for (Map.Entry<String, Object> me : properties.entrySet()) {
+            if (me.getKey().startsWith("_"))
+                continue;
+            Map<String, Set<MemoryKNode>> values = index.computeIfAbsent
+                (me.getKey(), k -> new ConcurrentHashMap<>());
+            forEach (me.getValue(), val -> values.computeIfAbsent
+                     (val.toString(), v -> new ConcurrentSkipListSet<>(BY_ID))
+                     .add(node));
+        }
+    }
+
+    /*
+     * index the given properties of node in place of its current values;
+     * must be called while holding the lock and before the write
+     */
+    void reindex (MemoryKNode node, Map<String, Object> properties) {
+        for (String key : properties.keySet()) {
+            Map<String, Set<MemoryKNode>> values = index.get(key);
+            if (values != null)
+                forEach (node.properties.get(key), val -> {
+                        Set<MemoryKNode> nodes = values.get(val.toString());
+                        if (nodes != null)
+                            nodes.remove(node);
+                    });
+        }
+        index (node, properties);
+    }
+
+    Set<MemoryKNode> lookup (String key, Object value) {
+        Map<String, Set<MemoryKNode>> values = index.get(key);
+        Set<MemoryKNode> nodes = values != null
+            ? values.get(value.toString()) : null;
+        return nodes != null ? nodes : Collections.emptySet();
+    }
+
+    /*
+     * the _ methods below must be called while holding the lock on this
+     * kgraph; events for whatever they create are appended to evs
+     */
+    MemoryKNode _createNode (Map<String, Object> properties,
+                             List<KEvent> evs) {
+        Map<String, Object> props = new HashMap<>();
+        props.put(KGRAPH_P, id);
+        props.put(CREATED_P, System.currentTimeMillis());
+        props.putAll(properties);
+
+        MemoryKNode node = new MemoryKNode (ids.incrementAndGet(), props,
+                                            false);
+        node.owner = this;
+        node.tags.add("KG:"+id);
+        if (properties.get(TYPE_P) != null)
+            node.tags.add((String)properties.get(TYPE_P));
+        nodes.put(node.id, node);
+        index (node, properties);
+        evs.add(new KEvent<>(this, node, KEvent.Oper.ADD));
+
+        forEach (properties.get(SYNONYMS_P), syn -> {
+                for (MemoryKNode n : lookup (SYNONYMS_P, syn))
+                    if (n != node)
+                        stitch (node, n, syn, evs);
+            });
+
+        return node;
+    }
+
+    MemoryKEdge stitch (MemoryKNode source, MemoryKNode target,
+                        Object value, List<KEvent> evs) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("value", value);
+        props.put(STITCH_P, true);
+        return _createEdge (source, target, RESOLVE_T, props, evs);
+    }
+
+    MemoryKNode _findNode (String key, Object value) {
+        if (value == null)
+            return null;
+        if (value.getClass().isArray())
+            Logger.warn("Key \""+key+"\" has multiple values!");
+        Iterator<MemoryKNode> it = lookup(key, value).iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    MemoryKNode _createNodeIfAbsent (Map<String, Object> properties,
+                                     String key, List<KEvent> evs) {
+        MemoryKNode node = _findNode (key, properties.get(key));
+        return node != null ? node : _createNode (properties, evs);
+    }
+
+    MemoryKEdge _createEdge (MemoryKNode s, MemoryKNode t, String type,
+                             Map<String, Object> properties,
+                             List<KEvent> evs) {
+        if (type == null)
+            throw new IllegalArgumentException
+                ("Can't create edge with null type!");
+
+        if (s == null || t == null)
+            throw new IllegalArgumentException
+                ("Either source or target is null");
+
+        Map<String, Object> props = new HashMap<>();
+        if (properties != null)
+            props.putAll(properties);
+        props.put(KGRAPH_P, id);
+
+        MemoryKEdge edge = new MemoryKEdge
+            (ids.incrementAndGet(), s, t, type, props, false);
+        edge.owner = this;
+        s.link(edge);
+        if (t != s)
+            t.link(edge);
+        edges.put(edge.id, edge);
+        evs.add(new KEvent<>(this, edge, KEvent.Oper.ADD));
+        return edge;
+    }
+
+    MemoryKEdge _findEdge (MemoryKNode s, MemoryKNode t, String type) {
+        for (MemoryKEdge e : s.edges(KDirection.BOTH))
+            if (e.other(s) == t && e.type.equals(type))
+                return e;
+        return null;
+    }
+
+    MemoryKEdge _findEdge (MemoryKNode s, MemoryKNode t, String type,
+                           String key, Object value) {
+        for (MemoryKEdge e : s.edges(KDirection.OUT)) {
+            Object val = e.properties.get(key);
+            if (e.target == t && e.type.equals(type) && val != null
+                && val.toString().equals(value.toString()))
+                return e;
+        }
+        return null;
+    }
+
+    MemoryKEdge _createEdgeIfAbsent (MemoryKNode s, MemoryKNode t,
+                                     String type,
+                                     Map<String, Object> properties,
+                                     String key, List<KEvent> evs) {
+        MemoryKEdge edge = null;
+        if (key != null && properties != null
+            && properties.get(key) != null)
+            edge = _findEdge (s, t, type, key, properties.get(key));
+
+        if (edge == null)
+            edge = _findEdge (s, t, type);
+
+        if (edge == null)
+            edge = _createEdge (s, t, type, properties, evs);
+        else if (properties != null) {
+            edge.properties.putAll(properties);
+            touched.add(edge);
+        }
+
+        return edge;
+    }
+
+    public KNode createNode (Map<String, Object> properties) {
+        checkWritable ();
+        List<KEvent> evs = new ArrayList<>();
+        KNode node;
+        synchronized (this) {
+            node = _createNode (properties, evs);
+            stamp (evs);
+        }
+        fire (evs);
+        return node;
+    }
+
+    public KNode createNodeIfAbsent (Map<String, Object> properties,
+                                     String key) {
+        checkWritable ();
+        List<KEvent> evs = new ArrayList<>();
+        KNode node;
+        synchronized (this) {
+            node = _createNodeIfAbsent (properties, key, evs);
+            stamp (evs);
+        }
+        fire (evs);
+        return node;
+    }
+
+    public KEdge createEdge (KNode source, KNode target, String type,
+                             Map<String, Object> properties) {
+        checkWritable ();
+        List<KEvent> evs = new ArrayList<>();
+        KEdge edge;
+        synchronized (this) {
+            edge = _createEdge (member (source), member (target),
+                                type, properties, evs);
+            stamp (evs);
+        }
+        fire (evs);
+        return edge;
+    }
+
+    public KEdge createEdgeIfAbsent (KNode source, KNode target,
+                                     String type) {
+        return createEdgeIfAbsent (source, target, type, null, null);
+    }
+
+    public KEdge createEdgeIfAbsent (KNode source, KNode target, String type,
+                                     Map<String, Object> properties,
+                                     String key) {
+        checkWritable ();
+        List<KEvent> evs = new ArrayList<>();
+        KEdge edge;
+        synchronized (this) {
+            edge = _createEdgeIfAbsent (member (source), member (target),
+                                        type, properties, key, evs);
+            stamp (evs);
+        }
+        fire (evs);
+        return edge;
+    }
+
+    public KGraphBatch batch () {
+        return batch (Integer.MAX_VALUE);
+    }
+
+    /*
+     * there are no transactions to chunk, so chunkSize is ignored
+     */
+    public KGraphBatch batch (int chunkSize) {
+        checkWritable ();
+        return new MemoryKGraphBatch (this);
+    }
+
+    public long getVersion () {
+        return (Long)properties.getOrDefault(VERSION_P, 0l);
+    }
+    public long getModified () {
+        return (Long)properties.getOrDefault(MODIFIED_P, getCreated ());
+    }
+
+    public Stream<KNode> nodesSince (long version) {
+        return nodesAfter(-1l).filter(n -> (Long)((MemoryKNode)n).properties
+                                      .getOrDefault(VERSION_P, 0l) > version);
+    }
+
+    public Stream<KEdge> edgesSince (long version) {
+        return edgesAfter(-1l).filter(e -> (Long)((MemoryKEdge)e).properties
+                                      .getOrDefault(VERSION_P, 0l) > version);
+    }
+
+    public long getNodeCount () { return nodes.size(); }
+    public long getEdgeCount () { return edges.size(); }
+
+    public KNode[] getNodes () {
+        return nodes.values().toArray(new KNode[0]);
+    }
+
+    public KNode[] nodes (Predicate<KNode> predicate) {
+        return nodes.values().stream()
+            .filter(predicate).toArray(KNode[]::new);
+    }
+
+    public KEdge[] getEdges () {
+        return edges.values().toArray(new KEdge[0]);
+    }
+
+    public KEdge[] edges (Predicate<KEdge> predicate) {
+        return edges.values().stream()
+            .filter(predicate).toArray(KEdge[]::new);
+    }
+
+    public Stream<KNode> nodeStream (String type, String... tags) {
+        return nodes.values().stream()
+            .filter(n -> {
+                    if (type != null && !n.tags.contains(type))
+                        return false;
+                    if (tags != null)
+                        for (String t : tags)
+                            if (!n.tags.contains(t))
+                                return false;
+                    return true;
+                })
+            .map(n -> (KNode)n);
+    }
+
+    public Stream<KEdge> edgeStream (String type) {
+        return edges.values().stream()
+            .filter(e -> type == null || type.equals(e.type))
+            .map(e -> (KEdge)e);
+    }
+
+    public Stream<KNode> nodesAfter (long id) {
+        return nodes.values().stream()
+            .filter(n -> n.id > id)
+            .sorted((a, b) -> Long.compare(a.id, b.id))
+            .map(n -> (KNode)n);
+    }
+
+    public Stream<KEdge> edgesAfter (long id) {
+        return edges.values().stream()
+            .filter(e -> e.id > id)
+            .sorted((a, b) -> Long.compare(a.id, b.id))
+            .map(e -> (KEdge)e);
+    }
+
+    public KNode node (long id) { return nodes.get(id); }
+    public KEdge edge (long id) { return edges.get(id); }
+
+    public KNode[] findNodes (String property, Object value) {
+        return lookup(property, value).toArray(new KNode[0]);
+    }
+
+    public int restitch () {
+        checkWritable ();
+        List<KEvent> evs = new ArrayList<>();
+        synchronized (this) {
+            for (MemoryKNode n : nodes.values()) {
+                forEach (n.properties.get(SYNONYMS_P), syn -> {
+                        for (MemoryKNode m : lookup (SYNONYMS_P, syn)) {
+                            if (m.id < n.id && !stitched (n, m, syn))
+                                stitch (n, m, syn, evs);
+                        }
+                    });
+            }
+            stamp (evs);
+        }
+        fire (evs);
+        return evs.size();
+    }
+
+    static boolean stitched (MemoryKNode n, MemoryKNode m, Object value) {
+        for (MemoryKEdge e : n.edges(KDirection.BOTH)) {
+            if (e.other(n) == m && RESOLVE_T.equals(e.type)
+                && value.toString().equals
+                (String.valueOf(e.properties.get("value"))))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * read-only view of the kgraph; it's cheap but sees later writes,
+     * see copy() for a point in time copy
+     */
+    public KGraph snapshot () {
+        return new MemoryKGraphView (this);
+    }
+
+    /*
+     * read-only copy of the kgraph
+     */
+    public KGraph copy () {
+        MemoryKGraph kg = new MemoryKGraph
+            (blackboard, events, id, properties, true);
+        synchronized (this) {
+            for (MemoryKNode n : nodes.values()) {
+                MemoryKNode c = new MemoryKNode (n.id, n.properties, true);
+                c.tags.addAll(n.tags);
+                kg.nodes.put(c.id, c);
+                kg.index(c, c.properties);
+            }
+
+            List<MemoryKEdge> sorted = new ArrayList<>(edges.values());
+            Collections.sort(sorted, BY_ID);
+            for (MemoryKEdge e : sorted) {
+                MemoryKNode s = kg.nodes.get(e.source.id);
+                MemoryKNode t = kg.nodes.get(e.target.id);
+                MemoryKEdge c = new MemoryKEdge
+                    (e.id, s, t, e.type, e.properties, true);
+                s.link(c);
+                if (t != s)
+                    t.link(c);
+                kg.edges.put(c.id, c);
+            }
+        }
+        return kg;
+    }
+
+    public void delete () {
+        checkWritable ();
+        blackboard.removeKGraph(id);
+    }
+
+    /*
+     * called by the blackboard once the kgraph is removed
+     */
+    public void clear () {
+        synchronized (this) {
+            nodes.clear();
+            edges.clear();
+            index.clear();
+        }
+    }
+
+    public Blackboard blackboard () { return blackboard; }
+}
@@ -0,0 +1,172 @@
+package blackboard.memory;
+
+import java.util.*;
+
+import blackboard.*;
+
+/**
+ * Batch writer for MemoryKGraph; the whole batch is applied while holding
+ * the kgraph's lock and its events are fired afterward
+ */
+public class MemoryKGraphBatch implements KGraphBatch {
+    class NodeRef implements Ref {
+        final MemoryKNode existing;
+        final Map<String, Object> properties;
+        final String key;
+        final Set<String> tags = new LinkedHashSet<>();
+        final Map<String, Object> extra = new LinkedHashMap<>();
+        MemoryKNode node;
+
+        NodeRef (MemoryKNode existing,
+                 Map<String, Object> properties, String key) {
+            this.existing = existing;
+            this.properties = properties;
+            this.key = key;
+        }
+
+        public Ref tag (String... tags) {
+            for (String t : tags)
+                this.tags.add(t);
+            return this;
+        }
+
+        public Ref put (String prop, Object value) {
+            extra.put(prop, value);
+            return this;
+        }
+
+        public KNode node () {
+            if (node == null)
+                throw new IllegalStateException
+                    ("Batch has not been executed!");
+            return node;
+        }
+
+        void resolve (List<KEvent> evs) {
+            if (existing != null)
+                node = existing;
+            else if (key != null)
+                node = kgraph._createNodeIfAbsent (properties, key, evs);
+            else
+                node = kgraph._createNode (properties, evs);
+
+            node.tags.addAll(tags);
+            kgraph.reindex(node, extra);
+            node.properties.putAll(extra);
+            if (!tags.isEmpty() || !extra.isEmpty())
+                kgraph.touched.add(node);
+        }
+    }
+
+    class EdgeOp {
+        final NodeRef source, target;
+        final String type;
+        final Map<String, Object> properties;
+        final String key;
+        final boolean ifAbsent;
+
+        EdgeOp (NodeRef source, NodeRef target, String type,
+                Map<String, Object> properties, String key,
+                boolean ifAbsent) {
+            this.source = source;
+            this.target = target;
+            this.type = type;
+            this.properties = properties;
+            this.key = key;
+            this.ifAbsent = ifAbsent;
+        }
+
+        void apply (List<KEvent> evs) {
+            if (source.node == target.node) {
+                // self-loops are skipped on purpose
+            }
+            else if (ifAbsent) {
+                kgraph._createEdgeIfAbsent(source.node, target.node,
+                                           type, properties, key, evs);
+            }
+            else {
+                kgraph._createEdge(source.node, target.node,
+                                   type, properties, evs);
+            }
+        }
+    }
+
+    final MemoryKGraph kgraph;
+    final List<NodeRef> nodes = new ArrayList<>();
+    final List<EdgeOp> edges = new ArrayList<>();
+    // upserts within the batch that share the same key and value
+    final Map<String, Map<Object, NodeRef>> upserts = new HashMap<>();
+
+    public MemoryKGraphBatch (MemoryKGraph kgraph) {
+        this.kgraph = kgraph;
+    }
+
+    public Ref node (KNode node) {
+        NodeRef ref = new NodeRef (kgraph.member(node), null, null);
+        nodes.add(ref);
+        return ref;
+    }
+
+    public Ref createNode (Map<String, Object> properties) {
+        NodeRef ref = new NodeRef (null, new TreeMap<>(properties), null);
+        nodes.add(ref);
+        return ref;
+    }
+
+    public Ref createNodeIfAbsent (Map<String, Object> properties,
+                                  String key) {
+        Object val = properties.get(key);
+        Map<Object, NodeRef> refs = upserts.get(key);
+        if (refs == null)
+            upserts.put(key, refs = new HashMap<>());
+
+        NodeRef ref = val != null && !val.getClass().isArray()
+            ? refs.get(val) : null;
+        if (ref == null) {
+            ref = new NodeRef (null, new TreeMap<>(properties), key);
+            nodes.add(ref);
+            if (val != null && !val.getClass().isArray())
+                refs.put(val, ref);
+        }
+        return ref;
+    }
+
+    public void createEdge (Ref source, Ref target, String type,
+                            Map<String, Object> properties) {
+        edges.add(new EdgeOp ((NodeRef)source, (NodeRef)target, type,
+                              copy (properties), null, false));
+    }
+
+    public void createEdgeIfAbsent (Ref source, Ref target, String type) {
+        createEdgeIfAbsent (source, target, type, null, null);
+    }
+
+    public void createEdgeIfAbsent (Ref source, Ref target, String type,
+                                    Map<String, Object> properties,
+                                    String key) {
+        edges.add(new EdgeOp ((NodeRef)source, (NodeRef)target, type,
+                              copy (properties), key, true));
+    }
+
+    static Map<String, Object> copy (Map<String, Object> properties) {
+        return properties != null ? new TreeMap<>(properties) : null;
+    }
+
+    public int size () { return nodes.size() + edges.size(); }
+
+    public void execute () {
+        List<KEvent> evs = new ArrayList<>();
+        synchronized (kgraph) {
+            for (NodeRef ref : nodes)
+                ref.resolve(evs);
+            for (EdgeOp op : edges)
+                op.apply(evs);
+            kgraph.stamp(evs);
+        }
+        kgraph.fire(evs);
+
+        nodes.clear();
+        edges.clear();
+        upserts.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package blackboard.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import blackboard.*;
+
+/**
+ * Read-only view of a MemoryKGraph; nothing is copied, nodes and edges
+ * are wrapped as they're reached and share the state of the live ones.
+ * Unlike a neo4j snapshot, the view sees writes made after it was taken.
+ */
+class MemoryKGraphView extends MemoryKGraph {
+    final MemoryKGraph kgraph;
+    final Map<Long, MemoryKNode> nodeViews = new ConcurrentHashMap<>();
+    final Map<Long, MemoryKEdge> edgeViews = new ConcurrentHashMap<>();
+
+    MemoryKGraphView (MemoryKGraph kgraph) {
+        super (kgraph);
+        this.kgraph = kgraph;
+    }
+
+    MemoryKNode node (MemoryKNode n) {
+        return n != null ? nodeViews.computeIfAbsent
+            (n.id, id -> new MemoryKNode (n, this)) : null;
+    }
+
+    MemoryKEdge edge (MemoryKEdge e) {
+        if (e == null)
+            return null;
+        MemoryKEdge v = edgeViews.get(e.id);
+        if (v == null) {
+            v = new MemoryKEdge (e, node (e.source), node (e.target));
+            MemoryKEdge old = edgeViews.putIfAbsent(e.id, v);
+            if (old != null)
+                v = old;
+        }
+        return v;
+    }
+
+    @Override
+    public long getNodeCount () { return kgraph.getNodeCount(); }
+    @Override
+    public long getEdgeCount () { return kgraph.getEdgeCount(); }
+
+    @Override
+    public KNode[] getNodes () {
+        return kgraph.nodes.values().stream()
+            .map(this::node).toArray(KNode[]::new);
+    }
+
+    @Override
+    public KNode[] nodes (Predicate<KNode> predicate) {
+        return kgraph.nodes.values().stream()
+            .map(this::node).filter(predicate).toArray(KNode[]::new);
+    }
+
+    @Override
+    public KEdge[] getEdges () {
+        return kgraph.edges.values().stream()
+            .map(this::edge).toArray(KEdge[]::new);
+    }
+
+    @Override
+    public KEdge[] edges (Predicate<KEdge> predicate) {
+        return kgraph.edges.values().stream()
+            .map(this::edge).filter(predicate).toArray(KEdge[]::new);
+    }
+
+    @Override
+    public Stream<KNode> nodeStream (String type, String... tags) {
+        return kgraph.nodeStream(type, tags)
+            .map(n -> node ((MemoryKNode)n));
+    }
+
+    @Override
+    public Stream<KEdge> edgeStream (String type) {
+        return kgraph.edgeStream(type).map(e -> edge ((MemoryKEdge)e));
+    }
+
+    @Override
+    public Stream<KNode> nodesAfter (long id) {
+        return kgraph.nodesAfter(id).map(n -> node ((MemoryKNode)n));
+    }
+
+    @Override
+    public Stream<KEdge> edgesAfter (long id) {
+        return kgraph.edgesAfter(id).map(e -> edge ((MemoryKEdge)e));
+    }
+
+    @Override
+    public KNode node (long id) { return node (kgraph.nodes.get(id)); }
+    @Override
+    public KEdge edge (long id) { return edge (kgraph.edges.get(id)); }
+
+    @Override
+    public KNode[] findNodes (String property, Object value) {
+        return kgraph.lookup(property, value).stream()
+            .map(this::node).toArray(KNode[]::new);
+    }
+
+    @Override
+    public KGraph snapshot () { return this; }
+}
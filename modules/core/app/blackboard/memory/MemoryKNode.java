@@ -0,0 +1,115 @@
+package blackboard.memory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import blackboard.KNode;
+import blackboard.KDirection;
+
+public class MemoryKNode extends MemoryKEntity implements KNode {
+    protected final Set<String> tags;
+    // adjacency in the order the edges were created
+    protected final List<MemoryKEdge> out;
+    protected final List<MemoryKEdge> in;
+    // kgraph view this node is a view of; null for a live node
+    protected final MemoryKGraphView view;
+
+    protected MemoryKNode (long id, Map<String, Object> properties,
+                           boolean readOnly) {
+        super (id, properties, readOnly);
+        tags = ConcurrentHashMap.newKeySet();
+        out = new ArrayList<>();
+        in = new ArrayList<>();
+        view = null;
+    }
+
+    /*
+     * read-only view of node that shares its state; its edges and
+     * neighbors are views of the same kgraph view
+     */
+    protected MemoryKNode (MemoryKNode node, MemoryKGraphView view) {
+        super (node);
+        tags = node.tags;
+        out = node.out;
+        in = node.in;
+        this.view = view;
+    }
+
+    void link (MemoryKEdge edge) {
+        if (edge.source == this)
+            synchronized (out) { out.add(edge); }
+        if (edge.target == this)
+            synchronized (in) { in.add(edge); }
+    }
+
+    /*
+     * copy of the edges in the given direction
+     */
+    List<MemoryKEdge> edges (KDirection dir) {
+        List<MemoryKEdge> edges = new ArrayList<>();
+        if (dir != KDirection.IN)
+            synchronized (out) { edges.addAll(out); }
+        if (dir != KDirection.OUT) {
+            synchronized (in) {
+                for (MemoryKEdge e : in)
+                    if (e.source.id != id) // self loops only once
+                        edges.add(e);
+            }
+        }
+        if (view != null)
+            edges.replaceAll(view::edge);
+        return edges;
+    }
+
+    Stream<MemoryKNode> _neighbors (String... tags) {
+        return edges(KDirection.BOTH).stream()
+            .map(e -> (MemoryKNode)e.other(this))
+            .filter(n -> {
+                    if (tags == null || tags.length == 0)
+                        return true;
+                    for (String t : tags)
+                        if (n.tags.contains(t))
+                            return true;
+                    return false;
+                });
+    }
+
+    public KNode[] neighbors (String... tags) {
+        return _neighbors(tags).toArray(KNode[]::new);
+    }
+
+    public boolean hasNeighbors (String... tags) {
+        return _neighbors(tags).findAny().isPresent();
+    }
+
+    public Stream<KNode> neighbors (String type, KDirection dir,
+                                    int skip, int top) {
+        Stream<KNode> nodes = edges(dir).stream()
+            .filter(e -> type == null || type.equals(e.type))
+            .skip(skip)
+            .map(e -> e.other(this));
+        return top > 0 ? nodes.limit(top) : nodes;
+    }
+
+    public int getDegree (String type, KDirection dir) {
+        if (type == null)
+            return edges(dir).size();
+        return (int)edges(dir).stream()
+            .filter(e -> type.equals(e.type)).count();
+    }
+
+    public int getDegree () { return getDegree (null, KDirection.BOTH); }
+    public int getInDegree () { return getDegree (null, KDirection.IN); }
+    public int getOutDegree () { return getDegree (null, KDirection.OUT); }
+
+    public boolean hasTag (String tag) { return tags.contains(tag); }
+    public void addTag (String... tags) {
+        checkWritable ();
+        if (owner != null)
+            owner.update(this, tags);
+        else
+            this.tags.addAll(Arrays.asList(tags));
+    }
+    public String[] getTags () { return tags.toArray(new String[0]); }
+}
@@ -3,6 +3,7 @@ package blackboard.neo4j;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.*;
 import java.util.stream.Collectors;
 
@@ -14,6 +15,9 @@ import org.neo4j.graphdb.config.Setting;
 import org.neo4j.graphdb.event.*;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.IndexCreator;
+import org.neo4j.kernel.api.KernelTransaction;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 
 import play.Logger;
 import play.Configuration;
@@ -23,6 +27,7 @@ import play.libs.F;
 import play.inject.Injector;
 
 import blackboard.*;
+import blackboard.memory.*;
 import static blackboard.KEntity.*;
 
 @Singleton
@@ -30,6 +35,15 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
     implements Blackboard {
     static public final Label KGRAPH_LABEL = Label.label("KGraph");
     static public final Label KQUERY_LABEL = Label.label("KQuery");
+    /*
+     * meta-node of a kgraph that is being deleted in the background
+     */
+    static public final Label KGRAPH_DELETED_LABEL =
+        Label.label("KGraphDeleted");
+    /*
+     * reserves the id of an in-memory kgraph; these don't survive restarts
+     */
+    static public final Label KGRAPH_MEMORY_LABEL = Label.label("KGraphMemory");
 
     protected final GraphDatabaseService graphDb;
     protected final Configuration config;
@@ -45,11 +59,74 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
         }
     }
 
-    protected BlockingQueue<KEV> queue = new LinkedBlockingQueue<>();
+    /*
+     * events fired within the (top level) transaction bound to the thread;
+     * they're handed to beforeCommit as the transaction's state and only
+     * published by afterCommit, so a rollback publishes nothing
+     */
+    static class Pending {
+        final KernelTransaction tx;
+        final List<KEV> events = new ArrayList<>();
+
+        Pending (KernelTransaction tx) {
+            this.tx = tx;
+        }
+    }
+
+    protected final ThreadLocal<Pending> pending = new ThreadLocal<>();
+    /*
+     * kgraph id -> last version whose transaction is fully applied; a
+     * kgraph's version property is visible to readers before the nodes
+     * and edges stamped with it are, so deltas only go up to this one
+     */
+    protected final Map<Long, Long> applied = new ConcurrentHashMap<>();
+
+    /*
+     * the state beforeCommit hands to afterCommit
+     */
+    static class Commit {
+        final Map<Long, Long> versions;
+        final List<KEV> events;
+
+        Commit (Map<Long, Long> versions, List<KEV> events) {
+            this.versions = versions;
+            this.events = events;
+        }
+    }
+    protected final ThreadToStatementContextBridge txBridge;
     
     protected final Set<String> nodeTypes;
     protected final Set<String> edgeTypes;
     protected final Set<String> evidenceTypes;
+    protected final int batchSize;
+    /*
+     * how nodes of new kgraphs are indexed for lookups by property value:
+     * legacy (every property in a lucene index) or memory (only indexKeys,
+     * in memory); existing kgraphs only switch to memory if indexMigrate
+     */
+    protected final String indexStrategy;
+    protected final boolean indexMigrate;
+    protected final Set<String> indexKeys;
+    protected final Map<Long, Neo4jNodeIndex> nodeIndexes =
+        new ConcurrentHashMap<>();
+    protected final Map<Long, Neo4jSynonyms> synonyms =
+        new ConcurrentHashMap<>();
+    /*
+     * serializes the find-or-create writes of a kgraph so concurrent
+     * writers don't create the same node twice
+     */
+    protected final Map<Long, ReentrantLock> writeLocks =
+        new ConcurrentHashMap<>();
+    // kgraphs created with storage=memory
+    protected final Map<Long, MemoryKGraph> ephemeral =
+        new ConcurrentHashMap<>();
+    protected final ExecutorService deleter =
+        Executors.newSingleThreadExecutor();
+    /*
+     * tells the background deletes to stop; they're not interrupted since
+     * an interrupt in the middle of a commit closes the transaction log
+     */
+    volatile boolean closing;
 
     @Inject
     public Neo4jBlackboard (Configuration config,
@@ -70,10 +147,22 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
                                       ("blackboard.evidence.type",
                                        new ArrayList<>()));
         
+        batchSize = config.getInt("blackboard.batch.size", 1000);
+        indexStrategy = config.getString("blackboard.index.strategy", "legacy");
+        if (!"legacy".equals(indexStrategy) && !"memory".equals(indexStrategy))
+            throw new IllegalArgumentException
+                ("Unknown index strategy: "+indexStrategy);
+        indexMigrate = config.getBoolean("blackboard.index.migrate", false);
+        indexKeys = new TreeSet<>(config.getStringList
+                                  ("blackboard.index.keys", Arrays.asList
+                                   (URI_P, "treeNumbers")));
+        
         graphDb = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(dir)
             .setConfig(GraphDatabaseSettings.dump_configuration, "true")
             .newGraphDatabase();
         graphDb.registerTransactionEventHandler(this);
+        txBridge = ((GraphDatabaseAPI)graphDb).getDependencyResolver()
+            .resolveDependency(ThreadToStatementContextBridge.class);
 
         lifecycle.addStopHook(() -> {
                 shutdown ();
@@ -101,21 +190,215 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
         }
         Logger.debug("## Blackboard initialized; created = "
                      +new java.util.Date(created));
+
+        // in-memory kgraphs of the last run are gone
+        try (Transaction tx = graphDb.beginTx()) {
+            graphDb.findNodes(KGRAPH_MEMORY_LABEL).stream()
+                .forEach(n -> n.delete());
+            tx.success();
+        }
+
+        migrate ();
+
+        // pick up deletes that didn't finish before the last shutdown
+        List<Neo4jKGraph> deleted;
+        try (Transaction tx = graphDb.beginTx()) {
+            deleted = graphDb.findNodes(KGRAPH_DELETED_LABEL).stream()
+                .map(n -> new Neo4jKGraph (this, n))
+                .collect(Collectors.toList());
+        }
+        for (Neo4jKGraph kg : deleted) {
+            Logger.debug("## resuming delete of kgraph "+kg.getId());
+            delete (kg);
+        }
+    }
+
+    /*
+     * bring kgraphs created by earlier versions up to date: relationships
+     * used to be found by scanning the whole database and counts used to
+     * be computed on demand
+     */
+    protected void migrate () {
+        int batchSize = config.getInt("blackboard.migrate.batch", 10000);
+        for (KGraph kg : this) {
+            Neo4jKGraph nkg = (Neo4jKGraph)kg;
+            if (!nkg.isEdgeIndexed()) {
+                long start = System.currentTimeMillis();
+                int count = nkg.indexEdges(batchSize);
+                Logger.debug("## kgraph "+kg.getId()+": "+count
+                             +" relationship(s) indexed in "
+                             +String.format("%1$.3fs",
+                                            (System.currentTimeMillis()
+                                             -start)/1000.));
+            }
+            
+            if (!nkg.isCounted()) {
+                nkg.initCounts();
+                Logger.debug("## kgraph "+kg.getId()+": "+kg.getNodeCount()
+                             +" node(s) and "+kg.getEdgeCount()+" edge(s)");
+            }
+
+            if (nkg.isMemoryIndexed ()) {
+                getNodeIndex (nkg);
+            }
+            else if ("memory".equals(indexStrategy) && indexMigrate) {
+                // its legacy index won't be kept up to date from now on,
+                // so there's no going back
+                Logger.warn("## kgraph "+kg.getId()
+                            +": switching to the memory index for good");
+                try (Transaction tx = graphDb.beginTx()) {
+                    nkg.entity.setProperty(Neo4jKGraph.NODE_INDEX_P, "memory");
+                    tx.success();
+                }
+                getNodeIndex (nkg);
+            }
+        }
     }
 
     protected void shutdown () {
         Logger.debug(getClass().getName()+": shutting down");
+        // pending deletes are resumed at the next startup
+        closing = true;
+        deleter.shutdown();
+        try {
+            deleter.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException ex) {
+            Logger.warn("Interrupted while waiting for deletes", ex);
+        }
         graphDb.shutdown();
     }
 
+    @Override
+    public Object beforeCommit (TransactionData data) throws Exception {
+        Map<Long, Long> versions = stamp (data);
+        List<KEV> events = null;
+        Pending p = pending.get();
+        if (p != null && p.tx == txBridge
+            .getTopLevelTransactionBoundToThisThread(false)) {
+            pending.remove();
+            events = p.events;
+        }
+        return versions.isEmpty() && events == null
+            ? null : new Commit (versions, events);
+    }
+
+    /*
+     * bump the version of every kgraph touched by the transaction and
+     * stamp its changed nodes and edges with the new version; changes
+     * made here don't come back through the handler. Returns the new
+     * version of each kgraph
+     */
+    protected Map<Long, Long> stamp (TransactionData data) {
+        // kgraphs are locked in the order of their ids
+        Map<Long, Set<Entity>> changes = new TreeMap<>();
+        for (Node n : data.createdNodes())
+            changed (changes, data, n);
+        for (PropertyEntry<Node> pe : data.assignedNodeProperties())
+            changed (changes, data, pe.entity());
+        for (PropertyEntry<Node> pe : data.removedNodeProperties())
+            removed (changes, data, pe);
+        for (LabelEntry le : data.assignedLabels())
+            changed (changes, data, le.node());
+        for (LabelEntry le : data.removedLabels())
+            changed (changes, data, le.node());
+        for (Relationship rel : data.createdRelationships())
+            changed (changes, data, rel);
+        for (PropertyEntry<Relationship> pe
+                 : data.assignedRelationshipProperties())
+            changed (changes, data, pe.entity());
+        for (PropertyEntry<Relationship> pe
+                 : data.removedRelationshipProperties())
+            removed (changes, data, pe);
+
+        Map<Long, Long> versions = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Set<Entity>> me : changes.entrySet()) {
+            Node kg;
+            try {
+                kg = graphDb.getNodeById(me.getKey());
+            }
+            catch (NotFoundException ex) {
+                continue;
+            }
+            if (data.isDeleted(kg) || !kg.hasLabel(KGRAPH_LABEL))
+                continue;
+
+            // the write takes the meta-node's lock before the version is
+            // read, so concurrent transactions can't get the same one
+            kg.setProperty(Neo4jKGraph.MODIFIED_P, now);
+            long version =
+                (Long)kg.getProperty(Neo4jKGraph.VERSION_P, 0l) + 1;
+            // the current one is applied, or we wouldn't have the lock
+            applied.putIfAbsent(kg.getId(), version - 1);
+            kg.setProperty(Neo4jKGraph.VERSION_P, version);
+            for (Entity e : me.getValue())
+                e.setProperty(Neo4jKGraph.VERSION_P, version);
+            versions.put(kg.getId(), version);
+        }
+        return versions;
+    }
+
+    /*
+     * the version of the kgraph that's safe to hand out, given the one
+     * read from its meta-node (which must be read first)
+     */
+    long getVersion (long id, long stored) {
+        Long version = applied.get(id);
+        return version != null ? version : stored;
+    }
+
+    /*
+     * deleted entities only leave their kgraph behind
+     */
+    void removed (Map<Long, Set<Entity>> changes, TransactionData data,
+                  PropertyEntry<? extends Entity> pe) {
+        if (KGRAPH_P.equals(pe.key())
+            && pe.previouslyCommitedValue() instanceof Long)
+            changes.computeIfAbsent((Long)pe.previouslyCommitedValue(),
+                                    k -> new HashSet<>());
+        else
+            changed (changes, data, pe.entity());
+    }
+
+    void changed (Map<Long, Set<Entity>> changes,
+                  TransactionData data, Entity e) {
+        if (e instanceof Node) {
+            Node n = (Node)e;
+            if (data.isDeleted(n))
+                return;
+            if (n.hasLabel(KGRAPH_LABEL)) { // the meta-node itself
+                changes.computeIfAbsent(n.getId(), k -> new HashSet<>());
+                return;
+            }
+        }
+        else if (data.isDeleted((Relationship)e))
+            return;
+
+        Object kg = e.getProperty(KGRAPH_P, null);
+        if (kg instanceof Long)
+            changes.computeIfAbsent((Long)kg, k -> new HashSet<>()).add(e);
+    }
+
     @Override
     public void afterCommit (TransactionData data, Object state) {
-        // now flush all the events
+        if (state == null)
+            return;
+        // still holding the locks, so versions are applied in order
+        Commit commit = (Commit)state;
+        applied.putAll(commit.versions);
+        if (commit.events != null)
+            publish (commit.events);
+    }
+
+    /*
+     * one deadline for all, as this runs on the committing thread
+     */
+    protected void publish (Collection<KEV> evs) {
+        long deadline = events.deadline();
         try {
-            List<KEV> evs = new ArrayList<>();
-            queue.drainTo(evs);
             for (KEV ev : evs)
-                events.fireEvent(ev.cls, ev.event);
+                events.fireEvent(ev.cls, ev.event, deadline);
         }
         catch (Exception ex) {
             Logger.debug("One or more event firing failed", ex);
@@ -123,7 +406,10 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
     }
 
     public KGraph getKGraph (long id) {
-        KGraph kg = null;
+        KGraph kg = ephemeral.get(id);
+        if (kg != null)
+            return kg;
+        
         try (Transaction tx = graphDb.beginTx()) {
             Node node = graphDb.getNodeById(id);
             if (node.hasLabel(KGRAPH_LABEL)) {
@@ -136,21 +422,55 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
         return kg;
     }
 
+    /*
+     * the kgraph is gone from the blackboard when this returns, but its
+     * nodes and edges are deleted in the background
+     */
     public void removeKGraph (long id) {
-        KGraph kg = getKGraph (id);
+        MemoryKGraph mkg = ephemeral.remove(id);
+        if (mkg != null) {
+            try (Transaction tx = graphDb.beginTx()) {
+                graphDb.getNodeById(id).delete();
+                tx.success();
+            }
+            MemoryBlackboard.removeKGraph(this, events, mkg);
+            return;
+        }
+        
+        Neo4jKGraph kg = (Neo4jKGraph)getKGraph (id);
         if (kg == null)
             throw new IllegalArgumentException ("Unknown KGraph: "+id);
-        kg.delete();
+        
+        try (Transaction tx = graphDb.beginTx()) {
+            Node node = (Node)kg.entity;
+            node.removeLabel(KGRAPH_LABEL);
+            node.addLabel(KGRAPH_DELETED_LABEL);
+            tx.success();
+        }
+        delete (kg);
+    }
+
+    protected void delete (Neo4jKGraph kg) {
+        deleter.submit(() -> {
+                try {
+                    kg.delete(batchSize);
+                }
+                catch (Exception ex) {
+                    Logger.error("Can't delete kgraph "+kg.getId(), ex);
+                }
+            });
     }
 
     public Iterator<KGraph> iterator () {
+        List<KGraph> kgraphs;
         try (Transaction tx = graphDb.beginTx()) {
-            List<KGraph> kgraphs = graphDb.findNodes(KGRAPH_LABEL)
+            kgraphs = graphDb.findNodes(KGRAPH_LABEL)
                 .stream().map(n -> (KGraph)new Neo4jKGraph
                               (Neo4jBlackboard.this, n))
                 .collect(Collectors.toList());
-            return kgraphs.iterator();
         }
+        kgraphs.addAll(ephemeral.values());
+        return kgraphs.iterator();
     }
 
     public long _getKGraphCount () {
@@ -171,7 +491,8 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
 
     public long getKGraphCount () {
         try (Transaction tx = graphDb.beginTx()) {
-            return graphDb.findNodes(KGRAPH_LABEL).stream().count();
+            return graphDb.findNodes(KGRAPH_LABEL).stream().count()
+                + ephemeral.size();
         }
     }
 
@@ -185,15 +506,29 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
         return node;
     }
     
+    /*
+     * every knowledge graph has a meta-node of type=kgraph and
+     * label=KGRAPH_LABEL; must be called within a transaction
+     */
+    protected Neo4jKGraph _createKGraph (Map<String, Object> properties) {
+        Node node = createNode (KGRAPH_LABEL, "kgraph", properties);
+        // new kgraphs index their relationships from the start
+        node.setProperty(Neo4jKGraph.EDGE_INDEXED_P,
+                         node.getProperty(CREATED_P));
+        node.setProperty(Neo4jKGraph.NODE_COUNT_P, 0l);
+        node.setProperty(Neo4jKGraph.EDGE_COUNT_P, 0l);
+        if ("memory".equals(indexStrategy))
+            node.setProperty(Neo4jKGraph.NODE_INDEX_P, "memory");
+        return new Neo4jKGraph (this, node);
+    }
+    
     public KGraph createKGraph (Map<String, Object> properties) {
+        if ("memory".equals(properties.get(STORAGE_P)))
+            return createMemoryKGraph (properties);
+        
         Neo4jKGraph kg = null;
         try (Transaction tx = graphDb.beginTx()) {
-            /*
-             * every knowledge graph has a meta-node of type=kgraph and
-             * label=KGRAPH_LABEL
-             */
-            Node node = createNode (KGRAPH_LABEL, "kgraph", properties);
-            kg = new Neo4jKGraph (this, node);
+            kg = _createKGraph (properties);
             Neo4jKNode kn = (Neo4jKNode) kg.createNode(properties);
             kn.node().addLabel(KQUERY_LABEL); // this is the seed node
             tx.success();
@@ -205,15 +540,186 @@ public class Neo4jBlackboard extends TransactionEventHandler.Adapter
         return kg;
     }
 
+    /*
+     * a kgraph created (or migrated) under the memory strategy keeps
+     * using it, since its legacy index is incomplete; the others keep
+     * their legacy index whatever the strategy
+     */
+    Neo4jNodeIndex getNodeIndex (Neo4jKGraph kg) {
+        return nodeIndexes.computeIfAbsent(kg.getId(), id -> {
+                try (Transaction tx = graphDb.beginTx()) {
+                    Neo4jNodeIndex index;
+                    if ("memory".equals(kg.entity.getProperty
+                                        (Neo4jKGraph.NODE_INDEX_P, null))) {
+                        long start = System.currentTimeMillis();
+                        Neo4jMemoryNodeIndex mem = new Neo4jMemoryNodeIndex
+                            (graphDb, kg.kgLabel, indexKeys);
+                        int count = mem.rebuild();
+                        Logger.debug("## kgraph "+id+": "+count
+                                     +" node(s) indexed in memory in "
+                                     +String.format
+                                     ("%1$.3fs", (System.currentTimeMillis()
+                                                  -start)/1000.));
+                        index = mem;
+                    }
+                    else {
+                        index = new Neo4jLegacyNodeIndex
+                            (graphDb.index().forNodes(kg.kgLabel.name()));
+                    }
+                    tx.success();
+                    return index;
+                }
+            });
+    }
+
+    /*
+     * warmed from the kgraph's nodes on first use
+     */
+    Neo4jSynonyms getSynonyms (Neo4jKGraph kg) {
+        return synonyms.computeIfAbsent(kg.getId(), id -> {
+                Neo4jSynonyms syns = new Neo4jSynonyms ();
+                try (Transaction tx = graphDb.beginTx()) {
+                    int count = syns.warm(graphDb, kg.kgLabel);
+                    tx.success();
+                    Logger.debug("## kgraph "+id+": synonyms of "+count
+                                 +" node(s) loaded");
+                }
+                return syns;
+            });
+    }
+
+    /*
+     * drop whatever is kept in memory for the kgraph
+     */
+    ReentrantLock getWriteLock (Neo4jKGraph kg) {
+        return writeLocks.computeIfAbsent
+            (kg.getId(), id -> new ReentrantLock ());
+    }
+
+    void evict (Neo4jKGraph kg) {
+        applied.remove(kg.getId());
+        nodeIndexes.remove(kg.getId());
+        synonyms.remove(kg.getId());
+        writeLocks.remove(kg.getId());
+    }
+
+    /*
+     * the kgraph itself is in memory; only its id is reserved here
+     */
+    protected KGraph createMemoryKGraph (Map<String, Object> properties) {
+        long id;
+        try (Transaction tx = graphDb.beginTx()) {
+            id = graphDb.createNode(KGRAPH_MEMORY_LABEL).getId();
+            tx.success();
+        }
+        
+        MemoryKGraph kg = MemoryBlackboard.createKGraph
+            (this, events, id, properties);
+        ephemeral.put(id, kg);
+        events.fireEvent(KGraph.class,
+                         new KEvent<>(this, kg, KEvent.Oper.ADD));
+        return kg;
+    }
+
+    public KGraph persist (long id) {
+        MemoryKGraph mkg = ephemeral.get(id);
+        if (mkg == null)
+            throw new IllegalArgumentException
+                ("Not an in-memory kgraph: "+id);
+
+        KGraph snapshot = mkg.snapshot();
+        Map<String, Object> props = new TreeMap<>(snapshot.getProperties());
+        props.remove(STORAGE_P);
+        
+        Neo4jKGraph kg;
+        try (Transaction tx = graphDb.beginTx()) {
+            kg = _createKGraph (props);
+            fireEvent (KGraph.class,
+                       new KEvent<>(this, kg, KEvent.Oper.ADD));
+            tx.success();
+        }
+
+        KGraphBatch batch = kg.batch();
+        Map<Long, KGraphBatch.Ref> refs = new HashMap<>();
+        KNode[] nodes = snapshot.getNodes();
+        Arrays.sort(nodes, (a, b) -> Long.compare(a.getId(), b.getId()));
+        for (KNode kn : nodes) {
+            Map<String, Object> p = new TreeMap<>(kn.getProperties());
+            p.remove(KGRAPH_P);
+            KGraphBatch.Ref ref = batch.createNode(p);
+            for (String t : kn.getTags())
+                if (!t.startsWith("KG:"))
+                    ref.tag(t);
+            refs.put(kn.getId(), ref);
+        }
+        
+        KEdge[] edges = snapshot.getEdges();
+        Arrays.sort(edges, (a, b) -> Long.compare(a.getId(), b.getId()));
+        for (KEdge ke : edges) {
+            // stitching is redone by the new kgraph
+            if (ke.get(MemoryKGraph.STITCH_P) != null)
+                continue;
+            // the snapshot is a view; nodes added since aren't persisted
+            if (!refs.containsKey(ke.getSource())
+                || !refs.containsKey(ke.getTarget()))
+                continue;
+            Map<String, Object> p = new TreeMap<>(ke.getProperties());
+            p.remove(KGRAPH_P);
+            batch.createEdge(refs.get(ke.getSource()),
+                             refs.get(ke.getTarget()), ke.getType(), p);
+        }
+        batch.execute();
+        
+        Logger.debug("## in-memory kgraph "+id+" persisted as kgraph "
+                     +kg.getId());
+        return kg;
+    }
+
+    /*
+     * queue the event with the current transaction; outside of a
+     * transaction there's nothing to wait for
+     */
     protected <T extends KEntity> void fireEvent (Class<T> cls, KEvent<T> kev) {
-        try {
-            queue.put(new KEV (cls, kev));
+        KernelTransaction ktx =
+            txBridge.getTopLevelTransactionBoundToThisThread(false);
+        if (ktx == null) {
+            publish (Collections.singleton(new KEV (cls, kev)));
+            return;
         }
-        catch (InterruptedException ex) {
-            Logger.error("Event interrupted!", ex);
+
+        Pending p = pending.get();
+        if (p == null || p.tx != ktx) {
+            Pending tp = p = new Pending (ktx);
+            pending.set(p);
+            // rolled back or read only; beforeCommit never saw these
+            ktx.registerCloseListener(txId -> {
+                    if (pending.get() == tp)
+                        pending.remove();
+                });
         }
+        p.events.add(new KEV (cls, kev));
+    }
+    
+    /*
+     * run r if the transaction bound to the thread is rolled back; for
+     * whatever is kept in memory alongside the database
+     */
+    protected void onRollback (Runnable r) {
+        KernelTransaction ktx =
+            txBridge.getTopLevelTransactionBoundToThisThread(false);
+        if (ktx != null)
+            ktx.registerCloseListener(txId -> {
+                    if (txId == KernelTransaction.ROLLBACK)
+                        r.run();
+                });
     }
     
+    protected void fireEvents (Collection<KEV> kevs) {
+        for (KEV kev : kevs)
+            fireEvent (kev.cls, kev.event);
+    }
+
+    public int getBatchSize () { return batchSize; }
     public Collection<String> getNodeTypes () { return nodeTypes; }
     public Collection<String> getEdgeTypes () { return edgeTypes; }
     public Collection<String> getEvidenceTypes () { return evidenceTypes; }
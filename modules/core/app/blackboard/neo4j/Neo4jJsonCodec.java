@@ -1,8 +1,12 @@
 package blackboard.neo4j;
 
 import java.util.Map;
+import java.util.Iterator;
+import java.util.stream.Stream;
 import java.io.IOException;
 
+import org.neo4j.graphdb.Transaction;
+
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -22,9 +26,19 @@ import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 
 import blackboard.JsonCodec;
 import blackboard.KEntity;
+import blackboard.KNode;
+import blackboard.KEdge;
+import blackboard.KGraph;
+import static blackboard.KEntity.*;
 import blackboard.BeanViews;
 
 public class Neo4jJsonCodec implements JsonCodec {
+    /*
+     * writes entities straight to the generator from one copy of their
+     * properties; a live neo4j node or edge is written in one transaction
+     * instead of one per getter. Nodes and edges of a kgraph are only
+     * written in the full view.
+     */
     static class KEntitySerializer extends JsonSerializer<KEntity> {
         public KEntitySerializer () {
         }
@@ -32,34 +46,102 @@ public class Neo4jJsonCodec implements JsonCodec {
         public void serialize (KEntity ke, JsonGenerator jgen,
                                SerializerProvider provider)
             throws IOException, JsonProcessingException {
+            if (ke instanceof Neo4jKEntity && !(ke instanceof KGraph)
+                && !((Neo4jKEntity)ke).isSnapshot()) {
+                try (Transaction tx =
+                     ((Neo4jKEntity)ke).graphDb.beginTx()) {
+                    write (ke, jgen, provider);
+                    tx.success();
+                }
+            }
+            else
+                write (ke, jgen, provider);
+        }
+
+        void write (KEntity ke, JsonGenerator jgen,
+                    SerializerProvider provider) throws IOException {
+            Map<String, Object> props = ke.getProperties();
             jgen.writeStartObject();
-            provider.defaultSerializeField("id", ke.getId(), jgen);
-            provider.defaultSerializeField("type", ke.getType(), jgen);
-            provider.defaultSerializeField("name", ke.getName(), jgen);
-            for (Map.Entry<String, Object> prop :
-                     ke.getProperties().entrySet()) {
-                provider.defaultSerializeField
-                    (prop.getKey(), prop.getValue(), jgen);
+            jgen.writeNumberField(ID_P, ke.getId());
+            field (TYPE_P, ke instanceof KEdge
+                   ? ke.getType() : props.get(TYPE_P), jgen, provider);
+            field (NAME_P, props.get(NAME_P), jgen, provider);
+            field (CREATED_P, props.getOrDefault(CREATED_P, 0l),
+                   jgen, provider);
+            for (Map.Entry<String, Object> me : props.entrySet()) {
+                switch (me.getKey()) {
+                case TYPE_P: case NAME_P: case CREATED_P:
+                    break;
+                default:
+                    field (me.getKey(), me.getValue(), jgen, provider);
+                }
+            }
+
+            if (ke instanceof KNode) {
+                KNode kn = (KNode)ke;
+                jgen.writeNumberField("degree", kn.getDegree());
+                jgen.writeNumberField("inDegree", kn.getInDegree());
+                jgen.writeNumberField("outDegree", kn.getOutDegree());
+                jgen.writeFieldName("tags");
+                jgen.writeStartArray();
+                for (String tag : kn.getTags())
+                    jgen.writeString(tag);
+                jgen.writeEndArray();
+            }
+            else if (ke instanceof KEdge) {
+                KEdge edge = (KEdge)ke;
+                jgen.writeNumberField("source", edge.getSource());
+                jgen.writeNumberField("target", edge.getTarget());
+                jgen.writeBooleanField("directed", edge.isDirected());
+            }
+            else if (ke instanceof KGraph) {
+                KGraph kg = (KGraph)ke;
+                jgen.writeNumberField("nodeCount", kg.getNodeCount());
+                jgen.writeNumberField("edgeCount", kg.getEdgeCount());
+                jgen.writeNumberField("version", kg.getVersion());
+                jgen.writeNumberField("modified", kg.getModified());
+                Class<?> view = provider.getActiveView();
+                if (view == null
+                    || BeanViews.Full.class.isAssignableFrom(view)) {
+                    array ("nodes", kg.nodesAfter(-1l), jgen, provider);
+                    array ("edges", kg.edgesAfter(-1l), jgen, provider);
+                }
             }
             jgen.writeEndObject();
         }
+
+        static void field (String name, Object value, JsonGenerator jgen,
+                           SerializerProvider provider) throws IOException {
+            if (value != null)
+                provider.defaultSerializeField(name, value, jgen);
+        }
+
+        void array (String name, Stream<? extends KEntity> entities,
+                    JsonGenerator jgen, SerializerProvider provider)
+            throws IOException {
+            jgen.writeFieldName(name);
+            jgen.writeStartArray();
+            for (Iterator<? extends KEntity> it = entities.iterator();
+                 it.hasNext(); )
+                serialize (it.next(), jgen, provider);
+            jgen.writeEndArray();
+        }
     }
     
     final ObjectMapper compact, full;
     
     public Neo4jJsonCodec () {
-        //SimpleModule module = new SimpleModule ("Neo4j serialization");
-        //module.addSerializer(KEntity.class, new KEntitySerializer ());
-        //mapper = new ObjectMapper().registerModule(module);
+        SimpleModule module = new SimpleModule ("Neo4j serialization");
+        module.addSerializer(KEntity.class, new KEntitySerializer ());
         compact = new ObjectMapper()
-            .enable(SerializationFeature.INDENT_OUTPUT)
+            .registerModule(module)
             .setSerializationInclusion(JsonInclude.Include.NON_NULL)
             ;
         compact.setConfig(compact.getSerializationConfig()
                           .withView(BeanViews.Compact.class));
 
         full = new ObjectMapper ()
-            .enable(SerializationFeature.INDENT_OUTPUT)
+            .registerModule(module)
             .setSerializationInclusion(JsonInclude.Include.NON_NULL)
             ;
     }
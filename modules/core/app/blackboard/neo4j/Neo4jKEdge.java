@@ -12,6 +12,7 @@ import blackboard.KNode;
 
 public class Neo4jKEdge extends Neo4jKEntity implements KEdge {
     protected final Neo4jKNode source, target;
+    protected final String type; // only set for a snapshot
     
     public Neo4jKEdge (Relationship edge,
                        Neo4jKNode source, Neo4jKNode target) {
@@ -23,6 +24,27 @@ public class Neo4jKEdge extends Neo4jKEntity implements KEdge {
         super (edge, properties);
         this.source = source;
         this.target = target;
+        this.type = null;
+    }
+
+    /**
+     * read-only snapshot; the given source and target should be snapshots
+     * as well. Must be called within a transaction.
+     */
+    protected Neo4jKEdge (Relationship edge, Neo4jKNode source,
+                          Neo4jKNode target, boolean snapshot) {
+        super (edge, snapshot);
+        this.source = source;
+        this.target = target;
+        this.type = snapshot ? edge.getType().name() : null;
+    }
+
+    /*
+     * must be called within a transaction
+     */
+    public static Neo4jKEdge snapshot (Relationship edge) {
+        return new Neo4jKEdge (edge, Neo4jKNode.snapshot(edge.getStartNode()),
+                               Neo4jKNode.snapshot(edge.getEndNode()), true);
     }
 
     public KNode source () { return source; }
@@ -36,6 +58,8 @@ public class Neo4jKEdge extends Neo4jKEntity implements KEdge {
     protected Relationship edge () { return (Relationship)entity; }
     
     public boolean isDirected () {
+        if (snapshot != null)
+            return (Boolean)snapshot.getOrDefault(DIRECTED_P, false);
         try (Transaction tx = graphDb.beginTx()) {
             return (Boolean)edge().getProperty(DIRECTED_P, false);
         }
@@ -43,6 +67,8 @@ public class Neo4jKEdge extends Neo4jKEntity implements KEdge {
 
     @Override
     public String getType () {
+        if (snapshot != null)
+            return type;
         try (Transaction tx = graphDb.beginTx()) {
             return edge().getType().toString();
         }
@@ -3,18 +3,25 @@ package blackboard.neo4j;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.function.Supplier;
 
 import org.neo4j.graphdb.Entity;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 import play.Logger;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import blackboard.KEntity;
 
 public class Neo4jKEntity implements KEntity {    
     protected final GraphDatabaseService graphDb;
     protected final Entity entity;
+    /*
+     * all properties (hidden ones included) of a read-only snapshot;
+     * null for a live entity
+     */
+    protected final Map<String, Object> snapshot;
 
     public Neo4jKEntity (Entity entity) {
         this (entity, null);
@@ -26,33 +33,62 @@ public class Neo4jKEntity implements KEntity {
             Neo4j.setProperties(entity, properties);
         
         this.entity = entity;
+        this.snapshot = null;
     }
 
+    /**
+     * read-only snapshot of the entity; all properties are loaded once
+     * here so must be called within a transaction
+     */
+    protected Neo4jKEntity (Entity entity, boolean snapshot) {
+        graphDb = entity.getGraphDatabase();
+        this.entity = entity;
+        this.snapshot = snapshot
+            ? Collections.unmodifiableMap(entity.getAllProperties()) : null;
+    }
+
+    @JsonIgnore
+    public boolean isSnapshot () { return snapshot != null; }
+    
+    protected void checkWritable () {
+        if (snapshot != null)
+            throw new UnsupportedOperationException
+                ("Can't modify snapshot of entity "+getId());
+    }
+
+    /*
+     * the id is fixed at creation, so no transaction is needed
+     */
     public long getId () {
-        try (Transaction tx = graphDb.beginTx()) {
-            return entity.getId();
-        }
+        return entity.getId();
     }
 
     public long getCreated () {
+        if (snapshot != null)
+            return (Long)snapshot.getOrDefault(CREATED_P, 0l);
         try (Transaction tx = graphDb.beginTx()) {
             return (Long)entity.getProperty(CREATED_P, 0l);
         }
     }
 
     public String getName () {
+        if (snapshot != null)
+            return (String)snapshot.get(NAME_P);
         try (Transaction tx = graphDb.beginTx()) {
             return (String) entity.getProperty(NAME_P, null);
         }
     }
     
     public String getType () {
+        if (snapshot != null)
+            return (String)snapshot.get(TYPE_P);
         try (Transaction tx = graphDb.beginTx()) {
             return (String) entity.getProperty(TYPE_P, null);
         }
     }
 
     public void put (String name, Object value) {
+        checkWritable ();
         try (Transaction tx = graphDb.beginTx()) {
             entity.setProperty(name, value);
             tx.success();
@@ -60,6 +96,7 @@ public class Neo4jKEntity implements KEntity {
     }
 
     public void putAll (Map<String, Object> properties) {
+        checkWritable ();
         try (Transaction tx = graphDb.beginTx()) {
             for (Map.Entry<String, Object> me : properties.entrySet())
                 entity.setProperty(me.getKey(), me.getValue());
@@ -68,6 +105,7 @@ public class Neo4jKEntity implements KEntity {
     }
 
     public void putIfAbsent (String name, Supplier supplier) {
+        checkWritable ();
         try (Transaction tx = graphDb.beginTx()) {
             if (!entity.hasProperty(name)) {
                 entity.setProperty(name, supplier.get());
@@ -77,12 +115,21 @@ public class Neo4jKEntity implements KEntity {
     }
 
     public Object get (String name) {
+        if (snapshot != null)
+            return snapshot.get(name);
         try (Transaction tx = graphDb.beginTx()) {
             return entity.getProperty(name, null);
         }
     }
 
     public Map<String, Object> getProperties () {
+        if (snapshot != null) {
+            Map<String, Object> props = new TreeMap<>();
+            for (Map.Entry<String, Object> me : snapshot.entrySet())
+                if (me.getKey().charAt(0) != '_')
+                    props.put(me.getKey(), me.getValue());
+            return props;
+        }
         return Neo4j.getProperties(entity);
     }
 }
@@ -2,9 +2,13 @@ package blackboard.neo4j;
 
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.function.LongFunction;
 import java.util.stream.Stream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.lang.reflect.Array;
 import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantLock;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.index.*;
 import play.Logger;
@@ -12,10 +16,37 @@ import play.Logger;
 import blackboard.*;
 
 public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
+    /*
+     * set on the kgraph meta-node once all of its relationships have been
+     * tagged and indexed with their owning kgraph
+     */
+    static final String EDGE_INDEXED_P = "_edgeIndexed";
+    /*
+     * node and edge counts maintained on the kgraph meta-node
+     */
+    static final String NODE_COUNT_P = "_nodeCount";
+    static final String EDGE_COUNT_P = "_edgeCount";
+    /*
+     * set to "memory" once the kgraph's nodes are no longer written to its
+     * legacy node index
+     */
+    static final String NODE_INDEX_P = "_nodeIndex";
+    /*
+     * version and time of the last change, stamped by the blackboard as
+     * the transaction commits; nodes and edges carry the version too
+     */
+    static final String VERSION_P = "_version";
+    static final String MODIFIED_P = "_modified";
+    /*
+     * number of entities loaded per transaction by the streams
+     */
+    static final int STREAM_CHUNK = 256;
+    static final String RESOLVE_T = "resolve";
+    
     final Neo4jBlackboard blackboard;
     final Label kgLabel;
-    final Index<Node> nodeIndex;
     final Index<Relationship> edgeIndex;
+    final long version; // of a snapshot
 
     public Neo4jKGraph (Neo4jBlackboard blackboard, Node node) {
         this (blackboard, node, null);
@@ -25,28 +56,127 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
                         Node node, Map<String, Object> properties) {
         super (node, properties);
         kgLabel = Label.label("KG:"+node.getId());
-        nodeIndex = graphDb.index().forNodes(kgLabel.name());
         edgeIndex = graphDb.index().forRelationships(kgLabel.name());
         this.blackboard = blackboard;
+        version = -1l;
+    }
+
+    /*
+     * read-only snapshot; must be called within a transaction
+     */
+    protected Neo4jKGraph (Neo4jBlackboard blackboard, Node node,
+                           boolean snapshot) {
+        super (node, snapshot);
+        kgLabel = Label.label("KG:"+node.getId());
+        edgeIndex = graphDb.index().forRelationships(kgLabel.name());
+        this.blackboard = blackboard;
+        version = snapshot ? blackboard.getVersion
+            (node.getId(), (Long)this.snapshot.getOrDefault(VERSION_P, 0l))
+            : -1l;
+    }
+
+    public KGraph snapshot () {
+        try (Transaction tx = graphDb.beginTx()) {
+            return new Neo4jKGraph (blackboard, (Node)entity, true);
+        }
+    }
+
+    Neo4jNodeIndex nodeIndex () {
+        return blackboard.getNodeIndex(this);
+    }
+
+    boolean isMemoryIndexed () {
+        try (Transaction tx = graphDb.beginTx()) {
+            return "memory".equals(entity.getProperty(NODE_INDEX_P, null));
+        }
+    }
+
+    /*
+     * nodes and edges of a snapshot kgraph are snapshots themselves; must
+     * be called within a transaction
+     */
+    Neo4jKNode knode (Node n) {
+        return snapshot != null ? Neo4jKNode.snapshot(n) : new Neo4jKNode (n);
+    }
+
+    Neo4jKEdge kedge (Relationship rel, Map<Long, Neo4jKNode> nodes) {
+        if (snapshot == null)
+            return new Neo4jKEdge (rel, new Neo4jKNode (rel.getStartNode()),
+                                   new Neo4jKNode (rel.getEndNode()));
+        
+        Neo4jKNode s = nodes.computeIfAbsent
+            (rel.getStartNode().getId(), id -> knode (rel.getStartNode()));
+        Neo4jKNode t = nodes.computeIfAbsent
+            (rel.getEndNode().getId(), id -> knode (rel.getEndNode()));
+        return new Neo4jKEdge (rel, s, t, true);
     }
 
     public long getNodeCount () {
+        if (snapshot != null)
+            return (Long)snapshot.getOrDefault(NODE_COUNT_P, 0l);
+        try (Transaction tx = graphDb.beginTx()) {
+            return (Long)entity.getProperty(NODE_COUNT_P, 0l);
+        }
+    }
+
+    public long getVersion () {
+        if (snapshot != null)
+            return version;
+        try (Transaction tx = graphDb.beginTx()) {
+            return blackboard.getVersion
+                (getId(), (Long)entity.getProperty(VERSION_P, 0l));
+        }
+    }
+
+    public long getModified () {
+        if (snapshot != null)
+            return (Long)snapshot.getOrDefault(MODIFIED_P, getCreated ());
         try (Transaction tx = graphDb.beginTx()) {
-            return graphDb.findNodes(kgLabel).stream().count();
+            return (Long)entity.getProperty(MODIFIED_P, getCreated ());
         }
     }
 
     public long getEdgeCount () {
-        try (Transaction tx = graphDb.beginTx();
-             Result result = graphDb.execute("match(n:`"+kgLabel.name()
-                                             +"`)-[e]-(m:`"+kgLabel.name()
-                                             +"`) return count(e) as COUNT")) {
-            if (result.hasNext()) {
-                Number n = (Number)result.next().get("COUNT");
-                return n.longValue();
+        if (snapshot != null)
+            return (Long)snapshot.getOrDefault(EDGE_COUNT_P, 0l);
+        try (Transaction tx = graphDb.beginTx()) {
+            return (Long)entity.getProperty(EDGE_COUNT_P, 0l);
+        }
+    }
+
+    /*
+     * adjust one of the counters on the meta-node; must be called within
+     * the transaction that makes the change being counted
+     */
+    void count (Transaction tx, String prop, long delta) {
+        tx.acquireWriteLock(entity);
+        entity.setProperty(prop, (Long)entity.getProperty(prop, 0l) + delta);
+    }
+
+    boolean isCounted () {
+        try (Transaction tx = graphDb.beginTx()) {
+            return entity.hasProperty(NODE_COUNT_P)
+                && entity.hasProperty(EDGE_COUNT_P);
+        }
+    }
+
+    /**
+     * migration for kgraphs created before the counters were maintained;
+     * counts the nodes and (indexed) relationships once
+     */
+    void initCounts () {
+        try (Transaction tx = graphDb.beginTx()) {
+            long nodes = graphDb.findNodes(kgLabel).stream().count();
+            long edges;
+            try (IndexHits<Relationship> hits =
+                 edgeIndex.get(KGRAPH_P, entity.getId())) {
+                edges = hits.size();
             }
+            tx.acquireWriteLock(entity);
+            entity.setProperty(NODE_COUNT_P, nodes);
+            entity.setProperty(EDGE_COUNT_P, edges);
+            tx.success();
         }
-        return -1l;
     }
 
     Stream<KNode> _nodes () {
@@ -55,7 +185,7 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
     
     Stream<KNode> _nodes (Predicate<KNode> predicate) {
         return graphDb.findNodes(kgLabel).stream()
-            .map(n -> (KNode)new Neo4jKNode (n))
+            .map(n -> (KNode)knode (n))
             .filter(predicate);
     }
 
@@ -63,16 +193,159 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
         return _edges (e -> true);
     }
     
+    /*
+     * only the relationships owned by this kgraph; the returned stream
+     * must be consumed (and closed) within a transaction
+     */
     Stream<KEdge> _edges (Predicate<KEdge> predicate) {
-        return graphDb.getAllRelationships().stream()
-            .filter(rel -> rel.getStartNode().hasLabel(kgLabel)
-                    && rel.getEndNode().hasLabel(kgLabel))
-            .map(rel -> (KEdge) new Neo4jKEdge
-                 (rel, new Neo4jKNode (rel.getStartNode()),
-                  new Neo4jKNode (rel.getEndNode())))
+        // node snapshots shared among the edges
+        Map<Long, Neo4jKNode> nodes = new HashMap<>();
+        return edgeIndex.get(KGRAPH_P, entity.getId()).stream()
+            .map(rel -> (KEdge)kedge (rel, nodes))
             .filter(predicate);
     }
     
+    static String quote (String label) {
+        return "`"+label.replace("`", "``")+"`";
+    }
+
+    /*
+     * ids of this kgraph's nodes that have the given type and all of the
+     * given tags; these are all labels, so the cypher planner picks the
+     * most selective label scan
+     */
+    long[] nodeIds (String type, String... tags) {
+        StringBuilder q = new StringBuilder ("match(n:"+quote (kgLabel.name()));
+        if (type != null)
+            q.append(":"+quote (type));
+        if (tags != null) {
+            for (String t : tags)
+                q.append(":"+quote (t));
+        }
+        q.append(") return id(n) as ID");
+
+        LongStream.Builder ids = LongStream.builder();
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute(q.toString());
+             ResourceIterator<Long> it = result.columnAs("ID")) {
+            while (it.hasNext())
+                ids.add(it.next());
+            tx.success();
+        }
+        return ids.build().toArray();
+    }
+
+    long[] edgeIds (String type) {
+        RelationshipType etype =
+            type != null ? RelationshipType.withName(type) : null;
+        LongStream.Builder ids = LongStream.builder();
+        try (Transaction tx = graphDb.beginTx();
+             IndexHits<Relationship> hits =
+             edgeIndex.get(KGRAPH_P, entity.getId())) {
+            while (hits.hasNext()) {
+                Relationship rel = hits.next();
+                if (etype == null || rel.isType(etype))
+                    ids.add(rel.getId());
+            }
+            tx.success();
+        }
+        return ids.build().toArray();
+    }
+
+    /*
+     * entities for the given ids are loaded lazily, STREAM_CHUNK at a time
+     * in short transactions, so the consumer of the stream can freely
+     * write to the kgraph; entities deleted in the meantime are skipped
+     */
+    <T> Stream<T> stream (long[] ids, LongFunction<T> loader) {
+        return IntStream.range(0, (ids.length+STREAM_CHUNK-1)/STREAM_CHUNK)
+            .mapToObj(chunk -> {
+                    List<T> entities = new ArrayList<>();
+                    int end = Math.min(ids.length, (chunk+1)*STREAM_CHUNK);
+                    try (Transaction tx = graphDb.beginTx()) {
+                        for (int i = chunk*STREAM_CHUNK; i < end; ++i) {
+                            try {
+                                entities.add(loader.apply(ids[i]));
+                            }
+                            catch (NotFoundException ex) {
+                            }
+                        }
+                        tx.success();
+                    }
+                    return entities;
+                })
+            .flatMap(List::stream);
+    }
+
+    public Stream<KNode> nodeStream (String type, String... tags) {
+        return stream (nodeIds (type, tags),
+                       id -> (KNode)knode (graphDb.getNodeById(id)));
+    }
+
+    public Stream<KEdge> edgeStream (String type) {
+        Map<Long, Neo4jKNode> nodes = new HashMap<>();
+        return stream (edgeIds (type), id -> {
+                // only keep the end nodes of the current chunk around
+                if (nodes.size() > 2*STREAM_CHUNK)
+                    nodes.clear();
+                return (KEdge)kedge (graphDb.getRelationshipById(id), nodes);
+            });
+    }
+    
+    static long[] after (long[] ids, long id) {
+        Arrays.sort(ids);
+        int pos = Arrays.binarySearch(ids, id);
+        pos = pos < 0 ? -pos-1 : pos+1;
+        return Arrays.copyOfRange(ids, pos, ids.length);
+    }
+
+    long[] ids (String query, long version) {
+        LongStream.Builder ids = LongStream.builder();
+        try (Transaction tx = graphDb.beginTx();
+             Result result = graphDb.execute
+             (query, Collections.singletonMap("version", version));
+             ResourceIterator<Long> it = result.columnAs("ID")) {
+            while (it.hasNext())
+                ids.add(it.next());
+            tx.success();
+        }
+        long[] sorted = ids.build().toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public Stream<KNode> nodesSince (long version) {
+        return stream (ids ("match(n:"+quote (kgLabel.name())+") where n."
+                            +VERSION_P+" > $version return id(n) as ID",
+                            version),
+                       id -> (KNode)knode (graphDb.getNodeById(id)));
+    }
+
+    public Stream<KEdge> edgesSince (long version) {
+        Map<Long, Neo4jKNode> nodes = new HashMap<>();
+        return stream (ids ("match(:"+quote (kgLabel.name())+")-[r]->() "
+                            +"where r."+VERSION_P+" > $version "
+                            +"return id(r) as ID", version), id -> {
+                if (nodes.size() > 2*STREAM_CHUNK)
+                    nodes.clear();
+                return (KEdge)kedge (graphDb.getRelationshipById(id), nodes);
+            });
+    }
+
+    public Stream<KNode> nodesAfter (long id) {
+        return stream (after (nodeIds (null), id),
+                       nid -> (KNode)knode (graphDb.getNodeById(nid)));
+    }
+
+    public Stream<KEdge> edgesAfter (long id) {
+        Map<Long, Neo4jKNode> nodes = new HashMap<>();
+        return stream (after (edgeIds (null), id), eid -> {
+                if (nodes.size() > 2*STREAM_CHUNK)
+                    nodes.clear();
+                return (KEdge)kedge (graphDb.getRelationshipById(eid), nodes);
+            });
+    }
+    
     public KNode[] getNodes () {
         try (Transaction tx = graphDb.beginTx()) {
             return _nodes()
@@ -89,37 +362,108 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
     }
 
     public void delete () {
-        try (Transaction tx = graphDb.beginTx()) {
-            // FIXME: remove indexes associated with properties 
-            graphDb.findNodes(kgLabel).stream().forEach(n -> {
-                    for (Relationship rel : n.getRelationships())
+        checkWritable ();
+        delete (blackboard.getBatchSize());
+    }
+
+    /**
+     * delete the kgraph with at most batchSize deletions per transaction;
+     * each transaction fires an UPDATE event with a snapshot of the kgraph
+     * (its counts being what's left). The meta-node goes last along with
+     * the kgraph's indexes. Returns false if the current thread was
+     * interrupted or the blackboard is closing before the kgraph was
+     * completely deleted.
+     */
+    boolean delete (int batchSize) {
+        long start = System.currentTimeMillis();
+        while (true) {
+            if (blackboard.closing || Thread.currentThread().isInterrupted()) {
+                Logger.warn("kgraph "+getId()+": delete interrupted!");
+                return false;
+            }
+            
+            try (Transaction tx = graphDb.beginTx()) {
+                List<Node> nodes = new ArrayList<>();
+                try (ResourceIterator<Node> it = graphDb.findNodes(kgLabel)) {
+                    while (it.hasNext() && nodes.size() < batchSize)
+                        nodes.add(it.next());
+                }
+                
+                if (nodes.isEmpty())
+                    break;
+
+                int ops = 0, edges = 0, deleted = 0;
+                for (Node n : nodes) {
+                    for (Relationship rel : n.getRelationships()) {
+                        if (ops >= batchSize)
+                            break;
                         rel.delete();
+                        ++edges;
+                        ++ops;
+                    }
+                    
+                    // node with a large degree is finished in the next batch
+                    if (ops >= batchSize)
+                        break;
                     n.delete();
-                });
+                    ++deleted;
+                    ++ops;
+                }
+                count (tx, NODE_COUNT_P, -deleted);
+                count (tx, EDGE_COUNT_P, -edges);
+                blackboard.fireEvent
+                    (KGraph.class, new KEvent<>
+                     (blackboard, new Neo4jKGraph (blackboard,
+                                                   (Node)entity, true),
+                      KEvent.Oper.UPDATE));
+                tx.success();
+            }
+        }
+
+        try (Transaction tx = graphDb.beginTx()) {
+            Node node = (Node)entity;
+            KGraph kg = new Neo4jKGraph (blackboard, node, true);
+            for (Relationship rel : node.getRelationships())
+                rel.delete();
+            node.delete();
             
-            ((Node)entity).delete();
+            IndexManager im = graphDb.index();
+            if (im.existsForNodes(kgLabel.name()))
+                im.forNodes(kgLabel.name()).delete();
+            if (im.existsForRelationships(kgLabel.name()))
+                edgeIndex.delete();
+            blackboard.fireEvent
+                (KGraph.class, new KEvent<>(blackboard, kg,
+                                            KEvent.Oper.DELETE));
             tx.success();
         }
+        blackboard.evict(this);
+        
+        Logger.debug("kgraph "+getId()+" deleted in "
+                     +String.format("%1$.3fs",
+                                    (System.currentTimeMillis()-start)
+                                    /1000.));
+        return true;
     }
 
     public KEdge[] getEdges () {
-        try (Transaction tx = graphDb.beginTx()) {
-            return _edges()
-                .collect(Collectors.toList()).toArray(new KEdge[0]);
+        try (Transaction tx = graphDb.beginTx();
+             Stream<KEdge> edges = _edges ()) {
+            return edges.collect(Collectors.toList()).toArray(new KEdge[0]);
         }
     }
 
     public KEdge[] edges (Predicate<KEdge> predicate) {
-        try (Transaction tx = graphDb.beginTx()) {      
-            return _edges(predicate)
-                .collect(Collectors.toList()).toArray(new KEdge[0]);
+        try (Transaction tx = graphDb.beginTx();
+             Stream<KEdge> edges = _edges (predicate)) {
+            return edges.collect(Collectors.toList()).toArray(new KEdge[0]);
         }
     }
 
     public KNode node (long id) {
         try (Transaction tx = graphDb.beginTx()) {
             Node n = graphDb.getNodeById(id);
-            return new Neo4jKNode (n);
+            return knode (n);
         }
         catch (NotFoundException ex) {
             Logger.warn("Unknown node: "+id);
@@ -130,8 +474,7 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
     public KEdge edge (long id) {
         try (Transaction tx = graphDb.beginTx()) {
             Relationship rel = graphDb.getRelationshipById(id);
-            return new Neo4jKEdge (rel, new Neo4jKNode (rel.getStartNode()),
-                                   new Neo4jKNode (rel.getEndNode()));
+            return kedge (rel, new HashMap<>());
         }
         catch (NotFoundException ex) {
             Logger.warn("Unknown edge: "+id);
@@ -139,176 +482,451 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
         return null;
     }
 
-     <T extends PropertyContainer> void index
-                (Index<T> index, T e, Map<String, Object> props) {
-         if (props != null) {
-             for (Map.Entry<String, Object> me : props.entrySet()) {
-                 Object val = me.getValue();
-                 if (val.getClass().isArray()) {
-                     int len = Array.getLength(val);
-                     for (int i = 0; i < len; ++i)
-                         index.add(e, me.getKey(), Array.get(val, i));
-                 }
-                 else 
-                     index.add(e, me.getKey(), val);
-             }
-         }
+    /*
+     * edge properties are only indexed for the keys that the node index
+     * strategy indexes
+     */
+    void index (Relationship rel, Map<String, Object> props) {
+        if (props != null) {
+            Neo4jNodeIndex index = nodeIndex ();
+            Neo4jNodeIndex.forEach(props, (key, val) -> {
+                    if (index.indexes(key))
+                        edgeIndex.add(rel, key, val);
+                });
+        }
+    }
+
+    /**
+     * tag the relationship with this kgraph and add it to the kgraph's
+     * relationship index; every relationship created on behalf of this
+     * kgraph must go through here
+     */
+    Relationship own (Relationship rel) {
+        rel.setProperty(KGRAPH_P, entity.getId());
+        edgeIndex.add(rel, KGRAPH_P, entity.getId());
+        return rel;
+    }
+
+    boolean isEdgeIndexed () {
+        try (Transaction tx = graphDb.beginTx()) {
+            return entity.hasProperty(EDGE_INDEXED_P);
+        }
     }
 
     /**
-     * create implicit edges between entities based on synonyms or whatever
-     * fields deem appropriate
+     * migration for databases created before relationships were tagged
+     * with their owning kgraph; walks the nodes of this kgraph once and
+     * indexes every relationship between them. Returns the number of
+     * relationships indexed.
      */
-    void stitch (List<Relationship> edges, Node node,
-                 String name, Object value) {
-        if (value.getClass().isArray()) {
-            int len = Array.getLength(value);
-            for (int i = 0; i < len; ++i) {
-                Object val = Array.get(value, i);
-                stitch (edges, node, name, val);
+    int indexEdges (int batchSize) {
+        List<Long> nodes;
+        try (Transaction tx = graphDb.beginTx()) {
+            nodes = graphDb.findNodes(kgLabel).stream()
+                .map(n -> n.getId()).collect(Collectors.toList());
+        }
+
+        int count = 0, pending = 0;
+        Transaction tx = graphDb.beginTx();
+        try {
+            for (Long id : nodes) {
+                Node n = graphDb.getNodeById(id);
+                for (Relationship rel
+                         : n.getRelationships(Direction.OUTGOING)) {
+                    if (!rel.hasProperty(KGRAPH_P)
+                        && rel.getEndNode().hasLabel(kgLabel)) {
+                        own (rel);
+                        ++count;
+                        if (++pending >= batchSize) {
+                            tx.success();
+                            tx.close();
+                            tx = graphDb.beginTx();
+                            pending = 0;
+                        }
+                    }
+                }
             }
+            entity.setProperty(EDGE_INDEXED_P, System.currentTimeMillis());
+            tx.success();
         }
-        else {
-            IndexHits<Node> hits = nodeIndex.get(SYNONYMS_P, value);
-            while (hits.hasNext()) {
-                Node n = hits.next();
-                if (!n.equals(node)) {
-                    Relationship rel = node.createRelationshipTo
-                        (n, RelationshipType.withName("resolve"));
-                    rel.setProperty("value", value);
+        finally {
+            tx.close();
+        }
+        
+        return count;
+    }
+
+    /**
+     * create implicit edges between entities based on synonyms; each
+     * synonym is a lookup in the kgraph's synonym dictionary
+     */
+    void stitch (List<Relationship> edges, Node node, Object value) {
+        Neo4jSynonyms synonyms = blackboard.getSynonyms(this);
+        List<Object> values = Neo4jSynonyms.values(value);
+        for (Object syn : values) {
+            for (Long id : synonyms.get(syn)) {
+                if (id == node.getId())
+                    continue;
+
+                Node other = synonymNode (id, syn);
+                if (other != null) {
+                    Relationship rel = stitch (node, other, syn);
                     if (edges != null)
                         edges.add(rel);
                 }
             }
-            hits.close();
         }
+        
+        for (Object syn : values)
+            synonyms.add(syn, node.getId());
+        // the dictionary isn't transactional
+        long id = node.getId();
+        blackboard.onRollback(() -> {
+                for (Object syn : values)
+                    synonyms.remove(syn, id);
+            });
     }
 
-    public KNode createNode (Map<String, Object> properties) {
-        Neo4jKNode node = null;
-        List<KEdge> edges = null;
-        try (Transaction tx = graphDb.beginTx()) {
-            Node n = properties.containsKey(TYPE_P)
-                ? graphDb.createNode
-                (kgLabel, Label.label((String)properties.get(TYPE_P)))
-                : graphDb.createNode(kgLabel);
-            n.setProperty(KGRAPH_P, entity.getId()); // parent kgraph
-            n.setProperty(CREATED_P, System.currentTimeMillis());
-            index (nodeIndex, n, properties);       
-            node = new Neo4jKNode (n, properties);
+    /*
+     * the node of a dictionary entry if it's still a node of this kgraph
+     * with the synonym; ids can be stale (rolled back, deleted or even
+     * reused by another kgraph)
+     */
+    Node synonymNode (long id, Object syn) {
+        try {
+            Node n = graphDb.getNodeById(id);
+            if (n.hasLabel(kgLabel)
+                && Neo4jMemoryNodeIndex.matches(n, SYNONYMS_P, syn))
+                return n;
+        }
+        catch (NotFoundException ex) {
+            // node of a transaction that didn't commit
+        }
+        return null;
+    }
+
+    Relationship stitch (Node source, Node target, Object value) {
+        Relationship rel = own (source.createRelationshipTo
+                                (target, RelationshipType.withName
+                                 (RESOLVE_T)));
+        rel.setProperty("value", value);
+        return rel;
+    }
+
+    static class Stitch {
+        final long source, target;
+        final Object value;
+
+        Stitch (long source, long target, Object value) {
+            this.source = source;
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    /*
+     * missing stitches of the given nodes; a pair of nodes sharing a
+     * synonym is stitched from the newer to the older node. Must be called
+     * within a transaction.
+     */
+    List<Stitch> missingStitches (Neo4jSynonyms synonyms, long[] ids,
+                                  int from, int to) {
+        RelationshipType resolve = RelationshipType.withName(RESOLVE_T);
+        List<Stitch> missing = new ArrayList<>();
+        for (int i = from; i < to; ++i) {
+            Node n;
+            try {
+                n = graphDb.getNodeById(ids[i]);
+            }
+            catch (NotFoundException ex) {
+                continue;
+            }
             
-            Object syn = properties.get(SYNONYMS_P);
-            if (syn != null) {
-                List<Relationship> rels = new ArrayList<>();
-                stitch (rels, n, SYNONYMS_P, syn);
-                if (!rels.isEmpty()) {
-                    edges = new ArrayList<>();
-                    for (Relationship rel : rels) {
-                        if (n.equals(rel.getStartNode())) {
-                            KEdge e = new Neo4jKEdge
-                                (rel, node, new Neo4jKNode (rel.getEndNode()));
-                            edges.add(e);
-                        }
-                        else {
-                            KEdge e = new Neo4jKEdge
-                                (rel, new Neo4jKNode (rel.getStartNode()), node);
-                            edges.add(e);
-                        }
-                    }
+            Object value = n.getProperty(SYNONYMS_P, null);
+            if (value == null)
+                continue;
+
+            Set<String> stitched = new HashSet<>();
+            for (Relationship rel
+                     : n.getRelationships(Direction.BOTH, resolve))
+                stitched.add(rel.getOtherNode(n).getId()+":"
+                             +rel.getProperty("value", ""));
+            
+            for (Object syn : Neo4jSynonyms.values(value)) {
+                for (Long id : synonyms.get(syn)) {
+                    if (id < n.getId() && !stitched.contains(id+":"+syn)
+                        && synonymNode (id, syn) != null)
+                        missing.add(new Stitch (n.getId(), id, syn));
                 }
-                Logger.debug("node "+n.getId()
-                             +" has "+rels.size()+" stitch(es)!");
             }
+        }
+        return missing;
+    }
+
+    /**
+     * rebuild the synonym dictionary and create whatever resolve edges
+     * are missing between nodes sharing a synonym. The nodes are checked
+     * in parallel, each worker in its own read transaction, but the edges
+     * are created serially in batches; concurrent writers would just
+     * deadlock on the node locks. Returns the number of edges created.
+     */
+    public int restitch () {
+        checkWritable ();
+        long start = System.currentTimeMillis();
+        Neo4jSynonyms synonyms = blackboard.getSynonyms(this);
+        try (Transaction tx = graphDb.beginTx()) {
+            synonyms.warm(graphDb, kgLabel);
             tx.success();
         }
 
-        if (node != null) {
-            blackboard.fireEvent
-                (KNode.class, new KEvent<>(this, node, KEvent.Oper.ADD));
-            if (edges != null)
-                for (KEdge e : edges)
+        long[] ids = nodeIds (null);
+        List<Stitch> missing = IntStream
+            .range(0, (ids.length+STREAM_CHUNK-1)/STREAM_CHUNK)
+            .parallel()
+            .mapToObj(chunk -> {
+                    try (Transaction tx = graphDb.beginTx()) {
+                        List<Stitch> stitches = missingStitches
+                            (synonyms, ids, chunk*STREAM_CHUNK,
+                             Math.min(ids.length, (chunk+1)*STREAM_CHUNK));
+                        tx.success();
+                        return stitches;
+                    }
+                })
+            .flatMap(List::stream)
+            .collect(Collectors.toList());
+
+        int batchSize = blackboard.getBatchSize();
+        for (int i = 0; i < missing.size(); i += batchSize) {
+            try (Transaction tx = graphDb.beginTx()) {
+                int end = Math.min(missing.size(), i+batchSize);
+                for (Stitch st : missing.subList(i, end)) {
+                    Relationship rel = stitch
+                        (graphDb.getNodeById(st.source),
+                         graphDb.getNodeById(st.target), st.value);
                     blackboard.fireEvent
-                        (KEdge.class, new KEvent<>(this, e, KEvent.Oper.ADD));
+                        (KEdge.class, new KEvent<>
+                         (this, new Neo4jKEdge
+                          (rel, new Neo4jKNode (rel.getStartNode()),
+                           new Neo4jKNode (rel.getEndNode())),
+                          KEvent.Oper.ADD));
+                }
+                count (tx, EDGE_COUNT_P, end - i);
+                tx.success();
+            }
         }
-
-        return node;
+        
+        Logger.debug("kgraph "+getId()+": "+missing.size()
+                     +" stitch(es) created for "+ids.length+" node(s) in "
+                     +String.format("%1$.3fs",
+                                    (System.currentTimeMillis()-start)
+                                    /1000.));
+        return missing.size();
     }
 
-    public KNode createNodeIfAbsent
-        (Map<String, Object> properties, String key) {
-        KNode node = null;
-        if (properties.containsKey(key)) {
-            Object val = properties.get(key);
-            if (val == null) {
-            }
-            else {
-                if (val.getClass().isArray())
-                    Logger.warn("Key \""+key+"\" has multiple values!");
-            
-                try (Transaction tx = graphDb.beginTx();
-                     IndexHits<Node> hits = nodeIndex.get(key, val)) {
-                    if (hits.hasNext()) {
-                        Node n = hits.next();
-                        node = new Neo4jKNode (n);
-                    }
+    /*
+     * the _create* methods below must be called within a transaction;
+     * events for whatever they create are appended to events
+     */
+    Neo4jKNode _createNode (Transaction tx, Map<String, Object> properties,
+                            List<Neo4jBlackboard.KEV> events) {
+        Node n = properties.containsKey(TYPE_P)
+            ? graphDb.createNode
+            (kgLabel, Label.label((String)properties.get(TYPE_P)))
+            : graphDb.createNode(kgLabel);
+        n.setProperty(KGRAPH_P, entity.getId()); // parent kgraph
+        n.setProperty(CREATED_P, System.currentTimeMillis());
+        nodeIndex().add(n, properties);
+        Neo4jKNode node = new Neo4jKNode (n, properties);
+        count (tx, NODE_COUNT_P, 1);
+        events.add(new Neo4jBlackboard.KEV
+                   (KNode.class, new KEvent<>(this, node, KEvent.Oper.ADD)));
+        
+        Object syn = properties.get(SYNONYMS_P);
+        if (syn != null) {
+            List<Relationship> rels = new ArrayList<>();
+            stitch (rels, n, syn);
+            if (!rels.isEmpty()) {
+                count (tx, EDGE_COUNT_P, rels.size());
+                for (Relationship rel : rels) {
+                    KEdge e = n.equals(rel.getStartNode())
+                        ? new Neo4jKEdge
+                        (rel, node, new Neo4jKNode (rel.getEndNode()))
+                        : new Neo4jKEdge
+                        (rel, new Neo4jKNode (rel.getStartNode()), node);
+                    events.add(new Neo4jBlackboard.KEV
+                               (KEdge.class,
+                                new KEvent<>(this, e, KEvent.Oper.ADD)));
                 }
             }
+            Logger.debug("node "+n.getId()
+                         +" has "+rels.size()+" stitch(es)!");
         }
+        
+        return node;
+    }
 
-        if (node == null)
-            node = createNode (properties);
+    Neo4jKNode _findNode (String key, Object val) {
+        if (val == null)
+            return null;
+        
+        if (val.getClass().isArray())
+            Logger.warn("Key \""+key+"\" has multiple values!");
+        List<Node> nodes = nodeIndex().get(key, val);
+        return nodes.isEmpty() ? null : new Neo4jKNode (nodes.get(0));
+    }
 
-        return node;
+    Neo4jKNode _createNodeIfAbsent (Transaction tx,
+                                    Map<String, Object> properties,
+                                    String key,
+                                    List<Neo4jBlackboard.KEV> events) {
+        Neo4jKNode node = _findNode (key, properties.get(key));
+        return node != null ? node : _createNode (tx, properties, events);
     }
 
-    public KEdge createEdge (KNode source, KNode target, String type,
-                             Map<String, Object> properties) {
+    Neo4jKEdge _createEdge (Transaction tx, Neo4jKNode s, Neo4jKNode t,
+                            String type, Map<String, Object> properties,
+                            List<Neo4jBlackboard.KEV> events) {
         if (type == null)
             throw new IllegalArgumentException
                 ("Can't create edge with null type!");
         
-        if (source == null || target == null)
+        if (s == null || t == null)
             throw new IllegalArgumentException
                 ("Either source or target is null");
         
-        KEdge edge = null;
+        Relationship rel = own (s.node().createRelationshipTo
+                                (t.node(), RelationshipType.withName(type)));
+        index (rel, properties);
+        Neo4jKEdge edge = new Neo4jKEdge (rel, s, t, properties);
+        count (tx, EDGE_COUNT_P, 1);
+        events.add(new Neo4jBlackboard.KEV
+                   (KEdge.class, new KEvent<>(this, edge, KEvent.Oper.ADD)));
+        return edge;
+    }
+
+    Neo4jKEdge _findEdge (Neo4jKNode s, Neo4jKNode t, String type) {
+        RelationshipType etype = RelationshipType.withName(type);
+        for (Relationship rel : s.node().getRelationships()) {
+            Node other = rel.getOtherNode(s.node());
+            if (other.equals(t.node()) && rel.isType(etype)) {
+                return new Neo4jKEdge (rel, s, t);
+            }
+        }
+        return null;
+    }
+
+    Neo4jKEdge _findEdge (Neo4jKNode s, Neo4jKNode t, String type,
+                          String key, Object val) {
+        if (val.getClass().isArray())
+            Logger.warn("Key \""+key+"\" has multiple values!");
+        
+        try (IndexHits<Relationship> hits = edgeIndex.get(key, val)) {
+            if (hits.hasNext()) {
+                RelationshipType etype = RelationshipType.withName(type);
+                Relationship rel = hits.next();
+                if (rel.getStartNode().equals(s.node())
+                    && rel.getEndNode().equals(t.node())
+                    && rel.isType(etype))
+                    return new Neo4jKEdge (rel, s, t);
+            }
+        }
+        return null;
+    }
+    
+    Neo4jKEdge _createEdgeIfAbsent (Transaction tx,
+                                    Neo4jKNode s, Neo4jKNode t, String type,
+                                    Map<String, Object> properties,
+                                    String key,
+                                    List<Neo4jBlackboard.KEV> events) {
+        Neo4jKEdge edge = null;
+        if (key != null && properties != null
+            && properties.get(key) != null)
+            edge = _findEdge (s, t, type, key, properties.get(key));
+        
+        if (edge == null)
+            edge = _findEdge (s, t, type);
+
+        if (edge == null)
+            edge = _createEdge (tx, s, t, type, properties, events);
+        else if (properties != null) {
+            for (Map.Entry<String, Object> me : properties.entrySet())
+                edge.edge().setProperty(me.getKey(), me.getValue());
+        }
+        return edge;
+    }
+    
+    public KNode createNode (Map<String, Object> properties) {
+        checkWritable ();
+        Neo4jKNode node = null;
+        List<Neo4jBlackboard.KEV> events = new ArrayList<>();
         try (Transaction tx = graphDb.beginTx()) {
-            Neo4jKNode s = (Neo4jKNode)source;
-            Neo4jKNode t = (Neo4jKNode)target;
-            Relationship rel = s.node().createRelationshipTo
-                (t.node(), RelationshipType.withName(type));
-            index (edgeIndex, rel, properties);
-            edge = new Neo4jKEdge (rel, s, t, properties);
+            node = _createNode (tx, properties, events);
+            blackboard.fireEvents(events);
             tx.success();
         }
 
-        if (edge != null) {
-            blackboard.fireEvent
-                (KEdge.class, new KEvent<>(this, edge, KEvent.Oper.ADD));
+        return node;
+    }
+
+    public KNode createNodeIfAbsent
+        (Map<String, Object> properties, String key) {
+        checkWritable ();
+        KNode node = null;
+        ReentrantLock lock = blackboard.getWriteLock(this);
+        lock.lock();
+        try {
+            try (Transaction tx = graphDb.beginTx()) {
+                node = _findNode (key, properties.get(key));
+            }
+            
+            if (node == null)
+                node = createNode (properties);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return node;
+    }
+
+    public KEdge createEdge (KNode source, KNode target, String type,
+                             Map<String, Object> properties) {
+        checkWritable ();
+        KEdge edge = null;
+        List<Neo4jBlackboard.KEV> events = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            edge = _createEdge (tx, (Neo4jKNode)source, (Neo4jKNode)target,
+                                type, properties, events);
+            blackboard.fireEvents(events);
+            tx.success();
         }
             
         return edge;
     }
 
     public KEdge createEdgeIfAbsent (KNode source, KNode target, String type) {
-        try (Transaction tx = graphDb.beginTx()) {
-            Neo4jKNode s = (Neo4jKNode)source;
-            Neo4jKNode t = (Neo4jKNode)target;
-            RelationshipType etype = RelationshipType.withName(type);
-            for (Relationship rel : s.node().getRelationships()) {
-                Node other = rel.getOtherNode(s.node());
-                if (other.equals(t.node()) && rel.isType(etype)) {
-                    return new Neo4jKEdge (rel, s, t);
-                }
+        checkWritable ();
+        ReentrantLock lock = blackboard.getWriteLock(this);
+        lock.lock();
+        try {
+            try (Transaction tx = graphDb.beginTx()) {
+                KEdge edge = _findEdge
+                    ((Neo4jKNode)source, (Neo4jKNode)target, type);
+                if (edge != null)
+                    return edge;
             }
+            
+            return createEdge (source, target, type, null);
+        }
+        finally {
+            lock.unlock();
         }
-        
-        return createEdge (source, target, type, null);
     }
     
     public KEdge createEdgeIfAbsent (KNode source, KNode target, String type,
                                      Map<String, Object> properties,
                                      String key) {
+        checkWritable ();
         KEdge edge = null; 
         if (key == null || properties == null
             || !properties.containsKey(key)
@@ -316,26 +934,21 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
             edge = createEdgeIfAbsent (source, target, type);
         }
         else {
-            Object val = properties.get(key);
-            if (val.getClass().isArray())
-                Logger.warn("Key \""+key+"\" has multiple values!");
-            
-            try (Transaction tx = graphDb.beginTx();
-                 IndexHits<Relationship> hits = edgeIndex.get(key, val)) {
-                if (hits.hasNext()) {
-                    RelationshipType etype = RelationshipType.withName(type);
-                    Relationship rel = hits.next();
-                    Neo4jKNode s = (Neo4jKNode)source;
-                    Neo4jKNode t = (Neo4jKNode)target;
-                    if (rel.getStartNode().equals(s.node())
-                        && rel.getEndNode().equals(t.node())
-                        && rel.isType(etype))
-                        edge = new Neo4jKEdge (rel, s, t);
+            ReentrantLock lock = blackboard.getWriteLock(this);
+            lock.lock();
+            try {
+                try (Transaction tx = graphDb.beginTx()) {
+                    edge = _findEdge ((Neo4jKNode)source,
+                                      (Neo4jKNode)target,
+                                      type, key, properties.get(key));
                 }
+                
+                if (edge == null)
+                    edge = createEdgeIfAbsent (source, target, type);
+            }
+            finally {
+                lock.unlock();
             }
-
-            if (edge == null)
-                edge = createEdgeIfAbsent (source, target, type);
         }
 
         if (!properties.isEmpty())
@@ -344,14 +957,21 @@ public class Neo4jKGraph extends Neo4jKEntity implements KGraph {
         return edge;
     }
 
+    public KGraphBatch batch () {
+        checkWritable ();
+        return new Neo4jKGraphBatch (this, blackboard.getBatchSize());
+    }
+
+    public KGraphBatch batch (int chunkSize) {
+        checkWritable ();
+        return new Neo4jKGraphBatch (this, chunkSize);
+    }
+
     public KNode[] findNodes (String property, Object value) {
         List<KNode> nodes = new ArrayList<>();
-        try (Transaction tx = graphDb.beginTx();
-             IndexHits<Node> hits = nodeIndex.get(property, value)) {
-            while (hits.hasNext()) {
-                Node n = hits.next();
-                nodes.add(new Neo4jKNode (n));
-            }
+        try (Transaction tx = graphDb.beginTx()) {
+            for (Node n : nodeIndex().get(property, value))
+                nodes.add(knode (n));
         }
         
         return nodes.toArray(new KNode[0]);
@@ -0,0 +1,227 @@
+package blackboard.neo4j;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import org.neo4j.graphdb.*;
+import play.Logger;
+
+import blackboard.*;
+
+/**
+ * Batch writer for Neo4jKGraph; node upserts are applied first, then the
+ * edges, committing every chunkSize operations
+ */
+public class Neo4jKGraphBatch implements KGraphBatch {
+    class NodeRef implements Ref {
+        final Neo4jKNode existing;
+        final Map<String, Object> properties;
+        final String key;
+        final Set<String> tags = new LinkedHashSet<>();
+        final Map<String, Object> extra = new LinkedHashMap<>();
+        Neo4jKNode node;
+
+        NodeRef (Neo4jKNode existing) {
+            this (existing, null, null);
+        }
+
+        NodeRef (Neo4jKNode existing,
+                 Map<String, Object> properties, String key) {
+            this.existing = existing;
+            this.properties = properties;
+            this.key = key;
+        }
+
+        public Ref tag (String... tags) {
+            for (String t : tags)
+                this.tags.add(t);
+            return this;
+        }
+
+        public Ref put (String prop, Object value) {
+            extra.put(prop, value);
+            return this;
+        }
+
+        public KNode node () {
+            if (node == null)
+                throw new IllegalStateException
+                    ("Batch has not been executed!");
+            return node;
+        }
+
+        void resolve (Transaction tx, List<Neo4jBlackboard.KEV> events) {
+            if (existing != null)
+                node = existing;
+            else if (key != null)
+                node = kgraph._createNodeIfAbsent
+                    (tx, properties, key, events);
+            else
+                node = kgraph._createNode (tx, properties, events);
+
+            Node n = node.node();
+            for (String t : tags)
+                n.addLabel(Label.label(t));
+            for (Map.Entry<String, Object> me : extra.entrySet())
+                n.setProperty(me.getKey(), me.getValue());
+        }
+    }
+
+    class EdgeOp {
+        final NodeRef source, target;
+        final String type;
+        final Map<String, Object> properties;
+        final String key;
+        final boolean ifAbsent;
+
+        EdgeOp (NodeRef source, NodeRef target, String type,
+                Map<String, Object> properties, String key,
+                boolean ifAbsent) {
+            this.source = source;
+            this.target = target;
+            this.type = type;
+            this.properties = properties;
+            this.key = key;
+            this.ifAbsent = ifAbsent;
+        }
+
+        void apply (Transaction tx, List<Neo4jBlackboard.KEV> events) {
+            if (source.node.node().equals(target.node.node())) {
+            }
+            else if (ifAbsent) {
+                kgraph._createEdgeIfAbsent(tx, source.node, target.node,
+                                           type, properties, key, events);
+            }
+            else {
+                kgraph._createEdge(tx, source.node, target.node,
+                                   type, properties, events);
+            }
+        }
+    }
+
+    final Neo4jKGraph kgraph;
+    final int chunkSize;
+    final List<NodeRef> nodes = new ArrayList<>();
+    final List<EdgeOp> edges = new ArrayList<>();
+    // upserts within the batch that share the same key and value
+    final Map<String, Map<Object, NodeRef>> upserts = new HashMap<>();
+
+    public Neo4jKGraphBatch (Neo4jKGraph kgraph, int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException
+                ("Bogus batch chunk size: "+chunkSize);
+        this.kgraph = kgraph;
+        this.chunkSize = chunkSize;
+    }
+
+    public Ref node (KNode node) {
+        if (node == null)
+            throw new IllegalArgumentException ("Node is null");
+        NodeRef ref = new NodeRef ((Neo4jKNode)node);
+        nodes.add(ref);
+        return ref;
+    }
+
+    public Ref createNode (Map<String, Object> properties) {
+        NodeRef ref = new NodeRef (null, new TreeMap<>(properties), null);
+        nodes.add(ref);
+        return ref;
+    }
+
+    public Ref createNodeIfAbsent (Map<String, Object> properties,
+                                  String key) {
+        Object val = properties.get(key);
+        Map<Object, NodeRef> refs = upserts.get(key);
+        if (refs == null)
+            upserts.put(key, refs = new HashMap<>());
+
+        NodeRef ref = val != null && !val.getClass().isArray()
+            ? refs.get(val) : null;
+        if (ref == null) {
+            ref = new NodeRef (null, new TreeMap<>(properties), key);
+            nodes.add(ref);
+            if (val != null && !val.getClass().isArray())
+                refs.put(val, ref);
+        }
+        return ref;
+    }
+
+    public void createEdge (Ref source, Ref target, String type,
+                            Map<String, Object> properties) {
+        edges.add(new EdgeOp ((NodeRef)source, (NodeRef)target, type,
+                              copy (properties), null, false));
+    }
+
+    public void createEdgeIfAbsent (Ref source, Ref target, String type) {
+        createEdgeIfAbsent (source, target, type, null, null);
+    }
+
+    public void createEdgeIfAbsent (Ref source, Ref target, String type,
+                                    Map<String, Object> properties,
+                                    String key) {
+        edges.add(new EdgeOp ((NodeRef)source, (NodeRef)target, type,
+                              copy (properties), key, true));
+    }
+
+    static Map<String, Object> copy (Map<String, Object> properties) {
+        return properties != null ? new TreeMap<>(properties) : null;
+    }
+
+    public int size () { return nodes.size() + edges.size(); }
+
+    /*
+     * each chunk's events go out with its own commit, so whatever is
+     * committed is published even if a later chunk fails
+     */
+    Transaction commit (Transaction tx, List<Neo4jBlackboard.KEV> events) {
+        kgraph.blackboard.fireEvents(events);
+        events.clear();
+        tx.success();
+        tx.close();
+        return kgraph.graphDb.beginTx();
+    }
+
+    public void execute () {
+        List<Neo4jBlackboard.KEV> events = new ArrayList<>();
+        GraphDatabaseService graphDb = kgraph.graphDb;
+        int total = size (), ops = 0;
+        long start = System.currentTimeMillis();
+
+        // held until the last commit so the upserts see each other
+        ReentrantLock lock = kgraph.blackboard.getWriteLock(kgraph);
+        lock.lock();
+        Transaction tx = graphDb.beginTx();
+        try {
+            for (NodeRef ref : nodes) {
+                ref.resolve(tx, events);
+                if (++ops % chunkSize == 0 && ops < total)
+                    tx = commit (tx, events);
+            }
+
+            for (EdgeOp op : edges) {
+                op.apply(tx, events);
+                if (++ops % chunkSize == 0 && ops < total)
+                    tx = commit (tx, events);
+            }
+
+            kgraph.blackboard.fireEvents(events);
+            tx.success();
+        }
+        finally {
+            try {
+                tx.close();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        Logger.debug("kgraph "+kgraph.getId()+": batch of "+total
+                     +" operation(s) applied in "
+                     +String.format("%1$.3fs",
+                                    (System.currentTimeMillis()-start)
+                                    /1000.));
+        nodes.clear();
+        edges.clear();
+        upserts.clear();
+    }
+}
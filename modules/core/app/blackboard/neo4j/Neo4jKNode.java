@@ -6,66 +6,180 @@ import java.util.ArrayList;
 import java.util.stream.*;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 
 import blackboard.KNode;
+import blackboard.KDirection;
 
 public class Neo4jKNode extends Neo4jKEntity implements KNode {
+    /*
+     * only set for a snapshot
+     */
+    protected final String[] tags;
+    protected final int inDegree, outDegree, degree;
+    
     public Neo4jKNode (Node node) {
         this (node, null);
     }
         
     public Neo4jKNode (Node node, Map<String, Object> properties) {
         super (node, properties);
+        tags = null;
+        inDegree = outDegree = degree = -1;
+    }
+
+    /**
+     * read-only snapshot; properties, tags, and degrees are loaded here
+     * so must be called within a transaction
+     */
+    protected Neo4jKNode (Node node, boolean snapshot) {
+        super (node, snapshot);
+        if (snapshot) {
+            List<String> labels = new ArrayList<>();
+            for (Label l : node.getLabels())
+                labels.add(l.name());
+            tags = labels.toArray(new String[0]);
+            inDegree = node.getDegree(Direction.INCOMING);
+            outDegree = node.getDegree(Direction.OUTGOING);
+            degree = node.getDegree();
+        }
+        else {
+            tags = null;
+            inDegree = outDegree = degree = -1;
+        }
+    }
+
+    /*
+     * must be called within a transaction
+     */
+    public static Neo4jKNode snapshot (Node node) {
+        return new Neo4jKNode (node, true);
     }
 
     protected Node node () { return (Node)entity; }
 
     public int getDegree () {
+        if (snapshot != null)
+            return degree;
         try (Transaction tx = graphDb.beginTx()) {
             return node().getDegree();
         }
     }
 
     public int getInDegree () {
+        if (snapshot != null)
+            return inDegree;
         try (Transaction tx = graphDb.beginTx()) {
             return node().getDegree(Direction.INCOMING);
         }
     }
 
     public int getOutDegree () {
+        if (snapshot != null)
+            return outDegree;
         try (Transaction tx = graphDb.beginTx()) {
             return node().getDegree(Direction.OUTGOING);
         }
     }
 
+    /*
+     * neighbors that have any of the given tags; must be called within
+     * a transaction
+     */
+    Stream<Node> _neighbors (String... tags) {
+        Label[] labels = tags != null
+            ? Stream.of(tags).map(Label::label).toArray(Label[]::new)
+            : new Label[0];
+        return StreamSupport
+            .stream(node().getRelationships().spliterator(), false)
+            .map(rel -> rel.getOtherNode(node()))
+            .filter(n -> {
+                    if (labels.length == 0)
+                        return true;
+                    for (Label l : labels)
+                        if (n.hasLabel(l))
+                            return true;
+                    return false;
+                });
+    }
+
+    Neo4jKNode knode (Node n) {
+        return snapshot != null ? snapshot (n) : new Neo4jKNode (n);
+    }
+
+    static Direction direction (KDirection dir) {
+        if (dir != null) {
+            switch (dir) {
+            case IN: return Direction.INCOMING;
+            case OUT: return Direction.OUTGOING;
+            }
+        }
+        return Direction.BOTH;
+    }
+    
     public KNode[] neighbors (String... tags) {
         try (Transaction tx = graphDb.beginTx()) {
-            return StreamSupport
-                .stream(node().getRelationships().spliterator(), false)
-                .filter(rel -> {
-                        if (tags == null || tags.length == 0)
-                            return true;
-                        for (String t : tags)
-                            if (rel.getOtherNode(node())
-                                .hasLabel(Label.label(t)))
-                                return true;
-                        return false;
-                    })
-                .map(rel -> new Neo4jKNode (rel.getOtherNode(node())))
-                .collect(Collectors.toList())
-                .toArray(new KNode[0]);
+            return _neighbors(tags).map(this::knode).toArray(KNode[]::new);
         }
     }
 
     public boolean hasNeighbors (String... tags) {
-        KNode[] nodes = neighbors (tags);
-        return nodes != null && nodes.length > 0;
+        try (Transaction tx = graphDb.beginTx()) {
+            return _neighbors(tags).findAny().isPresent();
+        }
+    }
+
+    /*
+     * only the requested page is loaded, using neo4j's typed relationship
+     * chains
+     */
+    public Stream<KNode> neighbors (String type, KDirection dir,
+                                    int skip, int top) {
+        List<KNode> nodes = new ArrayList<>();
+        try (Transaction tx = graphDb.beginTx()) {
+            Iterable<Relationship> rels = type != null
+                ? node().getRelationships
+                (direction (dir), RelationshipType.withName(type))
+                : node().getRelationships(direction (dir));
+            
+            int i = 0;
+            for (Relationship rel : rels) {
+                if (top > 0 && nodes.size() >= top)
+                    break;
+                if (i++ >= skip)
+                    nodes.add(knode (rel.getOtherNode(node())));
+            }
+        }
+        return nodes.stream();
+    }
+
+    /*
+     * dense nodes keep their degrees by type and direction, so this
+     * doesn't touch the relationships themselves
+     */
+    public int getDegree (String type, KDirection dir) {
+        if (snapshot != null && type == null) {
+            switch (dir != null ? dir : KDirection.BOTH) {
+            case IN: return inDegree;
+            case OUT: return outDegree;
+            default: return degree;
+            }
+        }
+        
+        try (Transaction tx = graphDb.beginTx()) {
+            return type != null
+                ? node().getDegree(RelationshipType.withName(type),
+                                   direction (dir))
+                : node().getDegree(direction (dir));
+        }
     }
 
     public void addTag (String... tags) {
+        checkWritable ();
         try (Transaction tx = graphDb.beginTx()) {
             Node n = node ();
             for (String t : tags)
@@ -75,6 +189,9 @@ public class Neo4jKNode extends Neo4jKEntity implements KNode {
     }
 
     public String[] getTags () {
+        if (snapshot != null)
+            return tags.clone();
+        
         List<String> tags = new ArrayList<>();
         try (Transaction tx = graphDb.beginTx()) {
             Node n = node ();
@@ -85,6 +202,12 @@ public class Neo4jKNode extends Neo4jKEntity implements KNode {
     }
 
     public boolean hasTag (String tag) {
+        if (snapshot != null) {
+            for (String t : tags)
+                if (t.equals(tag))
+                    return true;
+            return false;
+        }
         try (Transaction tx = graphDb.beginTx()) {
             return node().hasLabel(Label.label(tag));
         }
@@ -0,0 +1,38 @@
+package blackboard.neo4j;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+
+/**
+ * Every property of every node goes into the kgraph's legacy (lucene)
+ * node index; this is how kgraphs have always been indexed
+ */
+class Neo4jLegacyNodeIndex implements Neo4jNodeIndex {
+    final Index<Node> index;
+
+    Neo4jLegacyNodeIndex (Index<Node> index) {
+        this.index = index;
+    }
+
+    public void add (Node node, Map<String, Object> properties) {
+        if (properties != null)
+            Neo4jNodeIndex.forEach
+                (properties, (key, val) -> index.add(node, key, val));
+    }
+
+    public List<Node> get (String key, Object value) {
+        List<Node> nodes = new ArrayList<>();
+        try (IndexHits<Node> hits = index.get(key, value)) {
+            while (hits.hasNext())
+                nodes.add(hits.next());
+        }
+        return nodes;
+    }
+
+    public boolean indexes (String key) { return true; }
+}
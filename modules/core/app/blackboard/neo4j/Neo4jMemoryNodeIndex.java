@@ -0,0 +1,120 @@
+package blackboard.neo4j;
+
+import java.util.*;
+import java.lang.reflect.Array;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+
+/**
+ * In-memory map of value to node ids for a fixed set of property keys of
+ * a kgraph; nothing is written to the database, so the map is rebuilt from
+ * the kgraph's nodes when the blackboard is opened. Lookups on other keys
+ * fall back to a scan of the kgraph's nodes.
+ */
+class Neo4jMemoryNodeIndex implements Neo4jNodeIndex {
+    final GraphDatabaseService graphDb;
+    final Label kgLabel;
+    final String[] keys;
+    // key -> value (as string, same as lucene) -> node ids
+    final Map<String, Map<String, Set<Long>>> index = new HashMap<>();
+
+    Neo4jMemoryNodeIndex (GraphDatabaseService graphDb, Label kgLabel,
+                          Collection<String> keys) {
+        this.graphDb = graphDb;
+        this.kgLabel = kgLabel;
+        this.keys = keys.toArray(new String[0]);
+        for (String k : keys)
+            index.put(k, new ConcurrentHashMap<>());
+    }
+
+    /*
+     * returns the number of nodes indexed
+     */
+    int rebuild () {
+        for (Map<String, Set<Long>> values : index.values())
+            values.clear();
+
+        int count = 0;
+        try (ResourceIterator<Node> it = graphDb.findNodes(kgLabel)) {
+            while (it.hasNext()) {
+                Node n = it.next();
+                add (n, n.getProperties(keys));
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    public void add (Node node, Map<String, Object> properties) {
+        if (properties != null) {
+            Neo4jNodeIndex.forEach(properties, (key, val) -> {
+                    Map<String, Set<Long>> values = index.get(key);
+                    if (values != null)
+                        values.computeIfAbsent
+                            (val.toString(),
+                             v -> ConcurrentHashMap.newKeySet())
+                            .add(node.getId());
+                });
+        }
+    }
+
+    public List<Node> get (String key, Object value) {
+        List<Node> nodes = new ArrayList<>();
+        Map<String, Set<Long>> values = index.get(key);
+        if (values == null) {
+            try (ResourceIterator<Node> it = graphDb.findNodes(kgLabel)) {
+                while (it.hasNext()) {
+                    Node n = it.next();
+                    if (matches (n, key, value))
+                        nodes.add(n);
+                }
+            }
+        }
+        else {
+            Set<Long> ids = values.get(value.toString());
+            if (ids != null) {
+                // oldest node first
+                for (Long id : new TreeSet<>(ids)) {
+                    /*
+                     * ids of nodes whose transaction was rolled back (or
+                     * hasn't committed yet) aren't visible here; these
+                     * are simply skipped
+                     */
+                    try {
+                        Node n = graphDb.getNodeById(id);
+                        if (n.hasLabel(kgLabel) && matches (n, key, value))
+                            nodes.add(n);
+                    }
+                    catch (NotFoundException ex) {
+                    }
+                }
+            }
+        }
+        return nodes;
+    }
+
+    public boolean indexes (String key) {
+        return index.containsKey(key);
+    }
+
+    static boolean matches (Node node, String key, Object value) {
+        Object val = node.getProperty(key, null);
+        if (val == null)
+            return false;
+
+        String v = value.toString();
+        if (val.getClass().isArray()) {
+            int len = Array.getLength(val);
+            for (int i = 0; i < len; ++i)
+                if (v.equals(String.valueOf(Array.get(val, i))))
+                    return true;
+            return false;
+        }
+        return v.equals(val.toString());
+    }
+}
@@ -0,0 +1,48 @@
+package blackboard.neo4j;
+
+import java.util.Map;
+import java.util.List;
+import java.lang.reflect.Array;
+import java.util.function.BiConsumer;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * Lookup of a kgraph's nodes by property value; used for deduplication
+ * (createNodeIfAbsent), stitching, and findNodes. All methods must be
+ * called within a transaction.
+ */
+interface Neo4jNodeIndex {
+    /*
+     * index the given properties of a newly created node
+     */
+    void add (Node node, Map<String, Object> properties);
+    /*
+     * nodes whose property key is (or contains, for arrays) value
+     */
+    List<Node> get (String key, Object value);
+    /*
+     * whether values of this property are indexed at all
+     */
+    boolean indexes (String key);
+
+    /*
+     * call consumer for each value; array values are visited element
+     * by element
+     */
+    static void forEach (Map<String, Object> properties,
+                         BiConsumer<String, Object> consumer) {
+        for (Map.Entry<String, Object> me : properties.entrySet()) {
+            Object val = me.getValue();
+            if (val == null) {
+            }
+            else if (val.getClass().isArray()) {
+                int len = Array.getLength(val);
+                for (int i = 0; i < len; ++i)
+                    consumer.accept(me.getKey(), Array.get(val, i));
+            }
+            else
+                consumer.accept(me.getKey(), val);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package blackboard.neo4j;
+
+import java.util.*;
+import java.lang.reflect.Array;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+
+import static blackboard.KEntity.SYNONYMS_P;
+
+/**
+ * Synonym to node ids of a kgraph for stitching; warmed from the kgraph's
+ * nodes on first use and kept up to date as nodes are created
+ */
+class Neo4jSynonyms {
+    final Map<String, Set<Long>> synonyms = new ConcurrentHashMap<>();
+
+    /*
+     * must be called within a transaction; returns the number of nodes
+     * that have synonyms
+     */
+    int warm (GraphDatabaseService graphDb, Label kgLabel) {
+        synonyms.clear();
+        int count = 0;
+        try (ResourceIterator<Node> it = graphDb.findNodes(kgLabel)) {
+            while (it.hasNext()) {
+                Node n = it.next();
+                Object value = n.getProperty(SYNONYMS_P, null);
+                if (value != null) {
+                    for (Object syn : values (value))
+                        add (syn, n.getId());
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    void add (Object synonym, long id) {
+        synonyms.computeIfAbsent(synonym.toString(),
+                                 s -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    void remove (Object synonym, long id) {
+        Set<Long> ids = synonyms.get(synonym.toString());
+        if (ids != null)
+            ids.remove(id);
+    }
+
+    Set<Long> get (Object synonym) {
+        Set<Long> ids = synonyms.get(synonym.toString());
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    /*
+     * elements of an array value or the value itself
+     */
+    static List<Object> values (Object value) {
+        List<Object> values = new ArrayList<>();
+        if (value.getClass().isArray()) {
+            int len = Array.getLength(value);
+            for (int i = 0; i < len; ++i)
+                values.add(Array.get(value, i));
+        }
+        else
+            values.add(value);
+        return values;
+    }
+}
@@ -2,6 +2,7 @@ package blackboard.pharos;
 
 import java.util.*;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 import java.net.URLEncoder;
 import java.util.concurrent.*;
 
@@ -63,10 +64,15 @@ public class PharosKSource implements KSource, KType {
                      +": executing on KGraph "+kgraph.getId()
                      +" \""+kgraph.getName()+"\"");
         
-        if (nodes == null || nodes.length == 0)
-            nodes = kgraph.getNodes();
-
-        for (KNode kn : nodes) {
+        Stream<KNode> seeds = nodes == null || nodes.length == 0
+            ? kgraph.nodeStream(null) : Stream.of(nodes);
+        for (Iterator<KNode> it = seeds.iterator(); it.hasNext(); ) {
+            KNode kn = it.next();
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
             switch (kn.getType()) {
             case "query":
                 seedQuery ((String)kn.get("term"), kn, kgraph);
@@ -94,6 +100,7 @@ public class PharosKSource implements KSource, KType {
                 }
                 break;
             }
+            FrontierKSource.expanded(kn);
         }
     }
     
@@ -9,6 +9,7 @@ import java.sql.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.Collectors;
+import com.google.common.util.concurrent.RateLimiter;
 import javax.inject.Inject;
 import javax.inject.Named;
 import akka.stream.ActorMaterializer;
@@ -44,6 +45,9 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import blackboard.*;
 import blackboard.mesh.Entry;
@@ -61,11 +65,16 @@ public class PubMedKSource implements KSource, KType {
     public final WSClient wsclient;
     public final KSourceProvider ksp;
     public final CacheApi cache;
+    public final KCache kcache;
     public final MeshDb mesh;
     
     private final String[] blacklist;
     private final String[] whitelist;
 
+    static final String NCBI_HOST = "ncbi.nlm.nih.gov";
+    static final Map<String, RateLimiter> LIMITERS =
+        new ConcurrentHashMap<>();
+    private final RateLimiter limiter;
     private final String EUTILS_BASE;
     private final String MESH_BASE;
     private final Integer MAX_RESULTS;
@@ -106,13 +115,14 @@ public class PubMedKSource implements KSource, KType {
 
     
     @Inject
-    public PubMedKSource (WSClient wsclient, CacheApi cache,
+    public PubMedKSource (WSClient wsclient, CacheApi cache, KCache kcache,
                           @Named("pubmed") KSourceProvider ksp,
                           MeshKSource meshKS,
                           ApplicationLifecycle lifecycle) {
         this.wsclient = wsclient;
         this.ksp = ksp;
         this.cache = cache;
+        this.kcache = kcache;
         this.mesh = meshKS.getMeshDb();
 
         Map<String, String> props = ksp.getProperties();
@@ -129,6 +139,12 @@ public class PubMedKSource implements KSource, KType {
                 (ksp.getId()+" doesn't have \"mesh\" property defined!");
         if (API_KEY == null)
             Logger.warn("No api.key defined for "+ksp.getId());
+        String rate = props.get("rate");
+        limiter = rate != null ? LIMITERS.computeIfAbsent
+            (ksp.getId(), id -> RateLimiter.create
+             // without a key only 3 requests per second are allowed
+             (API_KEY != null ? Double.parseDouble(rate)
+              : Math.min(3., Double.parseDouble(rate)))) : null;
 
         List<String> wlist = new ArrayList<>();
         List<String> blist = new ArrayList<>();
@@ -165,31 +181,33 @@ public class PubMedKSource implements KSource, KType {
         Logger.debug("$"+ksp.getId()
                      +": executing on KGraph "+kgraph.getId()
                      +" \""+kgraph.getName()+"\"");
-        try {
-            for (KNode kn : nodes) {
-                switch (kn.getType()) {
-                case "query":
-                    seedQuery ((String)kn.get("term"), kn, kgraph);
-                    break;
-                    
-                default:
-                    { String query = (String)kn.get("name");
-                        if (query != null)
-                            seedQuery (query, kn, kgraph);
-                        else
-                            Logger.warn("Can't expand node "+kn.getId()
-                                        +"; type="+kn.getType());
-                    }
-                }
+        for (KNode kn : nodes) {
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
+            // one seed failing doesn't stop the others
+            try {
+                String query = "query".equals(kn.getType())
+                    ? (String)kn.get("term") : (String)kn.get("name");
+                if (query == null)
+                    Logger.warn("Can't expand node "+kn.getId()
+                                +"; type="+kn.getType());
+                else if (seedQuery (query, kn, kgraph))
+                    FrontierKSource.expanded(kn);
+            }
+            catch (Exception ex) {
+                Logger.error("Can't expand node "+kn.getId()
+                             +" on kgraph "+kgraph.getId(), ex);
             }
-        }
-        catch (Exception ex) {
-            Logger.error("Can't execute knowledge source on kgraph "
-                         +kgraph.getId(), ex);
         }
     }
 
-    protected void seedQuery (String query, KNode kn, KGraph kg)
+    /*
+     * false if the search itself failed
+     */
+    protected boolean seedQuery (String query, KNode kn, KGraph kg)
         throws Exception {
         // resolve through mesh
         MeSH[] meshes = searchMeSH (query);
@@ -212,8 +230,8 @@ public class PubMedKSource implements KSource, KType {
         q.put("retmode", "json");
         q.put("sort","relevance");
         q.put("term", query);
-        resolve(ksp.getUri() + "/esearch.fcgi",
-                q, kn, kg, this::resolveGeneric);
+        return resolve(ksp.getUri() + "/esearch.fcgi",
+                       q, kn, kg, this::resolveGeneric);
     }
 
     protected void seedMeSH (KNode kn, KGraph kg) throws Exception {
@@ -251,6 +269,18 @@ public class PubMedKSource implements KSource, KType {
     }
 
     KNode instrumentDoc (Document doc, KGraph kg) throws Exception {
+        KGraphBatch batch = kg.batch();
+        KGraphBatch.Ref dn = instrumentDoc (batch, doc, kg);
+        batch.execute();
+        return dn != null ? dn.node() : null;
+    }
+
+    /*
+     * queue the article node, its MeSH nodes and the edges between them
+     * on the batch; returns null if the article has no usable MeSH
+     */
+    KGraphBatch.Ref instrumentDoc (KGraphBatch batch, Document doc, KGraph kg)
+        throws Exception {
         NodeList nodes = doc.getElementsByTagName("PMID");
         if (nodes.getLength() < 1) 
             throw new IllegalArgumentException ("Not a valid PubMed XML!");
@@ -321,81 +351,78 @@ public class PubMedKSource implements KSource, KType {
                      +pmid+": "+title+" mesh="+nodes.getLength()
                      +"/"+meshes.size());
 
-        KNode dn = null;
-        if (!meshes.isEmpty()) {
-            Map<String, Object> props = new TreeMap<>();
-            props.put("pmid", pmid);
-            props.put(TYPE_P, type);
-            props.put(URI_P, "https://ncbi.nlm.nih.gov/pubmed/"+pmid);
-            props.put(NAME_P, title);
-            
-            nodes = doc.getElementsByTagName("Journal");
+        if (meshes.isEmpty())
+            return null;
+        
+        Map<String, Object> props = new TreeMap<>();
+        props.put("pmid", pmid);
+        props.put(TYPE_P, type);
+        props.put(URI_P, "https://ncbi.nlm.nih.gov/pubmed/"+pmid);
+        props.put(NAME_P, title);
+        
+        nodes = doc.getElementsByTagName("Journal");
+        if (nodes.getLength() > 0) {
+            Element journal = (Element)nodes.item(0);
+            nodes = journal.getElementsByTagName("Title");
+            props.put("journal", ((Element)nodes.item(0)).getTextContent());
+            nodes = journal.getElementsByTagName("Year");
             if (nodes.getLength() > 0) {
-                Element journal = (Element)nodes.item(0);
-                nodes = journal.getElementsByTagName("Title");
-                props.put("journal", ((Element)nodes.item(0)).getTextContent());
-                nodes = journal.getElementsByTagName("Year");
-                if (nodes.getLength() > 0) {
-                    String year = ((Element)nodes.item(0)).getTextContent();
-                    try {
-                        props.put("year", Integer.parseInt(year));
-                    }
-                    catch (NumberFormatException ex) {
-                        Logger.warn("Bogus year: "+year);
-                    }
+                String year = ((Element)nodes.item(0)).getTextContent();
+                try {
+                    props.put("year", Integer.parseInt(year));
                 }
-            }
-            
-            dn = kg.createNodeIfAbsent(props, URI_P);
-            dn.addTag("KS:"+ksp.getId());
-            for (Map.Entry<MeSH, String[]> me : meshes.entrySet()) {
-                MeSH mesh = me.getKey();
-                KNode xn = createMeshNode (kg, mesh);
-                if (xn.getId() != dn.getId()) {
-                    xn.addTag("KS:"+ksp.getId());
-                    KEdge e = kg.createEdgeIfAbsent(dn, xn, mesh.ui);
-                    if (me.getValue().length > 0)
-                        e.put("qualifier", me.getValue());
-                    e.put("ui", mesh.ui);
+                catch (NumberFormatException ex) {
+                    Logger.warn("Bogus year: "+year);
                 }
             }
         }
         
+        KGraphBatch.Ref dn = batch.createNodeIfAbsent(props, URI_P)
+            .tag("KS:"+ksp.getId());
+        // MeSH nodes of this article aren't in the graph until the batch
+        // is executed, so link their tree numbers here
+        Map<String, KGraphBatch.Ref> trees = new HashMap<>();
+        for (Map.Entry<MeSH, String[]> me : meshes.entrySet()) {
+            MeSH mesh = me.getKey();
+            KGraphBatch.Ref xn = createMeshNode (batch, kg, mesh, trees)
+                .tag("KS:"+ksp.getId());
+            Map<String, Object> eprops = new TreeMap<>();
+            if (me.getValue().length > 0)
+                eprops.put("qualifier", me.getValue());
+            eprops.put("ui", mesh.ui);
+            batch.createEdgeIfAbsent(dn, xn, mesh.ui, eprops, null);
+        }
+        
         return dn;
     }
 
-    KNode createMeshNode (KGraph kg, MeSH mesh) throws Exception {
+    KGraphBatch.Ref createMeshNode (KGraphBatch batch, KGraph kg, MeSH mesh,
+                                    Map<String, KGraphBatch.Ref> trees)
+        throws Exception {
         Map<String, Object> p = mesh.encode(new TreeMap<>());
-        KNode xn = kg.createNodeIfAbsent(p, URI_P);
-        Logger.debug(" ++ MeSH node "+xn.getId()+" created for "+mesh.ui
-                     +" "+mesh.name);
+        KGraphBatch.Ref xn = batch.createNodeIfAbsent(p, URI_P);
+        Logger.debug(" ++ MeSH node queued for "+mesh.ui+" "+mesh.name);
         for (String tree : mesh.treeNumbers) {
             Logger.debug("  ... linking "+tree);
             String[] paths = tree.split("\\.");
-            if (paths.length > 0) {
-                StringBuilder path = new StringBuilder (paths[0]);
-                for (int i = 1; i < paths.length; ++i) {
-                    KNode[] nodes =
-                        kg.findNodes("treeNumbers", path.toString());
-                    Logger.debug("    + "+path+" => "+nodes.length);
-                    for (KNode n : nodes) {
-                        if (n.getId() != xn.getId()) {
-                            kg.createEdgeIfAbsent(xn, n, path.toString());
-                        }
-                    }
+            StringBuilder path = new StringBuilder (paths[0]);
+            for (int i = 0; i < paths.length; ++i) {
+                if (i > 0)
                     path.append("."+paths[i]);
-                }
-                
-                KNode[] nodes = kg.findNodes("treeNumbers", path.toString());
-                Logger.debug("    + "+path+" => "+nodes.length);
-                for (KNode n : nodes) {
-                    if (n.getId() != xn.getId()) {
-                        kg.createEdgeIfAbsent(xn, n, path.toString());
-                    }
-                }
+                String tn = path.toString();
+                KNode[] nodes = kg.findNodes("treeNumbers", tn);
+                Logger.debug("    + "+tn+" => "+nodes.length);
+                for (KNode n : nodes)
+                    batch.createEdgeIfAbsent(xn, batch.node(n), tn);
+                KGraphBatch.Ref ref = trees.get(tn);
+                if (ref != null)
+                    batch.createEdgeIfAbsent(xn, ref, tn);
             }
         }
         
+        for (String tree : mesh.treeNumbers)
+            trees.put(tree, xn);
+        
         return xn;
     }
 
@@ -407,11 +434,17 @@ public class PubMedKSource implements KSource, KType {
 
     public KNode resolvePubmed (String pmid, KNode kn, KGraph kg)
         throws Exception {
-        KNode dn = createPubMedNodeIfAbsent (pmid, kg);
+        Document doc = getDocument (pmid);
+        if (doc == null)
+            return null;
+
+        KGraphBatch batch = kg.batch();
+        KGraphBatch.Ref dn = instrumentDoc (batch, doc, kg);
         if (dn != null)
-            kg.createEdgeIfAbsent(dn, kn, pmid);
+            batch.createEdgeIfAbsent(dn, batch.node(kn), pmid);
+        batch.execute();
         
-        return dn;
+        return dn != null ? dn.node() : null;
     }
 
     boolean checkTreeNumber (String node) {
@@ -462,7 +495,7 @@ public class PubMedKSource implements KSource, KType {
             .setQueryParameter("limit", "50")
             ;
         
-        WSResponse res = req.get().toCompletableFuture().get();
+        WSResponse res = fetch (req);
         Logger.debug("  ++++ "+req.getUrl()+"..."+res.getStatus());
         
         if (200 != res.getStatus()) {
@@ -535,7 +568,7 @@ public class PubMedKSource implements KSource, KType {
 
         Logger.debug(" ++ query mesh: "+query);
 
-        WSResponse res = req.get().toCompletableFuture().get();
+        WSResponse res = fetch (req);
         if (200 != res.getStatus()) {
             Logger.warn(res.getUri() + " returns status "
                         + res.getStatus());
@@ -561,6 +594,17 @@ public class PubMedKSource implements KSource, KType {
         return meshes.values().toArray(new MeSH[0]);
     }
 
+    /*
+     * requests to NCBI are held to the rate (per second) of the source,
+     * shared by all of its instances; E-utilities allows 10 with an api
+     * key and 3 without
+     */
+    public WSResponse fetch (WSRequest req) throws Exception {
+        if (limiter != null && req.getUrl().contains(NCBI_HOST))
+            limiter.acquire();
+        return req.get().toCompletableFuture().get();
+    }
+
     public WSRequest eutils (String endpoint) {
         WSRequest req = wsclient.url(EUTILS_BASE + "/"+endpoint)
             .setFollowRedirects(true)
@@ -576,11 +620,11 @@ public class PubMedKSource implements KSource, KType {
             .setQueryParameter("id", pmid);
         
         Logger.debug("+++ resolving..."+pmid+" "+req.getUrl());
-        WSResponse res = req.get().toCompletableFuture().get();
+        WSResponse res = fetch (req);
         if (429 == res.getStatus()) {
             Logger.debug("Eutils rate exceeded; trying again...");
             do {
-                res = req.get().toCompletableFuture().get();
+                res = fetch (req);
             }
             while (429 == res.getStatus());
         }
@@ -594,9 +638,26 @@ public class PubMedKSource implements KSource, KType {
             (new InputSource (new ByteArrayInputStream (res.asByteArray())));
     }
 
+    /*
+     * efetch documents are kept on disk as their xml
+     */
+    static final KCache.Codec<Document> DOC_CODEC =
+        new KCache.Codec<Document> () {
+            public byte[] encode (Document doc) throws Exception {
+                ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+                TransformerFactory.newInstance().newTransformer()
+                    .transform(new DOMSource (doc), new StreamResult (bos));
+                return bos.toByteArray();
+            }
+            public Document decode (byte[] data) throws Exception {
+                return fromInputSource
+                    (new InputSource (new ByteArrayInputStream (data)));
+            }
+        };
+
     public Document getDocument (final String pmid) throws Exception {
-        return cache.getOrElse
-            ("pubmed/"+pmid+"/doc", new Callable<Document> () {
+        return kcache.getOrElse
+            ("pubmed", pmid+"/doc", DOC_CODEC, new Callable<Document> () {
                     public Document call () throws Exception {
                         int ntries = 0;
                         do {
@@ -621,8 +682,9 @@ public class PubMedKSource implements KSource, KType {
     }
     
     public PubMedDoc getPubMedDoc (final String pmid) throws Exception {
-        return cache.getOrElse
-            ("pubmed/"+pmid+"/"+PubMedDoc.class.getName(),
+        // cheap to rebuild from the cached document, so heap only
+        return kcache.getOrElse
+            ("pubmed", pmid+"/"+PubMedDoc.class.getName(), null,
              new Callable<PubMedDoc> () {
                 public PubMedDoc call () throws Exception {
                     return new PubMedDoc (getDocument (pmid), mesh);
@@ -787,8 +849,8 @@ public class PubMedKSource implements KSource, KType {
 
     }
     
-    void resolve (String url, Map<String, String> params,
-                  KNode kn, KGraph kg, Resolver resolver) {
+    boolean resolve (String url, Map<String, String> params,
+                     KNode kn, KGraph kg, Resolver resolver) {
         WSRequest req = wsclient.url(url).setFollowRedirects(true);
         if (params != null) {
             for (Map.Entry<String, String> me : params.entrySet()) {
@@ -800,13 +862,19 @@ public class PubMedKSource implements KSource, KType {
         Logger.debug("+++ resolving..."+req.getUrl());
 
         try {
-            System.out.println(req.get().toCompletableFuture().get().getUri());
-            WSResponse res = req.get().toCompletableFuture().get();
+            WSResponse res = fetch (req);
+            if (200 != res.getStatus()) {
+                Logger.warn(res.getUri()+" returns status "
+                            +res.getStatus());
+                return false;
+            }
             JsonNode json = res.asJson();
             resolver.resolve(json, kn, kg);
+            return true;
         }
         catch (Exception ex) {
             Logger.error("Can't resolve url: "+url, ex);
+            return false;
         }
     }
 
@@ -824,8 +892,7 @@ public class PubMedKSource implements KSource, KType {
         Logger.debug("+++ resolving..."+req.getUrl());
 
         try {
-            System.out.println(req.get().toCompletableFuture().get().getUri());
-            WSResponse res = req.get().toCompletableFuture().get();
+            WSResponse res = fetch (req);
             ObjectMapper mapper = new ObjectMapper();
             String XMLString =res.getBody().replaceAll("<!DOCTYPE[^>]*>\n", "");
             XMLString=XMLString.replaceAll("&lt;","<")
@@ -850,7 +917,7 @@ public class PubMedKSource implements KSource, KType {
             .setQueryParameter("retmode", "json")
             .setQueryParameter("term", "\"Pharmacologic Actions\"[MeSH Major Topic] AND \""+node.get("term")+"\"");
         
-        WSResponse res = req.get().toCompletableFuture().get();
+        WSResponse res = fetch (req);
         if (200 != res.getStatus()) {
 //            Logger.warn(res.getUri()+" returns status "+res.getStatus());
             return;
@@ -881,7 +948,7 @@ public class PubMedKSource implements KSource, KType {
 
 
         Logger.debug("fetching "+pmid);
-        WSResponse res = req.get().toCompletableFuture().get();
+        WSResponse res = fetch (req);
         if (200 != res.getStatus()) {
             Logger.warn(res.getUri()+" returns status "+res.getStatus());
             return;
@@ -42,12 +42,14 @@ public class SemMedDbKSource implements KSource {
     
     private final Database db;
     private final CacheApi cache;
+    private final KCache kcache;
     private final Map<String, Set<String>> blacklist;
     private final Map<String, Set<String>> whitelist;
     private final Integer minPredCount;
     
     @Inject
-    public SemMedDbKSource (WSClient wsclient, CacheApi cache, Environment env,
+    public SemMedDbKSource (WSClient wsclient, CacheApi cache, KCache kcache,
+                            Environment env,
                             @Named("semmed") KSourceProvider ksp,
                             @NamedDatabase("semmed") Database db,
                             UMLSKSource umls, PubMedKSource pubmed,
@@ -55,6 +57,7 @@ public class SemMedDbKSource implements KSource {
         this.wsclient = wsclient;
         this.ksp = ksp;
         this.cache = cache;
+        this.kcache = kcache;
         this.db = db;
         this.umls = umls;
         this.pubmed = pubmed;
@@ -147,6 +150,11 @@ public class SemMedDbKSource implements KSource {
                      +" \""+kgraph.getName()+"\"");
         
         for (KNode kn : nodes) {
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
             switch (kn.getType()) {
             case "concept": // cui
                 { String cui = (String)kn.get("cui");
@@ -157,6 +165,7 @@ public class SemMedDbKSource implements KSource {
                     else {
                         try {
                             resolveCUI (cui, kn, kgraph);
+                            FrontierKSource.expanded(kn);
                         }
                         catch (Exception ex) {
                             Logger.error("Can't resolve CUI "+cui, ex);
@@ -170,6 +179,7 @@ public class SemMedDbKSource implements KSource {
                     if (pmid != null) {
                         try {
                             resolvePubmed (pmid, kn, kgraph);
+                            FrontierKSource.expanded(kn);
                         }
                         catch (Exception ex) {
                             Logger.error("Can't resolve pubmed "+pmid, ex);
@@ -258,6 +268,8 @@ public class SemMedDbKSource implements KSource {
             Logger.debug("++ resolve PMID "+pmid+"...");
             pstm.setString(1, pmid);
             ResultSet rset = pstm.executeQuery();
+            KGraphBatch batch = kg.batch();
+            KGraphBatch.Ref seed = batch.node(kn);
             int rows = 0;
             while (rset.next()) {
                 String subtype = rset.getString("SUBJECT_SEMTYPE");
@@ -278,29 +290,66 @@ public class SemMedDbKSource implements KSource {
                     || isBlacklist ("object_cui", obj)) {
                 }
                 else {
-                    KNode sn = umls.createConceptNodeIfAbsent(kg, sub);
-                    KNode on = umls.createConceptNodeIfAbsent(kg, obj);
+                    KGraphBatch.Ref sn =
+                        umls.createConceptNodeIfAbsent(batch, sub);
+                    KGraphBatch.Ref on =
+                        umls.createConceptNodeIfAbsent(batch, obj);
                     if (sn != null && on != null) {
                         String sent = rset.getString("SENTENCE");
                         Map<String, Object> props = new HashMap<>();
                         props.put("article", pmid);
                         props.put("context", sent);
-                        kg.createEdge(sn, on, pred, props);
-                        kg.createEdgeIfAbsent(kn, sn, sub);
-                        kg.createEdgeIfAbsent(kn, on, obj);
+                        batch.createEdge(sn, on, pred, props);
+                        batch.createEdgeIfAbsent(seed, sn, sub);
+                        batch.createEdgeIfAbsent(seed, on, obj);
                         ++rows;
                     }
                 }
             }
             rset.close();
+            batch.execute();
             Logger.debug(rows+" nodes resolved!");
         }
     }
 
+    /*
+     * predications are kept on disk as json
+     */
+    static final KCache.Codec<List<Predication>> PREDICATIONS =
+        new KCache.Codec<List<Predication>> () {
+            public byte[] encode (List<Predication> preds) throws Exception {
+                return KCache.JSON.encode(Json.toJson(preds));
+            }
+            public List<Predication> decode (byte[] data)
+                throws Exception {
+                List<Predication> preds = new ArrayList<>();
+                for (JsonNode n : KCache.JSON.decode(data)) {
+                    Predication p = new Predication
+                        (text (n, "subject"), text (n, "subtype"),
+                         text (n, "predicate"), text (n, "object"),
+                         text (n, "objtype"));
+                    for (JsonNode e : n.path("evidence")) {
+                        Evidence ev = new Evidence
+                            (e.hasNonNull("id") ? e.get("id").asLong() : null,
+                             text (e, "pmid"), text (e, "context"));
+                        if (e.hasNonNull("score"))
+                            ev.score = e.get("score").asDouble();
+                        p.evidence.add(ev);
+                    }
+                    preds.add(p);
+                }
+                return preds;
+            }
+        };
+
+    static String text (JsonNode n, String field) {
+        return n.hasNonNull(field) ? n.get(field).asText() : null;
+    }
+
     public List<Predication> getPredications (final String cui)
         throws Exception {
-        return cache.getOrElse
-            ("semmed/"+cui, new Callable<List<Predication>> () {
+        return kcache.getOrElse
+            ("semmed", cui, PREDICATIONS, new Callable<List<Predication>> () {
                     public List<Predication> call () throws Exception {
                         return _getPredications (cui);
                     }
@@ -398,8 +447,9 @@ public class SemMedDbKSource implements KSource {
 
     public List<Predication> getPredicationsByPMID (final String pmid)
         throws Exception {
-        return cache.getOrElse
-            ("semmed/"+pmid+"/pmid", new Callable<List<Predication>> () {
+        return kcache.getOrElse
+            ("semmed", pmid+"/pmid", PREDICATIONS,
+             new Callable<List<Predication>> () {
                     public List<Predication> call () throws Exception {
                         return _getPredicationsByPMID (pmid);
                     }
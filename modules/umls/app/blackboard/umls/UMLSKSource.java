@@ -33,6 +33,7 @@ public class UMLSKSource implements KSource {
     public final KSourceProvider ksp;
     
     private final CacheApi cache;
+    private final KCache kcache;
     private final Database db;
     private final TGT tgt;
     private final MetaMap metamap;
@@ -123,13 +124,14 @@ public class UMLSKSource implements KSource {
     
     
     @Inject
-    public UMLSKSource (WSClient wsclient, CacheApi cache,
+    public UMLSKSource (WSClient wsclient, CacheApi cache, KCache kcache,
                         @Named("umls") KSourceProvider ksp,
                         @NamedDatabase("umls") Database db,
                         ApplicationLifecycle lifecycle) {
         this.wsclient = wsclient;
         this.ksp = ksp;
         this.cache = cache;
+        this.kcache = kcache;
         this.db = db;
 
         Map<String, String> props = ksp.getProperties();
@@ -212,8 +214,14 @@ public class UMLSKSource implements KSource {
         Logger.debug("$"+ksp.getId()
                      +": executing on KGraph "+kgraph.getId()
                      +" \""+kgraph.getName()+"\"");
-        try {
-            for (KNode kn : nodes) {
+        for (KNode kn : nodes) {
+            if (KJob.cancelled()) {
+                Logger.debug("$"+ksp.getId()+": cancelled on KGraph "
+                             +kgraph.getId());
+                break;
+            }
+            // one seed failing doesn't stop the others
+            try {
                 switch (kn.getType()) {
                 case "query":
                     seedQueryDb ((String) kn.get("term"), kn, kgraph);
@@ -235,11 +243,12 @@ public class UMLSKSource implements KSource {
                         }
                     }
                 }
+                FrontierKSource.expanded(kn);
+            }
+            catch (Exception ex) {
+                Logger.error("Can't expand node "+kn.getId()
+                             +" on kgraph "+kgraph.getId(), ex);
             }
-        }
-        catch (Exception ex) {
-            Logger.error("Can't execute knowledge source on kgraph "
-                         +kgraph.getId(), ex);            
         }
     }
 
@@ -287,6 +296,18 @@ public class UMLSKSource implements KSource {
 
     public KNode createConceptNodeIfAbsent (KGraph kg, String cui)
         throws Exception {
+        KGraphBatch batch = kg.batch();
+        KGraphBatch.Ref ref = createConceptNodeIfAbsent (batch, cui);
+        if (ref == null)
+            return null;
+        
+        batch.execute();
+        return ref.node();
+    }
+
+    public KGraphBatch.Ref createConceptNodeIfAbsent (KGraphBatch batch,
+                                                      String cui)
+        throws Exception {
         JsonNode n = getCui (cui);
         if (n == null)
             return null;
@@ -314,14 +335,8 @@ public class UMLSKSource implements KSource {
             semtypes.add(sn.get(i).get("name").asText());
         }
         props.put("semtypes", types.toArray(new String[0]));
-        KNode kn = kg.createNodeIfAbsent(props, URI_P);
-        for (String t : kn.getTags())
-            semtypes.remove(t);
-
-        if (!semtypes.isEmpty())
-            kn.addTag(semtypes.toArray(new String[0]));
-        
-        return kn;
+        return batch.createNodeIfAbsent(props, URI_P)
+            .tag(semtypes.toArray(new String[0]));
     }
     public KNode createConceptNodeIfAbsentDb( KGraph kg, String cui)
             throws Exception
@@ -440,7 +455,8 @@ public class UMLSKSource implements KSource {
     }
 
     public JsonNode getCui (final String cui) throws Exception {
-        return cache.getOrElse("umls/"+cui, new Callable<JsonNode> () {
+        return kcache.getOrElse
+            ("umls", cui, KCache.JSON, new Callable<JsonNode> () {
                 public JsonNode call () throws Exception {
                     WSResponse res =
                         cui(cui).get().toCompletableFuture().get();
@@ -462,8 +478,8 @@ public class UMLSKSource implements KSource {
     public JsonNode getSource (final String src, final String id,
                                final String context)
         throws Exception {
-        return cache.getOrElse
-            ("umls/"+src+"/"+id+(context!=null?context:""),
+        return kcache.getOrElse
+            ("umls", src+"/"+id+(context!=null?context:""), KCache.JSON,
              new Callable<JsonNode> () {
                  public JsonNode call () throws Exception {
                      WSResponse res = source(src, id, context)
@@ -476,8 +492,8 @@ public class UMLSKSource implements KSource {
 
     public JsonNode getContent (final String cui, final String context)
         throws Exception {
-        return cache.getOrElse
-            ("umls/"+context+"/"+cui, new Callable<JsonNode>() {
+        return kcache.getOrElse
+            ("umls", context+"/"+cui, KCache.JSON, new Callable<JsonNode>() {
                     public JsonNode call () throws Exception {
                         WSResponse res = content(cui, context)
                             .get().toCompletableFuture().get();
@@ -489,8 +505,9 @@ public class UMLSKSource implements KSource {
 
     public JsonNode getSearch (final String query,
                                final int skip, final int top) throws Exception {
-        return cache.getOrElse
-            ("umls/search/"+query+"/"+top+"/"+skip, new Callable<JsonNode>() {
+        return kcache.getOrElse
+            ("umls", "search/"+query+"/"+top+"/"+skip, KCache.JSON,
+             new Callable<JsonNode>() {
                     public JsonNode call () throws Exception {
                         WSResponse res = search(query)
                             .setQueryParameter("pageSize", String.valueOf(top))
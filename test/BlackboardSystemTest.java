@@ -0,0 +1,200 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import org.junit.*;
+
+import play.Configuration;
+import play.libs.Json;
+import play.mvc.Http;
+import play.mvc.Result;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import blackboard.neo4j.Neo4jJsonCodec;
+import controllers.api.kg.BlackboardSystem;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * The kgraph resources: paging and NDJSON streaming of the listings,
+ * conditional GETs and version deltas
+ */
+public class BlackboardSystemTest {
+    ActorSystem actors;
+    Materializer materializer;
+    List<Callable<? extends CompletionStage<?>>> hooks;
+    BlackboardSystem system;
+    KGraph kgraph;
+
+    @Before
+    public void setUp () {
+        actors = ActorSystem.create("test");
+        materializer = ActorMaterializer.create(actors);
+        KEvents events = new KEvents ();
+        Blackboard blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), events);
+        hooks = new ArrayList<>();
+        system = new BlackboardSystem (actors, new Neo4jJsonCodec (), null,
+                                       events, blackboard, hooks::add);
+        kgraph = blackboard.createKGraph
+            (Collections.singletonMap(NAME_P, "seed"));
+        for (int i = 0; i < 9; ++i)
+            kgraph.createNode(Collections.singletonMap(NAME_P, "n"+i));
+    }
+
+    @After
+    public void tearDown () throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : hooks)
+            hook.call().toCompletableFuture().join();
+        actors.terminate();
+    }
+
+    /*
+     * calls the action with a request for uri
+     */
+    Result call (Supplier<Result> action, String uri, String... headers) {
+        Http.RequestBuilder request = new Http.RequestBuilder ().uri(uri);
+        for (int i = 0; i < headers.length; i += 2)
+            request.header(headers[i], headers[i+1]);
+        Http.Context.current.set(new Http.Context (request));
+        try {
+            return action.get();
+        }
+        finally {
+            Http.Context.current.remove();
+        }
+    }
+
+    Result nodes (String uri, String... headers) {
+        return call (() -> system.getNodesForKG(kgraph.getId()),
+                     "/kg/"+kgraph.getId()+"/nodes"+uri, headers);
+    }
+
+    Result kgraph (String uri, String... headers) {
+        return call (() -> system.getKG(kgraph.getId()),
+                     "/kg/"+kgraph.getId()+uri, headers);
+    }
+
+    String body (Result result) throws Exception {
+        return result.body().consumeData(materializer)
+            .toCompletableFuture().get(5, TimeUnit.SECONDS).utf8String();
+    }
+
+    static String type (Result result) {
+        return result.contentType().orElse(null);
+    }
+
+    /*
+     * the ids of the entities listed, as NDJSON or a JSON array
+     */
+    List<Long> ids (Result result) throws Exception {
+        String body = body (result);
+        List<Long> ids = new ArrayList<>();
+        if (BlackboardSystem.NDJSON.equals(type (result))) {
+            for (String line : body.split("\n"))
+                ids.add(Json.parse(line).get("@id").asLong());
+        }
+        else {
+            for (JsonNode n : Json.parse(body))
+                ids.add(n.get("@id").asLong());
+        }
+        return ids;
+    }
+
+    static List<Long> range (long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id <= to; ++id)
+            ids.add(id);
+        return ids;
+    }
+
+    @Test
+    public void jsonUnlessNdjsonIsAskedFor () throws Exception {
+        for (String[] headers : new String[][]{
+                {}, {"Accept", "*/*"},
+                {"Accept", "application/json, application/x-ndjson"}}) {
+            Result result = nodes ("", headers);
+            assertEquals(200, result.status());
+            assertEquals("application/json", type (result));
+            assertEquals(range (1, 10), ids (result));
+        }
+
+        for (Result result : Arrays.asList
+                 (nodes ("?format=ndjson"),
+                  nodes ("", "Accept", "application/x-ndjson"))) {
+            assertEquals(BlackboardSystem.NDJSON, type (result));
+            assertEquals(range (1, 10), ids (result));
+        }
+    }
+
+    @Test
+    public void pages () throws Exception {
+        Result result = nodes ("?top=4");
+        assertEquals(range (1, 4), ids (result));
+        String next = result.header("Link").get();
+        assertTrue(next, next.contains("after=4&top=4"));
+
+        result = nodes ("?after=4&top=4&format=ndjson");
+        assertEquals(range (5, 8), ids (result));
+        result = nodes ("?after=8&top=4");
+        assertEquals(range (9, 10), ids (result));
+        assertFalse(result.header("Link").isPresent());
+
+        result = nodes ("?skip=2&top=3");
+        assertEquals(range (3, 5), ids (result));
+    }
+
+    @Test
+    public void conditionalGet () throws Exception {
+        Result result = kgraph ("");
+        assertEquals(200, result.status());
+        String etag = result.header("ETag").get();
+        assertTrue(result.header("Last-Modified").isPresent());
+        assertEquals("Accept", result.header("Vary").get());
+
+        // the client has the current version
+        assertEquals(304, kgraph ("", "If-None-Match", etag).status());
+        assertEquals(304, nodes ("", "If-None-Match", "\"x\", "+etag)
+                     .status());
+        // not in the same representation though
+        Result ndjson = kgraph ("?format=ndjson", "If-None-Match", etag);
+        assertEquals(200, ndjson.status());
+        assertNotEquals(etag, ndjson.header("ETag").get());
+
+        // any write makes a new version
+        kgraph.node(2l).put("color", "red");
+        result = kgraph ("", "If-None-Match", etag);
+        assertEquals(200, result.status());
+        assertNotEquals(etag, result.header("ETag").get());
+    }
+
+    @Test
+    public void since () throws Exception {
+        long version = kgraph.getVersion();
+        assertEquals(0, ids (nodes ("?since="+version)).size());
+
+        KNode a = kgraph.createNode(Collections.singletonMap(NAME_P, "a"));
+        kgraph.node(3l).put("color", "red");
+        kgraph.createEdge(kgraph.node(2l), a, "assertion", null);
+        assertEquals(Arrays.asList(3l, a.getId()),
+                     ids (nodes ("?since="+version)));
+
+        JsonNode delta = Json.parse(body (kgraph ("?since="+version)));
+        assertEquals(version, delta.get("since").asLong());
+        assertEquals(kgraph.getVersion(), delta.get("version").asLong());
+        assertEquals(2, delta.get("nodes").size());
+        assertEquals(1, delta.get("edges").size());
+
+        // pages of a delta keep the since
+        Result result = nodes ("?since="+version+"&top=1");
+        assertEquals(Arrays.asList(3l), ids (result));
+        assertTrue(result.header("Link").get().contains("since="+version));
+    }
+}
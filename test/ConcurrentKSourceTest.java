@@ -0,0 +1,137 @@
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seeds run concurrently with a bounded number of them in flight
+ */
+public class ConcurrentKSourceTest {
+    KGraph kgraph;
+    // seeds read off the kgraph's node stream
+    AtomicInteger read;
+
+    @Before
+    public void setUp () {
+        Blackboard blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), new KEvents ());
+        KGraph kg = blackboard.createKGraph
+            (Collections.singletonMap(NAME_P, "test"));
+        for (int i = 0; i < 49; ++i)
+            kg.createNode(Collections.singletonMap(NAME_P, "n"+i));
+
+        // counts the seeds as they're read
+        read = new AtomicInteger ();
+        kgraph = (KGraph)Proxy.newProxyInstance
+            (KGraph.class.getClassLoader(), new Class[]{KGraph.class},
+             (proxy, method, args) -> {
+                try {
+                    Object r = method.invoke(kg, args);
+                    return method.getName().equals("nodeStream")
+                        ? ((Stream<?>)r).peek(n -> read.incrementAndGet())
+                        : r;
+                }
+                catch (InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            });
+    }
+
+    static void sleep (long ms) {
+        try {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void boundsSeedsInFlight () {
+        int concurrency = 4;
+        AtomicInteger running = new AtomicInteger ();
+        AtomicInteger done = new AtomicInteger ();
+        List<Integer> concurrent = new CopyOnWriteArrayList<>();
+        List<Integer> ahead = new CopyOnWriteArrayList<>();
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        ConcurrentKSource ks = new ConcurrentKSource
+            ("test", (kg, nodes) -> {
+                assertEquals(1, nodes.length);
+                seen.add(nodes[0].getId());
+                concurrent.add(running.incrementAndGet());
+                ahead.add(read.get() - done.get());
+                sleep (5l);
+                running.decrementAndGet();
+                done.incrementAndGet();
+            }, concurrency);
+        try {
+            ks.execute(kgraph);
+        }
+        finally {
+            ks.shutdown();
+        }
+
+        assertEquals(50, seen.size());
+        assertEquals(50, read.get());
+        assertTrue(Collections.max(concurrent) <= concurrency);
+        assertTrue(Collections.max(concurrent) > 1);
+        // seeds aren't read more than twice the concurrency ahead, give
+        // or take the one the stream's iterator reads to tell hasNext()
+        assertTrue(ahead.toString(),
+                   Collections.max(ahead) <= 2*concurrency + 1);
+    }
+
+    @Test
+    public void failedSeedsDontStopTheOthers () {
+        AtomicInteger done = new AtomicInteger ();
+        ConcurrentKSource ks = new ConcurrentKSource
+            ("test", (kg, nodes) -> {
+                if (nodes[0].getId() % 2 == 0)
+                    throw new IllegalStateException ("boom");
+                done.incrementAndGet();
+            }, 3);
+        try {
+            ks.execute(kgraph);
+        }
+        finally {
+            ks.shutdown();
+        }
+        assertEquals(25, done.get());
+    }
+
+    @Test
+    public void cancelStopsReadingSeeds () {
+        AtomicInteger done = new AtomicInteger ();
+        AtomicReference<KJob> job = new AtomicReference<> ();
+        ConcurrentKSource ks = new ConcurrentKSource
+            ("test", (kg, nodes) -> {
+                // the job is carried over to the seed's thread
+                assertFalse(KJob.cancelled());
+                if (done.incrementAndGet() == 5)
+                    job.get().cancel();
+                sleep (5l);
+            }, 2);
+        try {
+            job.set(new KJob ("test", ks, kgraph));
+            job.get().run();
+        }
+        finally {
+            ks.shutdown();
+        }
+        assertEquals(KJob.Status.CANCELLED, job.get().getStatus());
+        assertTrue(read.get() < 20);
+        assertTrue(done.get() < 20);
+    }
+}
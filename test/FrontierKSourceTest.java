@@ -0,0 +1,79 @@
+import java.util.*;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Marking of expanded seeds by FrontierKSource
+ */
+public class FrontierKSourceTest {
+    KGraph kg;
+
+    @Before
+    public void setUp () {
+        Blackboard blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), new KEvents ());
+        kg = blackboard.createKGraph(Collections.singletonMap(NAME_P, "test"));
+    }
+
+    @Test
+    public void marksExpandedSeeds () {
+        for (int i = 0; i < 5; ++i)
+            kg.createNode(Collections.singletonMap(NAME_P, "n"+i));
+
+        // expands every other seed it gets
+        List<Long> seen = new ArrayList<>();
+        KSource ks = (kgraph, nodes) -> {
+            for (int i = 0; i < nodes.length; ++i) {
+                seen.add(nodes[i].getId());
+                if (i % 2 == 0)
+                    FrontierKSource.expanded(nodes[i]);
+            }
+        };
+        String prop = FrontierKSource.EXPANDED_P+"test";
+
+        new FrontierKSource ("test", "v1", ks, false).execute(kg);
+        assertEquals(6, seen.size());
+        int marked = 0;
+        for (KNode kn : kg.getNodes())
+            if ("v1".equals(kn.get(prop)))
+                ++marked;
+        assertEquals(3, marked);
+
+        // only what wasn't expanded is tried again
+        Set<Long> left = new HashSet<>();
+        for (KNode kn : kg.getNodes())
+            if (kn.get(prop) == null)
+                left.add(kn.getId());
+        seen.clear();
+        new FrontierKSource ("test", "v1", ks, false).execute(kg);
+        assertEquals(left, new HashSet<>(seen));
+
+        // unless forced or at a new version
+        seen.clear();
+        new FrontierKSource ("test", "v1", ks, true).execute(kg);
+        assertEquals(6, seen.size());
+        seen.clear();
+        new FrontierKSource ("test", "v2", ks, false).execute(kg);
+        assertEquals(6, seen.size());
+    }
+
+    @Test
+    public void seedsAreLive () {
+        KNode a = kg.createNode(Collections.singletonMap(NAME_P, "a"));
+        new FrontierKSource ("test", "v1", (kgraph, nodes) -> {
+                for (KNode kn : nodes) {
+                    kn.put("seen", true);
+                    FrontierKSource.expanded(kn);
+                }
+            }, false).execute(kg);
+        assertEquals(true, kg.node(a.getId()).get("seen"));
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.KCache;
+
+import static org.junit.Assert.*;
+
+/**
+ * The two tiers of the cache: hits, expiry, eviction and restarts
+ */
+public class KCacheTest {
+    File base;
+    AtomicInteger loads;
+
+    @Before
+    public void setUp () throws Exception {
+        base = Files.createTempDirectory("kcache").toFile();
+        loads = new AtomicInteger ();
+    }
+
+    @After
+    public void tearDown () throws Exception {
+        Files.walk(base.toPath()).sorted(Comparator.reverseOrder())
+            .forEach(p -> p.toFile().delete());
+    }
+
+    KCache cache (Object... kv) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("blackboard.cache.dir", base.getPath());
+        for (int i = 0; i < kv.length; i += 2)
+            config.put((String)kv[i], kv[i+1]);
+        return new KCache (new Configuration (config));
+    }
+
+    byte[] get (KCache cache, String key, int size) throws Exception {
+        return cache.getOrElse("test", key, KCache.BYTES, () -> {
+                loads.incrementAndGet();
+                byte[] data = new byte[size];
+                new Random (key.hashCode()).nextBytes(data);
+                return data;
+            });
+    }
+
+    static Object metric (KCache cache, String name) {
+        return cache.namespace("test").getMetrics().get(name);
+    }
+
+    @Test
+    public void tiers () throws Exception {
+        KCache cache = cache ();
+        byte[] a = get (cache, "a", 100);
+        assertArrayEquals(a, get (cache, "a", 100));
+        assertEquals(1, loads.get());
+        assertEquals(1l, metric (cache, "heapHits"));
+        assertEquals(1, metric (cache, "diskEntries"));
+
+        // a new cache over the same dir has an empty heap
+        cache = cache ();
+        assertArrayEquals(a, get (cache, "a", 100));
+        assertEquals(1, loads.get());
+        assertEquals(1l, metric (cache, "diskHits"));
+
+        // nulls aren't cached
+        assertNull(cache.getOrElse("test", "b", KCache.BYTES, () -> {
+                    loads.incrementAndGet();
+                    return null;
+                }));
+        assertNull(cache.getOrElse("test", "b", KCache.BYTES, () -> null));
+        assertEquals(1, metric (cache, "diskEntries"));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped () throws Exception {
+        KCache cache = cache ("blackboard.cache.namespaces.test.ttl", "50ms");
+        get (cache, "a", 100);
+        long bytes = (Long)metric (cache, "diskBytes");
+        assertTrue(bytes > 0);
+        Thread.sleep(100l);
+
+        cache = cache ("blackboard.cache.namespaces.test.ttl", "50ms");
+        get (cache, "a", 100);
+        assertEquals(2, loads.get());
+        // the fresh entry replaced the expired one
+        assertEquals(1, metric (cache, "diskEntries"));
+        assertEquals(bytes, metric (cache, "diskBytes"));
+    }
+
+    @Test
+    public void unreadableEntriesAreDropped () throws Exception {
+        KCache cache = cache ();
+        get (cache, "a", 100);
+        File dir = new File (base, "test");
+        for (File f : dir.listFiles())
+            Files.write(f.toPath(), new byte[]{1, 2, 3});
+
+        cache = cache ();
+        get (cache, "a", 100);
+        assertEquals(2, loads.get());
+        assertEquals(1, metric (cache, "diskEntries"));
+        assertEquals(dir.listFiles()[0].length(),
+                     ((Long)metric (cache, "diskBytes")).longValue());
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted () throws Exception {
+        // random bytes don't compress, so each entry is a bit over 1k
+        KCache cache = cache ("blackboard.cache.disk", "5k");
+        for (int i = 0; i < 4; ++i) {
+            get (cache, "k"+i, 1024);
+            Thread.sleep(20l);
+        }
+        cache = cache ("blackboard.cache.disk", "5k"); // disk reads only
+        get (cache, "k0", 1024); // k1 is now the oldest
+        Thread.sleep(20l);
+        get (cache, "k4", 1024);
+
+        assertTrue((Long)metric (cache, "evictions") > 0);
+        assertTrue((Long)metric (cache, "diskBytes") <= 5*1024);
+        assertEquals(new File (base, "test").listFiles().length,
+                     metric (cache, "diskEntries"));
+
+        int loaded = loads.get();
+        cache = cache ("blackboard.cache.disk", "5k");
+        get (cache, "k0", 1024);
+        get (cache, "k4", 1024);
+        assertEquals(loaded, loads.get());
+        get (cache, "k1", 1024);
+        assertEquals(loaded + 1, loads.get());
+    }
+}
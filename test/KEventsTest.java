@@ -0,0 +1,157 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import blackboard.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Event queues of the subscribers: backpressure, ordering and await
+ */
+public class KEventsTest {
+    /*
+     * a listener held up until released
+     */
+    static class Gate implements KEventListener<KEntity> {
+        final CountDownLatch release = new CountDownLatch (1);
+        final List<Long> ids = new CopyOnWriteArrayList<>();
+
+        public void onEvent (KEvent<KEntity> ev) {
+            try {
+                release.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            ids.add(ev.getEntity().getId());
+        }
+    }
+
+    static class Entity implements KEntity {
+        final long id;
+
+        Entity (long id) {
+            this.id = id;
+        }
+
+        public long getId () { return id; }
+        public long getCreated () { return 0l; }
+        public String getName () { return null; }
+        public String getType () { return null; }
+        public void put (String name, Object value) {}
+        public void putAll (Map<String, Object> properties) {}
+        public void putIfAbsent (String name,
+                                 java.util.function.Supplier supplier) {}
+        public Object get (String name) { return null; }
+        public Map<String, Object> getProperties () {
+            return Collections.emptyMap();
+        }
+    }
+
+    static KEvent<KEntity> event (long id) {
+        return new KEvent<> (KEventsTest.class, new Entity (id),
+                             KEvent.Oper.UPDATE);
+    }
+
+    KEvents<KEntity> events;
+    Gate gate;
+
+    @Before
+    public void setUp () {
+        events = new KEvents<> (1024, KEvents.Backpressure.BLOCK, 200l);
+        gate = new Gate ();
+    }
+
+    @After
+    public void tearDown () {
+        gate.release.countDown();
+    }
+
+    /*
+     * fire ids until the subscription's queue is full and its listener is
+     * stuck on the first event
+     */
+    void fill (KEvents<KEntity>.Subscription sub, int capacity)
+        throws Exception {
+        events.fireEvent(KEntity.class, event (0l));
+        long end = System.currentTimeMillis() + 5000l;
+        while (sub.getLag() > 0) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(1l);
+        }
+        for (long id = 1; id <= capacity; ++id)
+            events.fireEvent(KEntity.class, event (id));
+        assertEquals(capacity, sub.getLag());
+    }
+
+    @Test
+    public void deliveredInOrder () throws Exception {
+        KEvents<KEntity>.Subscription sub =
+            events.subscribe(KEntity.class, gate);
+        gate.release.countDown();
+        for (long id = 0; id < 100; ++id)
+            assertEquals(1, events.fireEvent(KEntity.class, event (id)));
+        assertTrue(sub.await(5000l));
+        assertEquals(100, gate.ids.size());
+        for (int i = 0; i < 100; ++i)
+            assertEquals(i, gate.ids.get(i).longValue());
+        assertEquals(100, sub.getDelivered());
+        assertEquals(-1, new KEvents<KEntity> ()
+                     .fireEvent(KEntity.class, event (0l)));
+    }
+
+    @Test
+    public void dropLosesNewEvents () throws Exception {
+        KEvents<KEntity>.Subscription sub = events.subscribe
+            (KEntity.class, gate, KEvents.Backpressure.DROP, 4);
+        fill (sub, 4);
+        assertEquals(0, events.fireEvent(KEntity.class, event (5l)));
+        assertEquals(1, sub.getDropped());
+
+        gate.release.countDown();
+        assertTrue(sub.await(5000l));
+        assertEquals(Arrays.asList(0l, 1l, 2l, 3l, 4l), gate.ids);
+    }
+
+    @Test
+    public void coalesceReplacesSameEntity () throws Exception {
+        KEvents<KEntity>.Subscription sub = events.subscribe
+            (KEntity.class, gate, KEvents.Backpressure.COALESCE, 4);
+        fill (sub, 4);
+        assertEquals(1, events.fireEvent(KEntity.class, event (2l)));
+        assertEquals(1, sub.getCoalesced());
+        // no event of the same entity queued, so the oldest goes
+        assertEquals(1, events.fireEvent(KEntity.class, event (9l)));
+        assertEquals(1, sub.getDropped());
+
+        gate.release.countDown();
+        assertTrue(sub.await(5000l));
+        assertEquals(Arrays.asList(0l, 3l, 4l, 2l, 9l), gate.ids);
+    }
+
+    @Test
+    public void blockSharesOneDeadline () throws Exception {
+        KEvents<KEntity>.Subscription sub = events.subscribe
+            (KEntity.class, gate, KEvents.Backpressure.BLOCK, 4);
+        fill (sub, 4);
+
+        // a publisher firing many events waits about one timeout in all
+        long start = System.currentTimeMillis();
+        long deadline = events.deadline();
+        for (long id = 5; id < 25; ++id)
+            assertEquals(0, events.fireEvent
+                         (KEntity.class, event (id), deadline));
+        long waited = System.currentTimeMillis() - start;
+        assertTrue("Waited "+waited+"ms", waited >= 190l && waited < 1000l);
+        assertEquals(20, sub.getDropped());
+        assertFalse(sub.await(50l));
+
+        // and gets through once the listener catches up
+        gate.release.countDown();
+        assertEquals(1, events.fireEvent(KEntity.class, event (25l)));
+        assertTrue(sub.await(5000l));
+        assertEquals(6, gate.ids.size());
+    }
+}
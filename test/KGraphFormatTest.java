@@ -0,0 +1,79 @@
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binary export and import of kgraphs
+ */
+public class KGraphFormatTest extends Neo4jTest {
+    static long count (KGraph kg, String type) {
+        return kg.edgeStream(type).count();
+    }
+
+    @Test
+    public void formatRoundTrip () throws Exception {
+        KGraph kg = kgraph ();
+        KGraphBatch batch = kg.batch();
+        List<KGraphBatch.Ref> refs = new ArrayList<>();
+        for (int i = 0; i < 10; ++i)
+            refs.add(batch.createNode
+                     (props (URI_P, "urn:"+i, NAME_P, "n"+i,
+                             "score", i/2., "rank", (long)i,
+                             "active", i % 2 == 0,
+                             SYNONYMS_P, new String[]{"S"+i/2, "urn:"+i}))
+                     .tag("T"+i%3));
+        for (int i = 1; i < refs.size(); ++i)
+            batch.createEdge(refs.get(i-1), refs.get(i), "assertion",
+                             props ("weight", i));
+        batch.execute();
+        long edges = kg.getEdgeCount();
+        assertEquals(9 + 5, edges); // 5 pairs share a synonym
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        KGraphFormat.write(kg, bos, true);
+        KGraph copy = KGraphFormat.read
+            (blackboard, new ByteArrayInputStream (bos.toByteArray()));
+
+        assertNotEquals(kg.getId(), copy.getId());
+        assertEquals(kg.getNodeCount(), copy.getNodeCount());
+        assertEquals(edges, copy.getEdgeCount());
+        assertEquals(count (kg, "assertion"), count (copy, "assertion"));
+        assertEquals(count (kg, "resolve"), count (copy, "resolve"));
+        assertEquals(1, copy.nodeStream(null, "KQuery").count());
+        for (int i = 0; i < 10; ++i) {
+            KNode kn = copy.findNodes(URI_P, "urn:"+i)[0];
+            assertEquals("n"+i, kn.get(NAME_P));
+            assertEquals(i/2., ((Number)kn.get("score")).doubleValue(), 0.);
+            assertEquals((long)i, ((Number)kn.get("rank")).longValue());
+            assertEquals(i % 2 == 0, kn.get("active"));
+            assertArrayEquals(new String[]{"S"+i/2, "urn:"+i},
+                              (String[])kn.get(SYNONYMS_P));
+            assertTrue(kn.hasTag("T"+i%3));
+        }
+    }
+
+    @Test
+    public void truncatedImportLeavesNothing () throws Exception {
+        KGraph kg = kgraph ();
+        for (int i = 0; i < 10; ++i)
+            kg.createNode(props (NAME_P, "n"+i));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream ();
+        KGraphFormat.write(kg, bos, false);
+        byte[] data = Arrays.copyOf(bos.toByteArray(), bos.size() - 4);
+
+        long count = blackboard.getKGraphCount();
+        try {
+            KGraphFormat.read(blackboard, new ByteArrayInputStream (data));
+            fail ("Truncated kgraph imported!");
+        }
+        catch (IOException ex) {
+        }
+        assertEquals(count, blackboard.getKGraphCount());
+    }
+}
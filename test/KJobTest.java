@@ -0,0 +1,148 @@
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Background jobs: their status, counts and cancellation
+ */
+public class KJobTest {
+    KGraph kgraph;
+
+    @Before
+    public void setUp () {
+        Blackboard blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), new KEvents ());
+        kgraph = blackboard.createKGraph
+            (Collections.singletonMap(NAME_P, "test"));
+    }
+
+    /*
+     * a kgraph deleted from under the job; only its id is left
+     */
+    static KGraph deleted (long id) {
+        return (KGraph)Proxy.newProxyInstance
+            (KGraph.class.getClassLoader(), new Class[]{KGraph.class},
+             (proxy, method, args) -> {
+                if (method.getName().equals("getId"))
+                    return id;
+                throw new IllegalStateException ("KGraph "+id+" deleted");
+            });
+    }
+
+    @Test
+    public void countsWhatWasAdded () {
+        KJob job = new KJob ("test", (kg, nodes) -> {
+                assertFalse(KJob.cancelled());
+                kg.createNode(Collections.singletonMap(NAME_P, "a"));
+                kg.createNode(Collections.singletonMap(NAME_P, "b"));
+            }, kgraph);
+        assertEquals(KJob.Status.QUEUED, job.getStatus());
+        job.run();
+        assertEquals(KJob.Status.DONE, job.getStatus());
+        assertTrue(job.isDone());
+        assertEquals(2, job.getNodesAdded());
+
+        // frozen once done
+        kgraph.createNode(Collections.singletonMap(NAME_P, "c"));
+        assertEquals(2, job.getNodesAdded());
+        assertFalse(job.cancel());
+    }
+
+    @Test
+    public void deletedKGraphFailsTheJob () {
+        KJob job = new KJob ("test", (kg, nodes) -> {
+                fail ("Ran on a deleted kgraph!");
+            }, deleted (42l));
+        job.run();
+        assertEquals(KJob.Status.FAILED, job.getStatus());
+        assertTrue(job.isDone());
+        assertNotNull(job.getError());
+        assertFalse(KJob.cancelled()); // no job left on the thread
+    }
+
+    @Test
+    public void errorFailsTheJob () {
+        KJob job = new KJob ("test", (kg, nodes) -> {
+                throw new AssertionError ("boom");
+            }, kgraph);
+        try {
+            job.run();
+            fail ("Error swallowed!");
+        }
+        catch (AssertionError err) {
+        }
+        assertEquals(KJob.Status.FAILED, job.getStatus());
+        assertTrue(job.isDone());
+    }
+
+    @Test
+    public void cancelledBeforeRun () {
+        KJob job = new KJob ("test", (kg, nodes) -> {
+                fail ("Cancelled job ran!");
+            }, kgraph);
+        assertTrue(job.cancel());
+        job.run();
+        assertEquals(KJob.Status.CANCELLED, job.getStatus());
+        assertEquals(0, job.getStarted());
+        assertTrue(job.isDone());
+    }
+
+    @Test
+    public void cancelledWhileRunning () throws Exception {
+        CountDownLatch running = new CountDownLatch (1);
+        KJob job = new KJob ("test", (kg, nodes) -> {
+                running.countDown();
+                while (!KJob.cancelled())
+                    Thread.yield();
+            }, kgraph);
+        Thread t = new Thread (job);
+        t.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(job.cancel());
+        t.join(5000l);
+        assertEquals(KJob.Status.CANCELLED, job.getStatus());
+        assertTrue(job.getStarted() > 0);
+    }
+
+    @Test
+    public void cancelRacesRun () throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 200; ++i) {
+                KJob job = new KJob ("test", (kg, nodes) -> {}, kgraph);
+                CyclicBarrier go = new CyclicBarrier (2);
+                Future<?> run = threads.submit(() -> {
+                        go.await();
+                        job.run();
+                        return null;
+                    });
+                Future<Boolean> cancel = threads.submit(() -> {
+                        go.await();
+                        return job.cancel();
+                    });
+                run.get();
+                cancel.get();
+                // either it never started or it ran to the end
+                KJob.Status status = job.getStatus();
+                assertTrue(status.toString(), job.getStarted() == 0
+                           ? status == KJob.Status.CANCELLED
+                           : status == KJob.Status.DONE
+                           || status == KJob.Status.CANCELLED);
+                assertTrue(job.isDone());
+            }
+        }
+        finally {
+            threads.shutdown();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Job scheduling: turns across kgraphs, priorities, budgets and capacity
+ */
+public class KSchedulerTest {
+    Blackboard blackboard;
+    KScheduler scheduler;
+    // released to let the gate jobs finish
+    CountDownLatch release;
+
+    @Before
+    public void setUp () {
+        blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), new KEvents ());
+        release = new CountDownLatch (1);
+    }
+
+    @After
+    public void tearDown () {
+        release.countDown();
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    KGraph kgraph (String name) {
+        return blackboard.createKGraph(Collections.singletonMap(NAME_P, name));
+    }
+
+    KSource gate () {
+        return (kg, nodes) -> {
+            try {
+                release.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    static void await (KJob... jobs) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000l;
+        for (KJob job : jobs)
+            while (!job.isDone()) {
+                assertTrue("Job "+job.getId()+" is "+job.getStatus(),
+                           System.currentTimeMillis() < end);
+                Thread.sleep(5l);
+            }
+    }
+
+    @Test
+    public void kgraphsTakeTurns () throws Exception {
+        scheduler = new KScheduler (1, 100, Collections.emptyMap());
+        KGraph a = kgraph ("a"), b = kgraph ("b");
+        KJob first = new KJob ("gate", gate (), a);
+        scheduler.submit(first);
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        List<KJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            jobs.add(new KJob ("test", (kg, nodes) -> order.add("a"), a));
+        for (int i = 0; i < 3; ++i)
+            jobs.add(new KJob ("test", (kg, nodes) -> order.add("b"), b));
+        // the busy kgraph submitted all of its jobs first
+        for (KJob job : jobs)
+            scheduler.submit(job);
+
+        release.countDown();
+        await (jobs.toArray(new KJob[0]));
+        assertEquals(Arrays.asList("a", "b", "a", "b", "a", "b"), order);
+    }
+
+    @Test
+    public void priorityWithinKGraph () throws Exception {
+        scheduler = new KScheduler (1, 100, Collections.emptyMap());
+        KGraph kg = kgraph ("a");
+        scheduler.submit(new KJob ("gate", gate (), kg));
+
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        List<KJob> jobs = new ArrayList<>();
+        for (int p : new int[]{0, 5, 1, 5}) {
+            int id = jobs.size();
+            jobs.add(new KJob ("test", (g, nodes) -> order.add(id), p, kg));
+        }
+        for (KJob job : jobs)
+            scheduler.submit(job);
+
+        release.countDown();
+        await (jobs.toArray(new KJob[0]));
+        // higher first, then in the order submitted
+        assertEquals(Arrays.asList(1, 3, 2, 0), order);
+    }
+
+    @Test
+    public void budgetsCapSources () throws Exception {
+        scheduler = new KScheduler
+            (4, 100, Collections.singletonMap("slow", 1));
+        AtomicInteger running = new AtomicInteger ();
+        AtomicInteger max = new AtomicInteger ();
+        KSource slow = (kg, nodes) -> {
+            max.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50l);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+        };
+
+        List<KJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            jobs.add(new KJob ("slow", slow, kgraph ("s"+i)));
+        // a pipeline takes from the budget of each of its sources
+        jobs.add(new KJob ("fast/slow", slow, kgraph ("p")));
+        for (KJob job : jobs)
+            scheduler.submit(job);
+
+        // over budget jobs don't hold up the others
+        KJob fast = new KJob ("fast", (kg, nodes) -> {}, kgraph ("f"));
+        scheduler.submit(fast);
+        await (fast);
+        assertTrue(jobs.stream().anyMatch(job -> !job.isDone()));
+
+        await (jobs.toArray(new KJob[0]));
+        assertEquals(1, max.get());
+        assertEquals(0, scheduler.getMetrics().get("queued"));
+    }
+
+    @Test
+    public void capacityAndCancel () throws Exception {
+        scheduler = new KScheduler (1, 2, Collections.emptyMap());
+        KGraph kg = kgraph ("a");
+        KJob running = new KJob ("gate", gate (), kg);
+        scheduler.submit(running);
+        while (running.getStarted() == 0)
+            Thread.sleep(5l);
+
+        KJob queued = new KJob ("test", (g, nodes) -> {
+                fail ("Cancelled job ran!");
+            }, kg);
+        scheduler.submit(queued);
+        scheduler.submit(new KJob ("test", (g, nodes) -> {}, kg));
+        try {
+            scheduler.submit(new KJob ("test", (g, nodes) -> {}, kg));
+            fail ("Job queue over capacity!");
+        }
+        catch (RejectedExecutionException ex) {
+        }
+
+        // a cancelled job gives its place back right away
+        assertTrue(scheduler.cancel(queued));
+        assertEquals(KJob.Status.CANCELLED, queued.getStatus());
+        KJob last = new KJob ("test", (g, nodes) -> {}, kg);
+        scheduler.submit(last);
+
+        release.countDown();
+        await (running, last);
+        assertEquals(KJob.Status.DONE, last.getStatus());
+        assertFalse(scheduler.cancel(last));
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Memory kgraphs, their batch writer and snapshots
+ */
+public class MemoryKGraphTest {
+    KEvents events;
+    Blackboard blackboard;
+
+    @Before
+    public void setUp () {
+        events = new KEvents ();
+        blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), events);
+    }
+
+    static Map<String, Object> props (Object... kv) {
+        Map<String, Object> props = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2)
+            props.put((String)kv[i], kv[i+1]);
+        return props;
+    }
+
+    KGraph kgraph () {
+        return blackboard.createKGraph(props (TYPE_P, "query",
+                                              NAME_P, "test"));
+    }
+
+    @Test
+    public void stitchOnSynonyms () {
+        KGraph kg = kgraph ();
+        KNode a = kg.createNode(props (NAME_P, "a", SYNONYMS_P, "X"));
+        KNode b = kg.createNode(props (NAME_P, "b", SYNONYMS_P, "X"));
+        kg.createNode(props (NAME_P, "c", SYNONYMS_P, "Y"));
+
+        assertEquals(4, kg.getNodeCount()); // the seed included
+        assertEquals(1, kg.getEdgeCount());
+        KEdge e = kg.getEdges()[0];
+        assertEquals("resolve", e.getType());
+        assertEquals(new HashSet<>(Arrays.asList(a.getId(), b.getId())),
+                     new HashSet<>(Arrays.asList(e.getSource(),
+                                                 e.getTarget())));
+    }
+
+    @Test
+    public void batchWrite () throws Exception {
+        KGraph kg = kgraph ();
+        AtomicInteger added = new AtomicInteger ();
+        KEventListener<KNode> listener = ev -> {
+            if (ev.getOper() == KEvent.Oper.ADD)
+                added.incrementAndGet();
+        };
+        KEvents.Subscription sub = events.subscribe
+            (KNode.class, listener, KEvents.Backpressure.BLOCK, 1024);
+        try {
+            KGraphBatch batch = kg.batch();
+            KGraphBatch.Ref a = batch.createNodeIfAbsent
+                (props (URI_P, "urn:a", NAME_P, "a"), URI_P);
+            KGraphBatch.Ref b = batch.createNodeIfAbsent
+                (props (URI_P, "urn:b", NAME_P, "b"), URI_P);
+            batch.createEdgeIfAbsent(a, b, "assertion");
+            batch.createEdgeIfAbsent(a, a, "assertion"); // skipped
+            a.tag("A");
+            assertEquals(0, added.get());
+            assertTrue(batch.size() > 0);
+            batch.execute();
+            assertEquals(0, batch.size());
+
+            assertEquals(3, kg.getNodeCount());
+            assertEquals(1, kg.getEdgeCount());
+            assertTrue(a.node().hasTag("A"));
+            assertEquals("urn:b", kg.node(b.node().getId()).get(URI_P));
+
+            // the batch is reusable and finds what's already there
+            KGraphBatch.Ref c = batch.createNodeIfAbsent
+                (props (URI_P, "urn:a"), URI_P);
+            batch.execute();
+            assertEquals(a.node().getId(), c.node().getId());
+            assertEquals(3, kg.getNodeCount());
+
+            assertTrue(sub.await(5000l));
+            assertEquals(2, added.get());
+        }
+        finally {
+            events.unsubscribe(KNode.class, listener);
+        }
+    }
+
+    @Test
+    public void membership () {
+        KGraph kg = kgraph ();
+        KGraph other = kgraph ();
+        KNode a = kg.createNode(props (NAME_P, "a"));
+        KNode b = other.createNode(props (NAME_P, "b"));
+        assertEquals(a.getId(), b.getId()); // ids are per kgraph
+
+        try {
+            kg.createEdge(a, b, "assertion", null);
+            fail ("Node of another kgraph accepted!");
+        }
+        catch (IllegalArgumentException ex) {
+        }
+        assertEquals(0, kg.getEdgeCount());
+
+        // a node of a snapshot stands for the live node
+        KGraph snapshot = kg.snapshot();
+        KNode seed = kg.nodeStream(null, "KQuery").findFirst().get();
+        kg.createEdge(snapshot.node(a.getId()), seed, "assertion", null);
+        assertEquals(1, kg.getEdgeCount());
+    }
+
+    @Test
+    public void snapshotIsReadOnly () {
+        KGraph kg = kgraph ();
+        KNode a = kg.createNode(props (NAME_P, "a"));
+        KGraph snapshot = kg.snapshot();
+        try {
+            snapshot.node(a.getId()).put(NAME_P, "c");
+            fail ("Snapshot is writable!");
+        }
+        catch (UnsupportedOperationException ex) {
+        }
+        try {
+            snapshot.createNode(props (NAME_P, "d"));
+            fail ("Snapshot is writable!");
+        }
+        catch (UnsupportedOperationException ex) {
+        }
+        assertEquals("a", kg.node(a.getId()).get(NAME_P));
+        assertEquals(2, kg.getNodeCount());
+    }
+
+    @Test
+    public void writesAreStampedAndIndexed () {
+        KGraph kg = kgraph ();
+        KNode a = kg.createNode(props (NAME_P, "a"));
+        KNode b = kg.createNode(props (NAME_P, "b"));
+        long version = kg.getVersion();
+        assertEquals(0, kg.nodesSince(version).count());
+
+        a.put(URI_P, "urn:a");
+        assertTrue(kg.getVersion() > version);
+        assertEquals(Arrays.asList(a.getId()), kg.nodesSince(version)
+                     .map(KNode::getId).collect(Collectors.toList()));
+
+        version = kg.getVersion();
+        b.addTag("B");
+        assertEquals(Arrays.asList(b.getId()), kg.nodesSince(version)
+                     .map(KNode::getId).collect(Collectors.toList()));
+
+        // the index follows the put
+        KNode c = kg.createNodeIfAbsent(props (URI_P, "urn:a"), URI_P);
+        assertEquals(a.getId(), c.getId());
+        a.put(URI_P, "urn:c");
+        assertEquals(0, kg.findNodes(URI_P, "urn:a").length);
+        assertEquals(a.getId(), kg.findNodes(URI_P, "urn:c")[0].getId());
+        assertEquals(3, kg.getNodeCount());
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import org.junit.*;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Version deltas of neo4j kgraphs
+ */
+public class Neo4jDeltaTest extends Neo4jTest {
+    @Test
+    public void sinceDeltaUnderConcurrentWrites () throws Exception {
+        KGraph kg = kgraph ();
+        int writers = 4, nodes = 100;
+        ExecutorService threads = Executors.newFixedThreadPool(writers);
+        List<Future<List<Long>>> created = new ArrayList<>();
+        for (int i = 0; i < writers; ++i) {
+            int w = i;
+            created.add(threads.submit(() -> {
+                        List<Long> ids = new ArrayList<>();
+                        for (int j = 0; j < nodes; ++j)
+                            ids.add(kg.createNode
+                                    (props (NAME_P, w+":"+j)).getId());
+                        return ids;
+                    }));
+        }
+        threads.shutdown();
+
+        // a client polling with the version of its last delta
+        Set<Long> seen = new HashSet<>();
+        long since = 0l;
+        do {
+            long version = kg.getVersion();
+            seen.addAll(kg.nodesSince(since).map(KNode::getId)
+                        .collect(Collectors.toList()));
+            assertTrue(version >= since);
+            since = version;
+        }
+        while (!threads.awaitTermination(10, TimeUnit.MILLISECONDS));
+        seen.addAll(kg.nodesSince(since).map(KNode::getId)
+                    .collect(Collectors.toList()));
+
+        for (Future<List<Long>> f : created)
+            for (Long id : f.get())
+                assertTrue("Delta missed node "+id, seen.contains(id));
+        assertEquals(writers*nodes + 1, kg.getNodeCount());
+        assertEquals(0, kg.nodesSince(kg.getVersion()).count());
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.*;
+
+import org.junit.*;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Neo4j kgraphs: how their nodes are indexed
+ */
+public class Neo4jKGraphTest extends Neo4jTest {
+    @Test
+    public void legacyIndexIsKeptUnlessMigrated () throws Exception {
+        reopen (); // legacy by default
+        KGraph legacy = kgraph ();
+        legacy.createNode(props (NAME_P, "a", "color", "red"));
+        assertNull(blackboard.nodeIndex(legacy));
+
+        reopen ("blackboard.index.strategy", "memory");
+        legacy = blackboard.getKGraph(legacy.getId());
+        assertNull(blackboard.nodeIndex(legacy));
+        legacy.createNode(props (NAME_P, "b", "color", "red"));
+        assertEquals(2, legacy.findNodes("color", "red").length);
+        KGraph memory = kgraph ();
+        assertEquals("memory", blackboard.nodeIndex(memory));
+
+        // back to legacy, the memory kgraph stays on memory
+        reopen ("blackboard.index.strategy", "legacy");
+        memory = blackboard.getKGraph(memory.getId());
+        assertEquals("memory", blackboard.nodeIndex(memory));
+        legacy = blackboard.getKGraph(legacy.getId());
+        assertEquals(2, legacy.findNodes("color", "red").length);
+
+        reopen ("blackboard.index.strategy", "memory",
+                "blackboard.index.migrate", true);
+        legacy = blackboard.getKGraph(legacy.getId());
+        assertEquals("memory", blackboard.nodeIndex(legacy));
+        assertEquals(2, legacy.findNodes("color", "red").length);
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.*;
+import org.neo4j.graphdb.Transaction;
+
+import blackboard.*;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stitching of neo4j kgraph nodes that share a synonym
+ */
+public class Neo4jStitchTest extends Neo4jTest {
+    @Test
+    public void stitchOnSynonyms () {
+        KGraph kg = kgraph ();
+        KNode a = kg.createNode(props (NAME_P, "a", SYNONYMS_P, "X"));
+        KNode b = kg.createNode(props (NAME_P, "b",
+                                       SYNONYMS_P, new String[]{"X", "Y"}));
+        kg.createNode(props (NAME_P, "c", SYNONYMS_P, "Z"));
+
+        assertEquals(4, kg.getNodeCount());
+        assertEquals(1, kg.getEdgeCount());
+        KEdge e = kg.getEdges()[0];
+        assertEquals("resolve", e.getType());
+        assertEquals(b.getId(), e.getSource()); // newer to older
+        assertEquals(a.getId(), e.getTarget());
+        assertEquals(0, kg.restitch());
+    }
+
+    @Test
+    public void rolledBackCreateIsNotStitched () {
+        KGraph kg = kgraph ();
+        try (Transaction tx = blackboard.beginTx()) {
+            kg.createNode(props (NAME_P, "a", SYNONYMS_P, "X"));
+            // no success, so the create is rolled back
+        }
+        assertEquals(1, kg.getNodeCount());
+
+        KNode b = kg.createNode(props (NAME_P, "b", SYNONYMS_P, "X"));
+        assertEquals(0, kg.getEdgeCount());
+        KNode c = kg.createNode(props (NAME_P, "c", SYNONYMS_P, "X"));
+        assertEquals(1, kg.getEdgeCount());
+        KEdge e = kg.getEdges()[0];
+        assertEquals(c.getId(), e.getSource());
+        assertEquals(b.getId(), e.getTarget());
+    }
+}
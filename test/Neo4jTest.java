@@ -0,0 +1,89 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.neo4j.graphdb.Transaction;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.neo4j.Neo4jBlackboard;
+import static blackboard.KEntity.*;
+
+/**
+ * A Neo4j blackboard over a temporary database for the tests to extend
+ */
+public abstract class Neo4jTest {
+    /*
+     * lets the tests wrap their writes in a transaction of their own
+     */
+    static class TestBlackboard extends Neo4jBlackboard {
+        TestBlackboard (Configuration config, KEvents events,
+                        List<Callable<? extends CompletionStage<?>>> hooks)
+            throws IOException {
+            super (config, events, hooks::add);
+        }
+
+        Transaction beginTx () {
+            return graphDb.beginTx();
+        }
+
+        // how the nodes of kgraph are indexed, null for legacy
+        Object nodeIndex (KGraph kgraph) {
+            try (Transaction tx = graphDb.beginTx()) {
+                return graphDb.getNodeById(kgraph.getId())
+                    .getProperty("_nodeIndex", null);
+            }
+        }
+    }
+
+    File base;
+    List<Callable<? extends CompletionStage<?>>> hooks;
+    TestBlackboard blackboard;
+
+    @Before
+    public void setUp () throws Exception {
+        base = Files.createTempDirectory("blackboard").toFile();
+        Map<String, Object> config = new HashMap<>();
+        config.put("blackboard.base", base.getPath());
+        config.put("blackboard.index.strategy", "memory");
+        hooks = new ArrayList<>();
+        blackboard = new TestBlackboard
+            (new Configuration (config), new KEvents (), hooks);
+    }
+
+    @After
+    public void tearDown () throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : hooks)
+            hook.call().toCompletableFuture().join();
+        Files.walk(base.toPath()).sorted(Comparator.reverseOrder())
+            .forEach(p -> p.toFile().delete());
+    }
+
+    static Map<String, Object> props (Object... kv) {
+        Map<String, Object> props = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2)
+            props.put((String)kv[i], kv[i+1]);
+        return props;
+    }
+
+    KGraph kgraph () {
+        return blackboard.createKGraph(props (TYPE_P, "query",
+                                              NAME_P, "test"));
+    }
+
+    /*
+     * shut the blackboard down and open it again over the same database
+     */
+    void reopen (Object... kv) throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : hooks)
+            hook.call().toCompletableFuture().join();
+        hooks.clear();
+        Map<String, Object> config = props (kv);
+        config.put("blackboard.base", base.getPath());
+        blackboard = new TestBlackboard
+            (new Configuration (config), new KEvents (), hooks);
+    }
+}
@@ -0,0 +1,117 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import play.Configuration;
+
+import blackboard.*;
+import blackboard.memory.MemoryBlackboard;
+import static blackboard.KEntity.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stages of a pipeline and the frontier each of them gets
+ */
+public class PipelineKSourceTest {
+    KEvents events;
+    KGraph kgraph;
+    // stage name -> the names of the nodes it got
+    Map<String, Set<String>> got;
+
+    @Before
+    public void setUp () {
+        events = new KEvents ();
+        Blackboard blackboard = new MemoryBlackboard
+            (new Configuration (new HashMap<>()), events);
+        kgraph = blackboard.createKGraph
+            (Collections.singletonMap(NAME_P, "seed"));
+        got = new ConcurrentHashMap<>();
+    }
+
+    /*
+     * adds a node named prefix+name for each node it gets
+     */
+    KSource expand (String stage, String prefix) {
+        return (kg, nodes) -> {
+            Set<String> names = got.computeIfAbsent
+                (stage, k -> ConcurrentHashMap.newKeySet());
+            for (KNode kn : nodes) {
+                names.add(kn.getName());
+                KNode n = kg.createNode
+                    (Collections.singletonMap(NAME_P, prefix+kn.getName()));
+                kg.createEdge(kn, n, "assertion", null);
+            }
+        };
+    }
+
+    static Set<String> set (String... names) {
+        return new TreeSet<>(Arrays.asList(names));
+    }
+
+    static Map<String, KSource> stage (Object... kv) {
+        Map<String, KSource> stage = new LinkedHashMap<>();
+        for (int i = 0; i < kv.length; i += 2)
+            stage.put((String)kv[i], (KSource)kv[i+1]);
+        return stage;
+    }
+
+    @Test
+    public void stagesGetWhatTheStageBeforeAdded () {
+        KNode seed = kgraph.getNodes()[0];
+        PipelineKSource pipeline = new PipelineKSource (Arrays.asList
+            (stage ("a", expand ("a", "a."), "b", expand ("b", "b.")),
+             stage ("c", expand ("c", "c."))), events);
+        pipeline.execute(kgraph, seed);
+
+        assertEquals(set ("seed"), got.get("a"));
+        assertEquals(set ("seed"), got.get("b"));
+        // the sources of a stage run on the same frontier
+        assertEquals(set ("a.seed", "b.seed"), got.get("c"));
+        assertEquals(5, kgraph.getNodeCount());
+    }
+
+    @Test
+    public void stopsWhenAStageAddsNothing () {
+        KNode seed = kgraph.getNodes()[0];
+        KSource nothing = (kg, nodes) -> got.put("nothing", set ());
+        PipelineKSource pipeline = new PipelineKSource (Arrays.asList
+            (stage ("nothing", nothing), stage ("a", expand ("a", "a."))),
+            events);
+        pipeline.execute(kgraph, seed);
+        assertTrue(got.containsKey("nothing"));
+        assertFalse(got.containsKey("a"));
+    }
+
+    @Test
+    public void failedSourceDoesntStopItsStage () {
+        KNode seed = kgraph.getNodes()[0];
+        KSource boom = (kg, nodes) -> {
+            throw new IllegalStateException ("boom");
+        };
+        PipelineKSource pipeline = new PipelineKSource (Arrays.asList
+            (stage ("boom", boom, "a", expand ("a", "a.")),
+             stage ("b", expand ("b", "b."))), events);
+        pipeline.execute(kgraph, seed);
+        assertEquals(set ("a.seed"), got.get("b"));
+    }
+
+    @Test
+    public void jobShowsItsStage () {
+        List<String> stages = new CopyOnWriteArrayList<>();
+        KJob[] job = new KJob[1];
+        KSource record = (kg, nodes) -> {
+            stages.add(job[0].getStage());
+            assertFalse(KJob.cancelled()); // the job is carried over
+            expand ("x", "x."+stages.size()).execute(kg, nodes);
+        };
+        PipelineKSource pipeline = new PipelineKSource (Arrays.asList
+            (stage ("a", record), stage ("b", record)), events);
+        job[0] = new KJob ("a/b", pipeline, kgraph,
+                           kgraph.getNodes()[0]);
+        job[0].run();
+        assertEquals(KJob.Status.DONE, job[0].getStatus());
+        assertEquals(Arrays.asList("1/2: a", "2/2: b"), stages);
+    }
+}